@@ -1,3 +1,4 @@
 @echo off
 Call httpdCopy.bat dist\Bailiff.jar
 Call httpdCopy.bat dist\Bailiff-dl.jar
+Call httpdCopy.bat dist\Bailiff-gui.jar
@@ -1,2 +1,3 @@
 @echo off
 Call httpdCopy.bat dist\Dexter.jar
+Call httpdCopy.bat dist\Dexter-gui.jar
@@ -0,0 +1,400 @@
+// BailiffBench.java
+// Benchmarks of the Bailiff's migration, admission and tag paths.
+
+package dsv.pis.gotag.bailiff;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.jini.core.lookup.*;
+
+import dsv.pis.gotag.dexter.Dexter;
+import dsv.pis.gotag.util.*;
+
+/**
+ * BailiffBench measures the hot paths of the Bailiff in one JVM, with
+ * Bailiffs that are neither registered with Jini nor exported for RMI:
+ * <pre>
+ *   admission     migrate into a Bailiff whose engine runs the agent at
+ *                 once, so that the agent is admitted, runs an empty
+ *                 entry point and departs; 1 and 4 threads contend for
+ *                 the list of current agents
+ *   entryCached   resolving and invoking an entry point through the
+ *                 Bailiff's cache of method handles
+ *   entryReflect  the same with Class.getMethod and Method.invoke, as
+ *                 the Bailiff did before the cache
+ *   tag           a two-phase tag transfer between resident agents
+ *   dexterWire    serializing and deserializing a Dexter
+ *   loggerEntry   Logger.entry to a file, on 1 and 4 threads
+ *   loggerAsync   the same with an asynchronous Logger that blocks
+ *                 when it falls behind
+ *   eventLog      EventLog.record of a tag event, on 1 and 4 threads
+ *   hop           agents hopping between 4 Bailiffs found in a
+ *                 StaticDirectory, in hops per second
+ * </pre>
+ * The benchmarks are run by the ant target 'bench', which writes the
+ * results to build-bench/bench-result.json.
+ */
+public class BailiffBench {
+
+  /**
+   * An agent whose entry point returns at once.
+   */
+  public static class StayAgent extends Dexter {
+    public StayAgent () throws ClassNotFoundException {
+      super (false, true, UUID.randomUUID ());
+    }
+
+    public void stay (Boolean isIt) {}
+  }
+
+  /**
+   * An agent that stays in its Bailiff until the benchmark is over.
+   */
+  public static class ParkAgent extends Dexter {
+    static volatile CountDownLatch over;
+
+    public ParkAgent () throws ClassNotFoundException {
+      super (false, true, UUID.randomUUID ());
+    }
+
+    public void park (Boolean isIt) throws InterruptedException {
+      over.await ();
+    }
+  }
+
+  /**
+   * An agent that keeps hopping to a random other Bailiff.
+   */
+  public static class HopAgent extends Dexter {
+    static volatile boolean hopping = true;
+    static final LongAdder hops = new LongAdder ();
+    static final LongAdder failures = new LongAdder ();
+
+    public HopAgent () throws ClassNotFoundException {
+      super (false, true, UUID.randomUUID ());
+    }
+
+    public void hop (Boolean isIt) {
+      BailiffContext ctx = BailiffContext.getLocal ();
+      Object [] args = new Object [] {Boolean.FALSE};
+      while (hopping) {
+	ServiceItem [] items = ctx.getDirectory ().lookup (null, 2);
+	for (ServiceItem item : items) {
+	  if (item.service != ctx.getBailiff ()) {
+	    try {
+	      ctx.migrate ((BailiffInterface) item.service, this, "hop", args);
+	      hops.increment ();
+	      return;
+	    }
+	    catch (Exception e) {
+	      failures.increment ();
+	    }
+	  }
+	}
+      }
+    }
+  }
+
+  /**
+   * Runs tasks on the thread that hands them over.
+   */
+  static class DirectExecutor extends AbstractExecutorService {
+    private volatile boolean shutdown = false;
+
+    public void execute (Runnable r) {
+      if (shutdown) {
+	throw new RejectedExecutionException ();
+      }
+      r.run ();
+    }
+
+    public void shutdown () {
+      shutdown = true;
+    }
+
+    public List<Runnable> shutdownNow () {
+      shutdown = true;
+      return Collections.emptyList ();
+    }
+
+    public boolean isShutdown () {
+      return shutdown;
+    }
+
+    public boolean isTerminated () {
+      return shutdown;
+    }
+
+    public boolean awaitTermination (long timeout, TimeUnit unit) {
+      return true;
+    }
+  }
+
+  static Bailiff localBailiff (String room, AgentEngine engine,
+			       BailiffDirectory directory)
+    throws Exception
+  {
+    return new Bailiff (room, null, engine, directory);
+  }
+
+  static StayAgent [] stayAgents (int n) throws Exception {
+    StayAgent [] agents = new StayAgent [n];
+    for (int i = 0; i < n; i++) {
+      agents[i] = new StayAgent ();
+    }
+    return agents;
+  }
+
+  static void admission (BenchRunner runner, int threads) throws Exception {
+    final Bailiff bf =
+      localBailiff ("admission",
+		    new AgentEngine ("direct", 0, new DirectExecutor ()),
+		    new StaticDirectory ());
+    final StayAgent [][] agents = new StayAgent [threads][];
+    for (int t = 0; t < threads; t++) {
+      agents[t] = stayAgents (64);
+    }
+    final Object [] args = new Object [] {Boolean.FALSE};
+    final int [] next = new int [threads * 16];
+    runner.run ("admission", threads, new BenchRunner.Op () {
+	public Object run (int t) throws Exception {
+	  int i = next[t * 16]++ & 63;
+	  bf.migrate (agents[t][i], "stay", args);
+	  return agents[t][i];
+	}
+      });
+    bf.shutdown ();
+  }
+
+  static void entryPoints (BenchRunner runner) throws Exception {
+    final EntryPointCache cache = new EntryPointCache ();
+    final StayAgent agent = new StayAgent ();
+    final Class<?> [] parms = new Class<?> [] {Boolean.class};
+    final Object [] args = new Object [] {Boolean.FALSE};
+    runner.run ("entryCached", 1, new BenchRunner.Op () {
+	public Object run (int t) throws Exception {
+	  try {
+	    EntryPointCache.EntryPoint ep =
+	      cache.resolve (StayAgent.class, "stay", parms);
+	    ep.invoke (agent, args);
+	    return ep;
+	  }
+	  catch (Throwable e) {
+	    throw new Exception (e);
+	  }
+	}
+      });
+    runner.run ("entryReflect", 1, new BenchRunner.Op () {
+	public Object run (int t) throws Exception {
+	  Method m = StayAgent.class.getMethod ("stay", parms);
+	  m.invoke (agent, args);
+	  return m;
+	}
+      });
+  }
+
+  static void tag (BenchRunner runner) throws Exception {
+    final Bailiff bf = localBailiff ("tag", AgentEngine.create ("pool:64"),
+				     new StaticDirectory ());
+    final Map<UUID, ParkAgent> agents = new HashMap<UUID, ParkAgent> ();
+    ParkAgent.over = new CountDownLatch (1);
+    for (int i = 0; i < 32; i++) {
+      ParkAgent a = new ParkAgent ();
+      agents.put (a.getName (), a);
+      bf.migrate (a, "park", new Object [] {Boolean.FALSE});
+    }
+    final ParkAgent first = agents.values ().iterator ().next ();
+    first.getTagState ().grant ();
+    final ParkAgent [] holder = new ParkAgent [] {first};
+    runner.run ("tag", 1, new BenchRunner.Op () {
+	public Object run (int t) throws Exception {
+	  ParkAgent giver = holder[0];
+	  giver.getTagState ().prepareGive ();
+	  UUID got = bf.tagAnyAgent (giver.getName (), Transfers.newId ());
+	  if (got != null) {
+	    giver.getTagState ().commitGive ();
+	    holder[0] = agents.get (got);
+	  }
+	  else {
+	    giver.getTagState ().abortGive ();
+	  }
+	  return got;
+	}
+      });
+    ParkAgent.over.countDown ();
+    bf.shutdown ();
+  }
+
+  static void dexterWire (BenchRunner runner) throws Exception {
+    final Dexter dx = new Dexter (false, true, UUID.randomUUID ());
+    runner.run ("dexterWire", 1, new BenchRunner.Op () {
+	public Object run (int t) throws Exception {
+	  ByteArrayOutputStream bos = new ByteArrayOutputStream (256);
+	  ObjectOutputStream oos = new ObjectOutputStream (bos);
+	  oos.writeObject (dx);
+	  oos.close ();
+	  return new ObjectInputStream
+	    (new ByteArrayInputStream (bos.toByteArray ())).readObject ();
+	}
+      });
+  }
+
+  static void loggerEntry (BenchRunner runner, int threads, String async)
+    throws Exception
+  {
+    File f = File.createTempFile ("bench", ".log");
+    f.deleteOnExit ();
+    final Logger log = new Logger (f.getPath (), false);
+    if (async != null) {
+      log.setAsync (async);
+    }
+    final UUID agent = UUID.randomUUID ();
+    String name = (async != null) ? "loggerAsync" : "loggerEntry";
+    runner.run (name, threads, new BenchRunner.Op () {
+	public Object run (int t) throws Exception {
+	  log.entry ("migrate", "obj", agent, "cb", "topLevel");
+	  return log;
+	}
+      });
+    log.close ();
+    f.delete ();
+  }
+
+  static void eventLog (BenchRunner runner, int threads) throws Exception {
+    File f = File.createTempFile ("bench", ".evt");
+    f.delete ();
+    final EventLog events = EventLog.open (f, "bench", EventLog.DEFAULT_SEGMENT);
+    final UUID a = UUID.randomUUID ();
+    final UUID b = UUID.randomUUID ();
+    runner.run ("eventLog", threads, new BenchRunner.Op () {
+	public Object run (int t) throws Exception {
+	  events.record (EventLog.TAG, a, b, a, t);
+	  return events;
+	}
+      });
+    events.close ();
+    for (int n = 0; n <= events.getSegmentNumber (); n++) {
+      EventLog.segmentFile (f, n).delete ();
+    }
+  }
+
+  static void hop (BenchRunner runner, int agents) throws Exception {
+    StaticDirectory directory = new StaticDirectory ();
+    List<Bailiff> bailiffs = new ArrayList<Bailiff> ();
+    for (int i = 0; i < 4; i++) {
+      Bailiff bf = localBailiff ("hop" + i, AgentEngine.create ("pool:16"),
+				 directory);
+      directory.add (bf);
+      bailiffs.add (bf);
+    }
+    HopAgent.hopping = true;
+    for (int i = 0; i < agents; i++) {
+      bailiffs.get (i % 4).migrate (new HopAgent (), "hop",
+				    new Object [] {Boolean.FALSE});
+    }
+    runner.measure ("hop", agents, HopAgent.hops);
+    HopAgent.hopping = false;
+    Thread.sleep (100);
+    for (Bailiff bf : bailiffs) {
+      bf.shutdown ();
+    }
+  }
+
+  public static void main (String [] argv) throws Exception {
+    CmdlnOption helpOption = new CmdlnOption ("-help");
+    CmdlnOption jsonOption = new CmdlnOption ("-json",
+					      CmdlnOption.OPTIONAL |
+					      CmdlnOption.PAR_REQ);
+    CmdlnOption warmupOption = new CmdlnOption ("-warmup",
+						CmdlnOption.OPTIONAL |
+						CmdlnOption.PAR_REQ);
+    CmdlnOption iterOption = new CmdlnOption ("-iterations",
+					      CmdlnOption.OPTIONAL |
+					      CmdlnOption.PAR_REQ);
+    CmdlnOption timeOption = new CmdlnOption ("-time",
+					      CmdlnOption.OPTIONAL |
+					      CmdlnOption.PAR_REQ);
+    CmdlnOption onlyOption = new CmdlnOption ("-only",
+					      CmdlnOption.OPTIONAL |
+					      CmdlnOption.PAR_REQ);
+
+    CmdlnOption [] opts =
+      new CmdlnOption [] {helpOption, jsonOption, warmupOption, iterOption,
+			  timeOption, onlyOption};
+
+    String [] restArgs = Commandline.parseArgs (System.out, argv, opts);
+    if (restArgs == null) {
+      System.exit (1);
+    }
+
+    if (helpOption.getIsSet ()) {
+      System.out.println ("Usage: [-help]|[-json file][-warmup n]"
+			  + "[-iterations n][-time ms][-only name,...]");
+      System.out.println ("where -json writes the results to a file.");
+      System.out.println ("      -warmup and -iterations set the number of");
+      System.out.println ("        iterations (default 3 and 5), and -time");
+      System.out.println ("        their length (default 1000 ms).");
+      System.out.println ("      -only runs the named benchmarks: admission,");
+      System.out.println ("        entry, tag, wire, logger, events, hop.");
+      System.exit (0);
+    }
+
+    int warmups = warmupOption.getIsSet ()
+      ? Integer.parseInt (warmupOption.getValue ()) : 3;
+    int iterations = iterOption.getIsSet ()
+      ? Integer.parseInt (iterOption.getValue ()) : 5;
+    long time = timeOption.getIsSet ()
+      ? Long.parseLong (timeOption.getValue ()) : 1000;
+    Set<String> only = new HashSet<String> ();
+    if (onlyOption.getIsSet ()) {
+      only.addAll (Arrays.asList (onlyOption.getValue ().split (",")));
+    }
+
+    BenchRunner runner = new BenchRunner (warmups, iterations, time);
+
+    if (only.isEmpty () || only.contains ("admission")) {
+      admission (runner, 1);
+      admission (runner, 4);
+    }
+    if (only.isEmpty () || only.contains ("entry")) {
+      entryPoints (runner);
+    }
+    if (only.isEmpty () || only.contains ("tag")) {
+      tag (runner);
+    }
+    if (only.isEmpty () || only.contains ("wire")) {
+      dexterWire (runner);
+    }
+    if (only.isEmpty () || only.contains ("logger")) {
+      loggerEntry (runner, 1, null);
+      loggerEntry (runner, 4, null);
+      loggerEntry (runner, 1, Logger.BLOCK);
+      loggerEntry (runner, 4, Logger.BLOCK);
+    }
+    if (only.isEmpty () || only.contains ("events")) {
+      eventLog (runner, 1);
+      eventLog (runner, 4);
+    }
+    if (only.isEmpty () || only.contains ("hop")) {
+      hop (runner, 64);
+    }
+
+    if (jsonOption.getIsSet ()) {
+      Writer w = new FileWriter (jsonOption.getValue ());
+      try {
+	runner.writeJson (w);
+      }
+      finally {
+	w.close ();
+      }
+    }
+    else {
+      runner.writeJson (new OutputStreamWriter (System.out));
+    }
+    System.exit (0);
+  }
+}
@@ -0,0 +1,218 @@
+// BenchRunner.java
+// Runs benchmarks and reports them in JSON.
+
+package dsv.pis.gotag.bailiff;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The BenchRunner is a small stand-in for JMH. A benchmark is run for a
+ * number of warmup iterations, whose results are thrown away, and then
+ * for a number of measurement iterations of fixed length. The score is
+ * the throughput in operations per second, averaged over the measurement
+ * iterations, and the error is the half-width of its 99.9% confidence
+ * interval (normal approximation). Everything runs in the one JVM, so
+ * the benchmarks are run in a fixed order and each starts from a warmed
+ * up, garbage-collected state.
+ * <p>
+ * The results are written in the layout of JMH's JSON output, so that
+ * the same tools can track them between releases.
+ */
+class BenchRunner {
+
+  /**
+   * One operation of a benchmark.
+   */
+  interface Op {
+    /**
+     * Performs the operation once.
+     * @param thread The index of the calling thread.
+     * @return Anything; it is consumed so that the work is not optimized
+     * away.
+     */
+    Object run (int thread) throws Exception;
+  }
+
+  /**
+   * The result of one benchmark.
+   */
+  static final class Result {
+    final String name;
+    final int threads;
+    final double [] scores;
+
+    Result (String name, int threads, double [] scores) {
+      this.name = name;
+      this.threads = threads;
+      this.scores = scores;
+    }
+
+    double mean () {
+      double sum = 0.0;
+      for (double s : scores) {
+	sum += s;
+      }
+      return sum / scores.length;
+    }
+
+    double error () {
+      if (scores.length < 2) {
+	return Double.NaN;
+      }
+      double m = mean ();
+      double ss = 0.0;
+      for (double s : scores) {
+	ss += (s - m) * (s - m);
+      }
+      return 3.29 * Math.sqrt (ss / (scores.length - 1) / scores.length);
+    }
+  }
+
+  protected int warmups = 3;
+  protected int iterations = 5;
+  protected long iterationMs = 1000;
+  protected PrintStream out = System.out;
+  protected final List<Result> results = new ArrayList<Result> ();
+
+  private volatile boolean running;
+  private volatile Object sink;
+
+  BenchRunner (int warmups, int iterations, long iterationMs) {
+    this.warmups = warmups;
+    this.iterations = iterations;
+    this.iterationMs = iterationMs;
+  }
+
+  /**
+   * Runs a benchmark on a number of threads, each calling the operation
+   * as often as it can.
+   */
+  Result run (String name, final int threads, final Op op) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool (threads);
+    try {
+      double [] scores = new double [iterations];
+      for (int i = -warmups; i < iterations; i++) {
+	final AtomicLong ops = new AtomicLong ();
+	final CyclicBarrier start = new CyclicBarrier (threads + 1);
+	List<Future<?>> futures = new ArrayList<Future<?>> ();
+	running = true;
+	for (int t = 0; t < threads; t++) {
+	  final int thread = t;
+	  futures.add (pool.submit (new Callable<Void> () {
+	      public Void call () throws Exception {
+		start.await ();
+		long n = 0;
+		Object last = null;
+		while (running) {
+		  last = op.run (thread);
+		  n += 1;
+		}
+		sink = last;
+		ops.addAndGet (n);
+		return null;
+	      }
+	    }));
+	}
+	start.await ();
+	long t0 = System.nanoTime ();
+	Thread.sleep (iterationMs);
+	running = false;
+	for (Future<?> f : futures) {
+	  f.get ();
+	}
+	double secs = (System.nanoTime () - t0) / 1e9;
+	record (name, i, scores, ops.get () / secs);
+      }
+      return finish (name, threads, scores);
+    }
+    finally {
+      pool.shutdown ();
+    }
+  }
+
+  /**
+   * Measures a counter that something running in the background keeps
+   * increasing, such as the number of hops agents have made.
+   */
+  Result measure (String name, int threads, LongAdder counter)
+    throws Exception
+  {
+    double [] scores = new double [iterations];
+    for (int i = -warmups; i < iterations; i++) {
+      long n0 = counter.sum ();
+      long t0 = System.nanoTime ();
+      Thread.sleep (iterationMs);
+      long n1 = counter.sum ();
+      double secs = (System.nanoTime () - t0) / 1e9;
+      record (name, i, scores, (n1 - n0) / secs);
+    }
+    return finish (name, threads, scores);
+  }
+
+  private void record (String name, int i, double [] scores, double score) {
+    if (0 <= i) {
+      scores[i] = score;
+    }
+    out.println (name + ((i < 0) ? " warmup " + (warmups + i + 1)
+			 : " iteration " + (i + 1))
+		 + ": " + format (score) + " ops/s");
+  }
+
+  private Result finish (String name, int threads, double [] scores) {
+    Result r = new Result (name, threads, scores);
+    results.add (r);
+    out.println (name + ": " + format (r.mean ()) + " +- "
+		 + format (r.error ()) + " ops/s (" + threads + " threads)");
+    System.gc ();
+    return r;
+  }
+
+  private static String format (double d) {
+    return String.format (Locale.ROOT, "%.1f", d);
+  }
+
+  /**
+   * Writes the results so far as JSON.
+   */
+  void writeJson (Writer w) throws IOException {
+    PrintWriter pw = new PrintWriter (w);
+    pw.println ("[");
+    for (int i = 0; i < results.size (); i++) {
+      Result r = results.get (i);
+      pw.println ("  {");
+      pw.println ("    \"benchmark\" : \"" + r.name + "\",");
+      pw.println ("    \"mode\" : \"thrpt\",");
+      pw.println ("    \"threads\" : " + r.threads + ",");
+      pw.println ("    \"forks\" : 0,");
+      pw.println ("    \"jvm\" : \"" + System.getProperty ("java.home")
+		  .replace ("\\", "\\\\") + "\",");
+      pw.println ("    \"jdkVersion\" : \""
+		  + System.getProperty ("java.version") + "\",");
+      pw.println ("    \"warmupIterations\" : " + warmups + ",");
+      pw.println ("    \"warmupTime\" : \"" + iterationMs + " ms\",");
+      pw.println ("    \"measurementIterations\" : " + iterations + ",");
+      pw.println ("    \"measurementTime\" : \"" + iterationMs + " ms\",");
+      pw.println ("    \"primaryMetric\" : {");
+      pw.println ("      \"score\" : " + json (r.mean ()) + ",");
+      pw.println ("      \"scoreError\" : " + json (r.error ()) + ",");
+      pw.println ("      \"scoreUnit\" : \"ops/s\",");
+      StringBuilder raw = new StringBuilder ();
+      for (int j = 0; j < r.scores.length; j++) {
+	raw.append ((j == 0) ? "" : ", ").append (json (r.scores[j]));
+      }
+      pw.println ("      \"rawData\" : [ [ " + raw + " ] ]");
+      pw.println ("    }");
+      pw.println ((i + 1 < results.size ()) ? "  }," : "  }");
+    }
+    pw.println ("]");
+    pw.flush ();
+  }
+
+  private static String json (double d) {
+    return (Double.isNaN (d) || Double.isInfinite (d))
+      ? "\"NaN\"" : String.format (Locale.ROOT, "%.3f", d);
+  }
+}
@@ -0,0 +1,41 @@
+// AbstractBailiffDirectory.java
+// The version of a BailiffDirectory, and waiting for it to change.
+
+package dsv.pis.gotag.bailiff;
+
+/**
+ * The part of a BailiffDirectory that is the same however the Bailiffs
+ * are found: a version that a subclass advances by calling changed
+ * whenever a Bailiff comes or goes, and waiting for it to advance.
+ */
+public abstract class AbstractBailiffDirectory implements BailiffDirectory {
+
+  protected long version = 0;
+
+  public synchronized long getVersion () {
+    return version;
+  }
+
+  public synchronized boolean awaitChange (long since, long timeout)
+    throws
+      java.lang.InterruptedException
+  {
+    long deadline = System.currentTimeMillis () + timeout;
+    while (version == since) {
+      long left = deadline - System.currentTimeMillis ();
+      if (left <= 0) {
+	return false;
+      }
+      wait (left);
+    }
+    return true;
+  }
+
+  /**
+   * Advances the version and wakes up everyone waiting for a change.
+   */
+  protected synchronized void changed () {
+    version += 1;
+    notifyAll ();
+  }
+}
@@ -0,0 +1,223 @@
+// AgentEngine.java
+// Execution engines that lend threads to the agents of a Bailiff.
+
+package dsv.pis.gotag.bailiff;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * An AgentEngine supplies the threads on which the Bailiff runs the
+ * entry points of arriving agents. Which engine a Bailiff uses is chosen
+ * with a short specification string, normally given on the commandline:
+ * <pre>
+ *   thread        one new platform thread per arriving agent (default)
+ *   pool[:N]      elastic pool of at most N reused threads; idle threads
+ *                 time out and excess arrivals queue until a thread frees
+ *   fixed[:N]     N prestarted threads that never time out
+ *   virtual       one virtual thread per agent, on JVMs that have them;
+ *                 otherwise the engine falls back to 'thread'
+ * </pre>
+ * Agents normally run until they migrate away, so a bounded engine
+ * caps the number of agents executing at once. Agents in excess of
+ * the bound wait in the engine's queue.
+ */
+public class AgentEngine {
+
+  public static final String THREAD  = "thread";
+  public static final String POOL    = "pool";
+  public static final String FIXED   = "fixed";
+  public static final String VIRTUAL = "virtual";
+
+  /**
+   * The default thread bound of the pool and fixed engines.
+   */
+  public static final int DEFAULT_THREADS = 64;
+
+  /**
+   * How long an idle pool thread lingers before it exits.
+   */
+  protected static final long IDLE_SECONDS = 60;
+
+  protected String kind;
+  protected int threads;
+  protected ExecutorService executor;
+  protected ThreadPoolExecutor pool;
+  protected final AtomicInteger active = new AtomicInteger ();
+  protected final AtomicLong completed = new AtomicLong ();
+  protected final AtomicLong queued = new AtomicLong ();
+
+  /**
+   * Names the threads created by an engine.
+   */
+  protected static class AgitatorFactory implements ThreadFactory {
+    protected final AtomicInteger serial = new AtomicInteger ();
+
+    public Thread newThread (Runnable r) {
+      return new Thread (r, "agitator-" + serial.incrementAndGet ());
+    }
+  }
+
+  protected AgentEngine (String kind, int threads, ExecutorService executor) {
+    this.kind = kind;
+    this.threads = threads;
+    this.executor = executor;
+    if (executor instanceof ThreadPoolExecutor) {
+      pool = (ThreadPoolExecutor) executor;
+    }
+  }
+
+  /**
+   * Creates an engine from its specification string.
+   * @param spec The specification, for example "pool:128". If null,
+   * the 'thread' engine is created.
+   * @return The new engine.
+   * @throws IllegalArgumentException Thrown if the specification can
+   * not be parsed.
+   */
+  public static AgentEngine create (String spec) {
+    if (spec == null) {
+      spec = THREAD;
+    }
+    String [] parts = spec.trim ().toLowerCase ().split (":");
+    String kind = parts[0];
+    int n = DEFAULT_THREADS;
+    if (1 < parts.length) {
+      try {
+	n = Integer.parseInt (parts[1]);
+      }
+      catch (NumberFormatException e) {
+	throw new IllegalArgumentException ("Bad thread count: " + spec);
+      }
+      if (n < 1) {
+	throw new IllegalArgumentException ("Bad thread count: " + spec);
+      }
+    }
+
+    if (kind.equals (THREAD)) {
+      return new AgentEngine (THREAD, 0, threadPerAgent ());
+    }
+    else if (kind.equals (POOL)) {
+      ThreadPoolExecutor tpe =
+	new ThreadPoolExecutor (n, n, IDLE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable> (),
+				new AgitatorFactory ());
+      tpe.allowCoreThreadTimeOut (true);
+      return new AgentEngine (POOL, n, tpe);
+    }
+    else if (kind.equals (FIXED)) {
+      ThreadPoolExecutor tpe =
+	new ThreadPoolExecutor (n, n, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable> (),
+				new AgitatorFactory ());
+      tpe.prestartAllCoreThreads ();
+      return new AgentEngine (FIXED, n, tpe);
+    }
+    else if (kind.equals (VIRTUAL)) {
+      ExecutorService vx = virtualPerAgent ();
+      return (vx != null)
+	? new AgentEngine (VIRTUAL, 0, vx)
+	: new AgentEngine (THREAD, 0, threadPerAgent ());
+    }
+    throw new IllegalArgumentException ("Unknown engine: " + spec);
+  }
+
+  /**
+   * Returns an executor that starts a fresh thread for each task and
+   * keeps no idle threads around, which is how the Bailiff always ran
+   * its agitators.
+   */
+  protected static ExecutorService threadPerAgent () {
+    return new ThreadPoolExecutor (0, Integer.MAX_VALUE,
+				   0L, TimeUnit.MILLISECONDS,
+				   new SynchronousQueue<Runnable> (),
+				   new AgitatorFactory ());
+  }
+
+  /**
+   * Looks up the virtual-thread-per-task executor reflectively, since the
+   * sources are compiled for Java 8.
+   * @return The executor, or null if the running JVM has no virtual threads.
+   */
+  protected static ExecutorService virtualPerAgent () {
+    try {
+      return (ExecutorService)
+	Executors.class.getMethod ("newVirtualThreadPerTaskExecutor")
+	.invoke (null);
+    }
+    catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Hands a task to the engine.
+   * @param task The task to run.
+   * @throws RejectedExecutionException Thrown if the engine has been
+   * shut down.
+   */
+  public void execute (final Runnable task) {
+    if (0 < threads && threads <= active.get ()) {
+      queued.incrementAndGet ();
+    }
+    executor.execute (new Runnable () {
+	public void run () {
+	  active.incrementAndGet ();
+	  try {
+	    task.run ();
+	  }
+	  finally {
+	    active.decrementAndGet ();
+	    completed.incrementAndGet ();
+	  }
+	}
+      });
+  }
+
+  /**
+   * Returns the name of the engine kind actually in use.
+   */
+  public String getKind () {
+    return kind;
+  }
+
+  /**
+   * Returns the number of tasks currently executing.
+   */
+  public int getActiveCount () {
+    return active.get ();
+  }
+
+  /**
+   * Returns the number of tasks waiting for a thread.
+   */
+  public int getQueuedCount () {
+    return (pool != null) ? pool.getQueue ().size () : 0;
+  }
+
+  /**
+   * Returns the number of tasks that found all threads of a bounded
+   * engine busy when they were handed over.
+   */
+  public long getQueuedTotal () {
+    return queued.get ();
+  }
+
+  /**
+   * Returns the number of tasks that have finished.
+   */
+  public long getCompletedCount () {
+    return completed.get ();
+  }
+
+  /**
+   * Stops accepting tasks. Running agents are left to finish.
+   */
+  public void shutdown () {
+    executor.shutdown ();
+  }
+
+  public String toString () {
+    return (0 < threads) ? kind + ":" + threads : kind;
+  }
+}
@@ -0,0 +1,625 @@
+// AgentJournal.java
+// An append-only journal of the agents resident in a Bailiff.
+
+package dsv.pis.gotag.bailiff;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.rmi.MarshalledObject;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * The AgentJournal records the arrivals and departures of agents in a
+ * Bailiff, and the changes of their 'it' flag, so that a Bailiff that is
+ * restarted after a crash can bring its resident agents back to life.
+ * It also records the outcomes of the tag transfers and migrations that
+ * tagged or admitted an agent, so that the restarted Bailiff still
+ * answers a retry of one of them (see TransferLog).
+ * <p>
+ * The journal is a memory-mapped file. A record is appended by copying
+ * it into the mapping, which costs no system call; a flusher thread
+ * forces the mapping to disk at most every FLUSH_MS milliseconds, so
+ * that all records appended within that window share one fsync. A record
+ * is therefore durable against power loss FLUSH_MS after it is appended,
+ * and against a crash of the JVM at once.
+ * <p>
+ * The file holds a header (magic and version) followed by records of the
+ * form [length] [crc32] [body]. The body is a type byte, a timestamp, the
+ * agent's name and, for arrivals, the 'it' flag, the entry method and
+ * the agent with its arguments as a MarshalledObject, so that the classes
+ * can be loaded from the agent's codebase again. An outcome record holds
+ * the transfer or migration id in place of the name, followed by the
+ * name of the agent that was tagged or admitted. Replay stops at the
+ * first record that is empty, truncated or fails its checksum, so a
+ * record that survives a crash has all the records before it with it.
+ * <p>
+ * The journal keeps the arrival record of every resident agent in
+ * memory, and the outcome records of the last TransferLog.RETAIN_MS. When the mapping is three quarters full, the flusher writes
+ * those to a new file, outside the lock that appends take, and only
+ * takes the lock to copy in the records appended meanwhile and to swap
+ * the files. This keeps the file from growing without bound without
+ * making an agent thread wait for file I/O. Only if the mapping fills up
+ * before the flusher is done does an append rewrite the file itself.
+ * <p>
+ * An arrival record holds the agent as a MarshalledObject, which is
+ * copied into the mapping rather than marshalled straight into it: the
+ * marshalling (about 20 us for a Dexter) dwarfs the copy, and doing it
+ * outside the lock lets agent threads marshal in parallel.
+ */
+class AgentJournal {
+
+  static final int MAGIC = 0x424a4e4c;	// "BJNL"
+  static final int VERSION = 1;
+  static final int HEADER = 8;
+
+  static final byte ARRIVE = 1;
+  static final byte DEPART = 2;
+  static final byte IT = 3;
+  static final byte TAGGED = 4;
+  static final byte ADMITTED = 5;
+
+  /**
+   * The longest time, in milliseconds, a record waits to be forced.
+   */
+  static final long FLUSH_MS = 20;
+
+  /**
+   * The smallest size of the mapped file.
+   */
+  static final int INITIAL_CAPACITY = 1 << 20;
+
+  /**
+   * Where the 'it' flag is kept in arrival and it records: after the type,
+   * the timestamp and the name.
+   */
+  private static final int FLAG_OFFSET = 1 + 8 + 16;
+
+  /**
+   * An agent that was resident when the journal was opened.
+   */
+  static final class Resident {
+    final UUID name;
+    final String cb;
+    final boolean it;
+    private final byte [] body;
+    private final int stateOffset;
+
+    Resident (UUID name, byte [] body) throws IOException {
+      this.name = name;
+      this.body = body;
+      ByteArrayInputStream bis = new ByteArrayInputStream (body);
+      DataInputStream in = new DataInputStream (bis);
+      in.skipBytes (FLAG_OFFSET);
+      it = in.readBoolean ();
+      cb = in.readUTF ();
+      stateOffset = body.length - bis.available ();
+    }
+
+    /**
+     * Unmarshals the agent and its arguments.
+     * @return An array holding the agent and its argument array.
+     */
+    Object [] restore () throws IOException, ClassNotFoundException {
+      ObjectInputStream in =
+	new ObjectInputStream (new ByteArrayInputStream
+			       (body, stateOffset, body.length - stateOffset));
+      MarshalledObject<?> mo = (MarshalledObject<?>) in.readObject ();
+      return (Object []) mo.get ();
+    }
+  }
+
+  /**
+   * The outcome of a tag transfer or a migration.
+   */
+  static final class Outcome {
+    final UUID id;
+    final UUID target;
+    final long ended;
+
+    Outcome (UUID id, byte [] body) {
+      ByteBuffer bb = ByteBuffer.wrap (body);
+      this.id = id;
+      ended = bb.getLong (1);
+      target = new UUID (bb.getLong (FLAG_OFFSET),
+			 bb.getLong (FLAG_OFFSET + 8));
+    }
+  }
+
+  private final File file;
+  private MappedByteBuffer buf;
+  private final CRC32 crc = new CRC32 ();
+
+  /**
+   * The arrival records of the resident agents, with their current flag.
+   */
+  private final Map<UUID, byte []> live = new LinkedHashMap<UUID, byte []> ();
+
+  /**
+   * The outcome records, by id, in the order they were appended.
+   */
+  private final Map<UUID, byte []> outcomes =
+    new LinkedHashMap<UUID, byte []> ();
+
+  private boolean dirty = false;
+  private boolean closed = false;
+  private Thread flusher;
+
+  /**
+   * While the flusher rewrites the file, the records appended meanwhile,
+   * to be copied into the new file; otherwise null.
+   */
+  private List<byte []> tail = null;
+
+  /**
+   * Counts the rewrites of the file, so that the flusher can tell that
+   * an append rewrote it while the flusher was at it.
+   */
+  private long generation = 0;
+
+  private long records = 0;
+  private volatile long forces = 0;
+  private long compactions = 0;
+
+  private AgentJournal (File file) {
+    this.file = file;
+  }
+
+  /**
+   * Opens a journal, reading the agents that were resident when it was
+   * last written. The file is created if it does not exist.
+   * @param file The journal file.
+   * @return The open journal.
+   * @throws IOException Thrown if the file can not be read or written, or
+   * is not a journal.
+   */
+  static AgentJournal open (File file) throws IOException {
+    AgentJournal j = new AgentJournal (file);
+    if (file.exists () && 0 < file.length ()) {
+      j.replay ();
+    }
+    synchronized (j) {
+      j.compact (0);
+    }
+    j.flusher = new Thread (new Runnable () {
+	public void run () {
+	  j.flushLoop ();
+	}
+      }, "journal-flusher");
+    j.flusher.setDaemon (true);
+    j.flusher.start ();
+    return j;
+  }
+
+  /**
+   * Returns the agents that were resident when the journal was opened.
+   */
+  synchronized List<Resident> residents () throws IOException {
+    List<Resident> list = new ArrayList<Resident> ();
+    for (Map.Entry<UUID, byte []> e : live.entrySet ()) {
+      list.add (new Resident (e.getKey (), e.getValue ()));
+    }
+    return list;
+  }
+
+  /**
+   * Returns the outcomes of one kind that the journal holds, oldest
+   * first.
+   * @param type TAGGED or ADMITTED.
+   */
+  synchronized List<Outcome> outcomes (byte type) {
+    List<Outcome> list = new ArrayList<Outcome> ();
+    for (Map.Entry<UUID, byte []> e : outcomes.entrySet ()) {
+      if (e.getValue ()[0] == type) {
+	list.add (new Outcome (e.getKey (), e.getValue ()));
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Records the outcome of a tag transfer or a migration. The outcome is
+   * to be recorded before the tagged agent's it record, or the admitted
+   * agent's arrival, so that no restarted Bailiff holds the effect of a
+   * transfer without its outcome.
+   * @param type TAGGED or ADMITTED.
+   * @param id The transfer or migration id.
+   * @param target The agent that was tagged or admitted.
+   */
+  void outcome (byte type, UUID id, UUID target) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream (FLAG_OFFSET + 16);
+    DataOutputStream out = new DataOutputStream (bos);
+    header (out, type, id);
+    out.writeLong (target.getMostSignificantBits ());
+    out.writeLong (target.getLeastSignificantBits ());
+    append (id, bos.toByteArray (), null);
+  }
+
+  /**
+   * Records the arrival of an agent. The agent is marshalled first; its
+   * 'it' flag is read only when the record is appended, under the same
+   * lock as the it records, so that a tag that lands meanwhile is either
+   * in the arrival record or in an it record after it.
+   * @param name The agent's name.
+   * @param cb The name of the entry method.
+   * @param tag The agent's tag state.
+   * @param agent The agent.
+   * @param args The arguments to the entry method.
+   */
+  void arrive (UUID name, String cb, TagState tag, Object agent,
+	       Object [] args)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream (256);
+    DataOutputStream out = new DataOutputStream (bos);
+    header (out, ARRIVE, name);
+    out.writeBoolean (false);		// Set by append
+    out.writeUTF (cb);
+    ObjectOutputStream oos = new ObjectOutputStream (out);
+    oos.writeObject (new MarshalledObject<Object []>
+		     (new Object [] {agent, args}));
+    oos.flush ();
+    append (name, bos.toByteArray (), tag);
+  }
+
+  /**
+   * Records the departure of an agent.
+   */
+  void depart (UUID name) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream (FLAG_OFFSET);
+    header (new DataOutputStream (bos), DEPART, name);
+    append (name, bos.toByteArray (), null);
+  }
+
+  /**
+   * Records a change of an agent's 'it' flag.
+   */
+  void it (UUID name, boolean it) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream (FLAG_OFFSET + 1);
+    DataOutputStream out = new DataOutputStream (bos);
+    header (out, IT, name);
+    out.writeBoolean (it);
+    append (name, bos.toByteArray (), null);
+  }
+
+  private static void header (DataOutputStream out, byte type, UUID name)
+    throws IOException
+  {
+    out.writeByte (type);
+    out.writeLong (System.currentTimeMillis ());
+    out.writeLong (name.getMostSignificantBits ());
+    out.writeLong (name.getLeastSignificantBits ());
+  }
+
+  /**
+   * Applies a record to the set of resident agents. An arrival record in
+   * the set is never changed, but replaced by a copy with the new flag,
+   * so that the flusher can write the set out without holding the lock.
+   */
+  private void apply (UUID name, byte [] body) {
+    switch (body[0]) {
+    case ARRIVE:
+      live.put (name, body);
+      break;
+    case DEPART:
+      live.remove (name);
+      break;
+    case IT:
+      byte [] arrival = live.get (name);
+      if (arrival != null && arrival[FLAG_OFFSET] != body[FLAG_OFFSET]) {
+	arrival = arrival.clone ();
+	arrival[FLAG_OFFSET] = body[FLAG_OFFSET];
+	live.put (name, arrival);
+      }
+      break;
+    case TAGGED:
+    case ADMITTED:
+      outcomes.put (name, body);
+      break;
+    }
+  }
+
+  /**
+   * Returns the records a new file starts with: the arrival records of
+   * the resident agents and the outcome records that are still to be
+   * remembered. Older outcome records are dropped. Called holding the
+   * lock.
+   */
+  private List<byte []> records () {
+    List<byte []> bodies = new ArrayList<byte []> (live.values ());
+    long before = System.currentTimeMillis () - TransferLog.RETAIN_MS;
+    Iterator<byte []> it = outcomes.values ().iterator ();
+    while (it.hasNext ()) {
+      byte [] body = it.next ();
+      if (ByteBuffer.wrap (body).getLong (1) < before) {
+	it.remove ();
+      }
+      else {
+	bodies.add (body);
+      }
+    }
+    return bodies;
+  }
+
+  /**
+   * Appends a record to the mapping and wakes the flusher.
+   * @param tag For an arrival, the tag state to take the flag from.
+   */
+  private synchronized void append (UUID name, byte [] body, TagState tag)
+    throws IOException
+  {
+    if (closed) {
+      return;
+    }
+    if (tag != null) {
+      body[FLAG_OFFSET] = (byte) (tag.isIt () ? 1 : 0);
+    }
+    apply (name, body);
+    if (buf.remaining () < 8 + body.length) {
+      // The record just applied is written out with the others.
+      compact (8 + body.length);
+      return;
+    }
+    put (buf, body, crc);
+    if (tail != null) {
+      tail.add (body);
+    }
+    records += 1;
+    if (!dirty) {
+      dirty = true;
+      notifyAll ();
+    }
+  }
+
+  /**
+   * Writes one record at the buffer's position. The length goes in last,
+   * so a reader never sees a length without its body.
+   * @param c The checksum to use; the flusher has its own.
+   */
+  private static void put (ByteBuffer b, byte [] body, CRC32 c) {
+    int pos = b.position ();
+    c.reset ();
+    c.update (body, 0, body.length);
+    b.position (pos + 8);
+    b.put (body);
+    b.putInt (pos + 4, (int) c.getValue ());
+    b.putInt (pos, body.length);
+  }
+
+  /**
+   * Reads the records of the journal file into the set of residents.
+   */
+  private void replay () throws IOException {
+    RandomAccessFile raf = new RandomAccessFile (file, "r");
+    try {
+      MappedByteBuffer b =
+	raf.getChannel ().map (FileChannel.MapMode.READ_ONLY, 0, raf.length ());
+      if (b.remaining () < HEADER || b.getInt () != MAGIC) {
+	throw new IOException ("Not an agent journal: " + file);
+      }
+      if (b.getInt () != VERSION) {
+	throw new IOException ("Unknown agent journal version: " + file);
+      }
+      while (8 <= b.remaining ()) {
+	int len = b.getInt ();
+	int sum = b.getInt ();
+	if (len < FLAG_OFFSET || b.remaining () < len) {
+	  break;
+	}
+	byte [] body = new byte [len];
+	b.get (body);
+	crc.reset ();
+	crc.update (body, 0, len);
+	if ((int) crc.getValue () != sum) {
+	  break;
+	}
+	ByteBuffer bb = ByteBuffer.wrap (body, 1 + 8, 16);
+	apply (new UUID (bb.getLong (), bb.getLong ()), body);
+      }
+    }
+    finally {
+      raf.close ();
+    }
+  }
+
+  /**
+   * Writes the records to keep to a new file, which then replaces the
+   * journal. This is done holding the lock, when the mapping is full.
+   * @param extra Room to leave for the next records.
+   */
+  private void compact (int extra) throws IOException {
+    List<byte []> bodies = records ();
+    File tmp = new File (file.getPath () + ".tmp");
+    MappedByteBuffer b = rewrite (tmp, bodies, extra);
+    b.force ();
+    swap (tmp, b);
+  }
+
+  /**
+   * Creates a new journal file holding the given records.
+   * @param extra Room to leave for the next records.
+   * @return The mapping of the new file.
+   */
+  private MappedByteBuffer rewrite (File tmp, List<byte []> bodies, int extra)
+    throws IOException
+  {
+    int size = HEADER;
+    for (byte [] body : bodies) {
+      size += 8 + body.length;
+    }
+    int cap = INITIAL_CAPACITY;
+    while (cap < 2 * (size + extra)) {
+      cap <<= 1;
+    }
+
+    tmp.delete ();
+    MappedByteBuffer b;
+    RandomAccessFile raf = new RandomAccessFile (tmp, "rw");
+    try {
+      raf.setLength (cap);
+      b = raf.getChannel ().map (FileChannel.MapMode.READ_WRITE, 0, cap);
+    }
+    finally {
+      raf.close ();
+    }
+    b.putInt (MAGIC);
+    b.putInt (VERSION);
+    CRC32 c = new CRC32 ();
+    for (byte [] body : bodies) {
+      put (b, body, c);
+    }
+    return b;
+  }
+
+  /**
+   * Makes a new file the journal. Called holding the lock.
+   */
+  private void swap (File tmp, MappedByteBuffer b) throws IOException {
+    Files.move (tmp.toPath (), file.toPath (),
+		StandardCopyOption.REPLACE_EXISTING,
+		StandardCopyOption.ATOMIC_MOVE);
+
+    // The old mapping is released when it is garbage collected.
+    buf = b;
+    dirty = false;
+    generation += 1;
+    compactions += 1;
+  }
+
+  /**
+   * Rewrites the file if the mapping is three quarters full. The live
+   * set is taken under the lock, but the new file is written and forced
+   * outside it. Then, under the
+   * lock again, the records appended meanwhile are copied in and the new
+   * file replaces the old. Called by the flusher.
+   */
+  private void compactInBackground () throws IOException {
+    List<byte []> bodies;
+    long gen;
+    synchronized (this) {
+      if (closed || buf.position () < buf.capacity () / 4 * 3) {
+	return;
+      }
+      bodies = records ();
+      tail = new ArrayList<byte []> ();
+      gen = generation;
+    }
+    File tmp = new File (file.getPath () + ".compact");
+    MappedByteBuffer b = null;
+    try {
+      b = rewrite (tmp, bodies, 0);
+      b.force ();
+    }
+    finally {
+      synchronized (this) {
+	boolean fits = (b != null);
+	if (fits) {
+	  int need = 0;
+	  for (byte [] body : tail) {
+	    need += 8 + body.length;
+	  }
+	  fits = need < b.remaining ();
+	}
+	if (fits && gen == generation && !closed) {
+	  for (byte [] body : tail) {
+	    put (b, body, crc);
+	  }
+	  // The tail is forced with the next flush.
+	  swap (tmp, b);
+	  dirty = !tail.isEmpty ();
+	}
+	else {
+	  tmp.delete ();
+	}
+	tail = null;
+      }
+    }
+  }
+
+  /**
+   * The flusher's main loop. After the first append following a force,
+   * it lets FLUSH_MS pass so that the appends of that window are forced
+   * together.
+   */
+  private void flushLoop () {
+    for (;;) {
+      MappedByteBuffer b;
+      synchronized (this) {
+	while (!dirty && !closed) {
+	  try {
+	    wait ();
+	  }
+	  catch (InterruptedException e) {}
+	}
+	if (!dirty) {
+	  return;
+	}
+      }
+      try {
+	Thread.sleep (FLUSH_MS);
+      }
+      catch (InterruptedException e) {}
+      synchronized (this) {
+	b = buf;
+	dirty = false;
+      }
+      b.force ();
+      forces += 1;
+      try {
+	compactInBackground ();
+      }
+      catch (IOException e) {
+	// The next append that finds the mapping full tries again.
+      }
+    }
+  }
+
+  /**
+   * Forces any outstanding records and stops the flusher.
+   */
+  void close () {
+    synchronized (this) {
+      closed = true;
+      notifyAll ();
+    }
+    try {
+      flusher.join ();
+    }
+    catch (InterruptedException e) {}
+    buf.force ();
+  }
+
+  /**
+   * Returns the number of records appended since the journal was opened.
+   */
+  synchronized long getRecordCount () {
+    return records;
+  }
+
+  /**
+   * Returns the number of times the flusher has forced the journal.
+   */
+  long getForceCount () {
+    return forces;
+  }
+
+  /**
+   * Returns the number of times the journal has been rewritten.
+   */
+  synchronized long getCompactionCount () {
+    return compactions;
+  }
+
+  /**
+   * Returns the number of resident agents the journal knows of.
+   */
+  synchronized int getResidentCount () {
+    return live.size ();
+  }
+
+  public String toString () {
+    return file.getPath ();
+  }
+}
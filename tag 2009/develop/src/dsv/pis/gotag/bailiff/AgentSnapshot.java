@@ -0,0 +1,139 @@
+// AgentSnapshot.java
+// A compact, immutable view of the agents in a Bailiff.
+
+package dsv.pis.gotag.bailiff;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * An AgentSnapshot lists every agent resident in a Bailiff at one moment,
+ * together with its 'it' and migrating flags and the time it arrived.
+ * The rows are kept in primitive arrays, ordered by agent name, so the
+ * whole snapshot travels as a handful of arrays rather than one object
+ * per agent.
+ * <p>
+ * Each snapshot carries an epoch. The Bailiff only moves to a new epoch
+ * when the contents change, so a client that already holds the snapshot
+ * of the current epoch can skip fetching it again.
+ */
+public final class AgentSnapshot implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  static final byte IT        = 1;
+  static final byte MIGRATING = 2;
+
+  private final long epoch;
+  private final long time;
+  private final long [] names;	 // Two longs (msb, lsb) per agent
+  private final byte [] flags;
+  private final long [] arrivals;
+
+  /**
+   * Creates a snapshot from rows prepared by the Bailiff. The arrays are
+   * taken over, not copied.
+   */
+  AgentSnapshot (long epoch, long time,
+		 long [] names, byte [] flags, long [] arrivals) {
+    this.epoch = epoch;
+    this.time = time;
+    this.names = names;
+    this.flags = flags;
+    this.arrivals = arrivals;
+  }
+
+  /**
+   * Returns a copy of this snapshot under a new epoch number.
+   */
+  AgentSnapshot withEpoch (long newEpoch, long newTime) {
+    return new AgentSnapshot (newEpoch, newTime, names, flags, arrivals);
+  }
+
+  /**
+   * Returns true if the other snapshot lists the same agents, with the
+   * same flags and arrival times, as this one.
+   */
+  boolean sameAgents (AgentSnapshot other) {
+    return other != null
+      && Arrays.equals (names, other.names)
+      && Arrays.equals (flags, other.flags)
+      && Arrays.equals (arrivals, other.arrivals);
+  }
+
+  /**
+   * Returns the epoch of this snapshot.
+   */
+  public long getEpoch () {
+    return epoch;
+  }
+
+  /**
+   * Returns the Java system time when the current epoch began.
+   */
+  public long getTime () {
+    return time;
+  }
+
+  /**
+   * Returns the number of agents in the snapshot.
+   */
+  public int size () {
+    return flags.length;
+  }
+
+  /**
+   * Returns the name of the i:th agent.
+   */
+  public UUID getName (int i) {
+    return new UUID (names[2 * i], names[2 * i + 1]);
+  }
+
+  /**
+   * Returns true if the i:th agent was 'it'.
+   */
+  public boolean isIt (int i) {
+    return (flags[i] & IT) != 0;
+  }
+
+  /**
+   * Returns true if the i:th agent was migrating.
+   */
+  public boolean isMigrating (int i) {
+    return (flags[i] & MIGRATING) != 0;
+  }
+
+  /**
+   * Returns the Java system time when the i:th agent arrived.
+   */
+  public long getArrivalTime (int i) {
+    return arrivals[i];
+  }
+
+  /**
+   * Returns the position of the named agent, or -1 if it is not listed.
+   */
+  public int indexOf (UUID name) {
+    long msb = name.getMostSignificantBits ();
+    long lsb = name.getLeastSignificantBits ();
+    for (int i = 0; i < flags.length; i++) {
+      if (names[2 * i] == msb && names[2 * i + 1] == lsb) {
+	return i;
+      }
+    }
+    return -1;
+  }
+
+  public String toString () {
+    StringBuilder sb = new StringBuilder ();
+    sb.append ("<agents epoch=\"").append (epoch).append ("\">");
+    for (int i = 0; i < flags.length; i++) {
+      sb.append ("<agent name=\"").append (getName (i))
+	.append ("\" it=\"").append (isIt (i))
+	.append ("\" migrating=\"").append (isMigrating (i))
+	.append ("\" arrived=\"").append (arrivals[i])
+	.append ("\"/>");
+    }
+    return sb.append ("</agents>").toString ();
+  }
+}
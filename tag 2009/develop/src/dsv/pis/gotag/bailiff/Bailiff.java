@@ -13,10 +13,12 @@ import java.net.*;
 import java.rmi.*;
 import java.rmi.server.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import net.jini.core.entry.*;
 import net.jini.core.lookup.*;
 import net.jini.core.discovery.*;
+import net.jini.discovery.*;
 import net.jini.lease.*;
 import net.jini.lookup.*;
 import net.jini.lookup.entry.*;
@@ -44,7 +46,7 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
         implements
         dsv.pis.gotag.bailiff.BailiffInterface // for clients
 {
-    protected boolean debug = false;
+    protected volatile boolean debug = false;
     protected Logger log;
     protected String user;
     protected String room;
@@ -53,8 +55,164 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
     //protected Map clientObjectMap;
     protected JoinManager bf_joinmanager;
     protected InetAddress myInetAddress;
+    protected AgentEngine engine;
+    protected BailiffDirectory directory;
+    protected LookupCacheDirectory lookupCache; // The directory, under Jini
+    protected LookupDiscoveryManager discovery; // Shared by the two above
+    protected BailiffSelector selector = new BailiffSelector();
 
-    HashMap<UUID, agitator> clientObjectMap = new HashMap<UUID, agitator>();
+    /**
+     * How often, in milliseconds, the load attribute is brought up to date.
+     */
+    protected static final long LOAD_PERIOD = 5000;
+
+    /**
+     * The largest event log segment, in megabytes, that can be mapped.
+     */
+    protected static final int MAX_SEGMENT_MB = 2047;
+
+    /**
+     * How long a handoff in doubt first waits before it asks the
+     * destination again whether it admitted the agent, and the longest it
+     * waits as the wait doubles. HANDOFF_WAIT_MS is how long it asks in
+     * all before it parks the agent; it must be well below the time the
+     * destination remembers a migration (TransferLog.RETAIN_MS).
+     */
+    protected static final long HANDOFF_RETRY_MS = 100;
+    protected static final long HANDOFF_RETRY_MAX_MS = 2000;
+    protected static final long HANDOFF_WAIT_MS = 30000;
+
+    /**
+     * Runs the Bailiff's periodic chores on a single daemon thread.
+     */
+    protected ScheduledExecutorService housekeeper =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "housekeeper");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /**
+     * The Bailiff's counters, gauges and latency histograms. Counters are
+     * always kept; latencies only while timing is on (see setTiming), so
+     * that without it the hot paths do not even read the clock.
+     */
+    protected final Metrics metrics = new Metrics();
+    protected volatile boolean timing = false;
+    protected File metricsFile; // Where the housekeeper dumps them, if set
+
+    protected final Histogram handoffTime = metrics.histogram("migrate.handoff");
+    protected final Histogram admissionWait = metrics.histogram("admit.wait");
+    protected final Histogram runTime = metrics.histogram("agent.run");
+    protected final Histogram rpcMigrate = metrics.histogram("rpc.migrate");
+    protected final Histogram rpcTag = metrics.histogram("rpc.tagAnyAgent");
+    protected final Histogram rpcIsIt = metrics.histogram("rpc.isIt");
+    protected final Histogram rpcHasIt = metrics.histogram("rpc.agentHasIt");
+    protected final Histogram rpcNames = metrics.histogram("rpc.getAgentsNames");
+    protected final Histogram rpcAdmitted =
+            metrics.histogram("rpc.wasAdmitted");
+    protected final Histogram rpcSnapshot =
+            metrics.histogram("rpc.getAgentSnapshot");
+    protected final Histogram rpcLoad = metrics.histogram("rpc.getLoad");
+    protected final Histogram rpcPing = metrics.histogram("rpc.ping");
+    protected final Histogram rpcProperty = metrics.histogram("rpc.getProperty");
+
+    protected final java.util.concurrent.atomic.AtomicLong arrivals =
+            new java.util.concurrent.atomic.AtomicLong();
+    protected long arrivalsAtLastTick = 0;
+    protected volatile float migrationRate = 0.0f; // Arrivals per second
+    protected BailiffLoad publishedLoad;
+
+    /**
+     * Admission limits. Zero means no limit. The population counts the
+     * agents that are resident or pending; pending agents have been
+     * accepted by migrate but are not yet executing.
+     */
+    protected volatile int maxResident = 0;
+    protected volatile int maxPending = 0;
+    protected final java.util.concurrent.atomic.AtomicInteger population =
+            new java.util.concurrent.atomic.AtomicInteger();
+    protected final java.util.concurrent.atomic.AtomicInteger pending =
+            new java.util.concurrent.atomic.AtomicInteger();
+
+    /**
+     * Admission counters: arrivals accepted, turned away, and made to wait
+     * for a thread.
+     */
+    protected final java.util.concurrent.atomic.LongAdder accepted =
+            metrics.counter("admit.accepted");
+    protected final java.util.concurrent.atomic.LongAdder rejected =
+            metrics.counter("admit.rejected");
+    protected final java.util.concurrent.atomic.LongAdder queued =
+            metrics.counter("admit.queued");
+    protected final java.util.concurrent.atomic.LongAdder departures =
+            metrics.counter("migrate.departures");
+    protected final java.util.concurrent.atomic.LongAdder parked =
+            metrics.counter("migrate.parked");
+
+    /**
+     * Tag counters: transfers tried here and transfers that tagged someone.
+     */
+    protected final java.util.concurrent.atomic.LongAdder tagAttempts =
+            metrics.counter("tag.attempts");
+    protected final java.util.concurrent.atomic.LongAdder tagSuccesses =
+            metrics.counter("tag.successes");
+
+    /**
+     * The agents currently resident in this Bailiff, by name. An agent is
+     * entered by migrate, before the sender is answered, and removed as
+     * soon as another Bailiff has admitted it (or when its entry point
+     * returns), so no two incarnations of an agent are ever resident at
+     * once. An agent migrating within this Bailiff replaces itself.
+     */
+    ConcurrentMap<UUID, agitator> clientObjectMap =
+            new ConcurrentHashMap<UUID, agitator>();
+
+    /**
+     * The most recent agent snapshot handed out. A new epoch is only
+     * started when a fresh snapshot differs from this one.
+     */
+    protected AgentSnapshot lastSnapshot =
+            new AgentSnapshot(0, System.currentTimeMillis(),
+                    new long[0], new byte[0], new long[0]);
+    protected final Object snapshotLock = new Object();
+
+    /**
+     * Entry points of the agent classes that have visited us.
+     */
+    protected final EntryPointCache entryPoints = new EntryPointCache();
+
+    /**
+     * The journal of resident agents, or null if we keep none.
+     */
+    protected volatile AgentJournal journal;
+
+    /**
+     * The binary event log, or null if we keep none.
+     */
+    protected volatile EventLog events;
+
+    /**
+     * The outcomes of recent tag transfers.
+     */
+    protected final TransferLog transfers = new TransferLog();
+
+    /**
+     * The outcomes of recent migrations to this Bailiff.
+     */
+    protected final TransferLog migrations = new TransferLog();
+
+    /**
+     * The pacing given to arriving Dexters, or null to leave theirs alone.
+     */
+    protected volatile Pacing agentPacing;
+
+    /**
+     * The name of our MXBean, or null if it is not registered.
+     */
+    protected javax.management.ObjectName adminName;
 
     protected void debugMsg(String s) {
         if (debug) {
@@ -135,19 +293,62 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
         }
     } // IDListener
 
+    /**
+     * The context offered to an agent executing in this Bailiff.
+     */
+    private class Context extends BailiffContext {
+
+        protected final agitator agent;
+
+        Context(agitator agent) {
+            this.agent = agent;
+        }
+
+        public BailiffInterface getBailiff() {
+            return Bailiff.this;
+        }
+
+        public BailiffDirectory getDirectory() {
+            return directory;
+        }
+
+        public BailiffSelector getSelector() {
+            return selector;
+        }
+
+        public void tagGiven() {
+            journalIt(agent.myName, false);
+        }
+
+        public void migrate(BailiffInterface dest, Dexter obj, String cb,
+                            Object[] args)
+                throws RemoteException, NoSuchMethodException,
+                BailiffFullException {
+            handoff(agent, dest, obj, cb, args);
+        }
+    } // Context
+
     /**
      * This class wraps and encapsulates the remote object to which the
-     * Bailiff lends a thread of execution.
+     * Bailiff lends a thread of execution. The thread itself is supplied
+     * by the Bailiff's AgentEngine.
      */
-    private class agitator extends Thread {
+    class agitator implements Runnable {
 
         protected Dexter myObj;    // The client object
         protected String myCb;    // The name of the entry point method
         protected Object[] myArgs;    // Arguments to the entry point method
-        protected java.lang.reflect.Method myMethod; // Ref. to entry point method
-        protected java.lang.reflect.Field myField; // Ref. to agent id
-        protected Class[] myParms; // Class reflection of arguments
+        protected EntryPointCache.EntryPoint myEntry; // Ref. to entry point
+        protected Class<?>[] myParms; // Class reflection of arguments
+        protected ClassLoader myLoader; // The client's classloader
         protected UUID myName;
+        protected long myArrival; // When the agent entered the list of agents
+        protected long myQueued; // When handed to the engine, if timing
+        // Set while another Bailiff is admitting the agent
+        protected volatile boolean departing = false;
+        // Set once this incarnation has left the list of agents
+        protected final java.util.concurrent.atomic.AtomicBoolean left =
+                new java.util.concurrent.atomic.AtomicBoolean();
 
         /**
          * The baseString is used to generate UUID of the dexter name
@@ -169,18 +370,6 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
             myCb = cb;
             myArgs = args;
 
-            try {
-                myField = myObj.getClass().getDeclaredField("name");
-                myField.setAccessible(true);
-                myName= (UUID)myField.get(myObj);
-                //myName = (String)value;
-                //debugMsg("user id ==========> : " + value);
-            } catch (NoSuchFieldException x) {
-                x.printStackTrace();
-            } catch (IllegalAccessException x) {
-                x.printStackTrace();
-            }
-
             //UUID uid = UUID.fromString(baseString);
             //myName = uid.randomUUID().toString();;
 
@@ -193,7 +382,7 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
             // the class of each entry point parameter.
 
             if (0 < args.length) {
-                myParms = new Class[args.length];
+                myParms = new Class<?>[args.length];
                 for (int i = 0; i < args.length; i++) {
                     myParms[i] = args[i].getClass();
                 }
@@ -205,23 +394,40 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
 
         /**
          * This method locates the method that is the client object's requested
-         * entry point. It also sets the classloader of the current instance
-         * to follow the client's classloader.
+         * entry point and reads the agent's name, both through the Bailiff's
+         * cache of entry points. It also records the client's classloader,
+         * which becomes the context classloader of the thread that runs us.
          *
          * @throws NoSuchMethodException Thrown if the entry point specified
          *                               in the constructor can not be found.
          */
         public void initialize() throws java.lang.NoSuchMethodException {
-            myMethod = myObj.getClass().getMethod(myCb, myParms);
-            setContextClassLoader(myObj.getClass().getClassLoader());
+            Class<?> cls = myObj.getClass();
+            myEntry = entryPoints.resolve(cls, myCb, myParms);
+            myLoader = cls.getClassLoader();
+            myName = myEntry.nameOf(myObj);
+
+            // An agent that does not tell us its name still needs a key in
+            // the list of current agents.
+            if (myName == null) {
+                myName = UUID.randomUUID();
+            }
+        }
+
+        public TagState tagState() {
+            return myObj.getTagState();
         }
 
         public boolean isIt() {
-            return myObj.isIt();
+            return tagState().isIt();
         }
 
         public boolean agentHasIt() {
-            return myObj.agentHasIt();
+            return tagState().grant();
+        }
+
+        public boolean isMigrating() {
+            return tagState().isMigrating();
         }
         /**
          * Overrides the default run() method in class Thread (a superclass to
@@ -254,44 +460,172 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
          */
 
         public void run() {
-
-            synchronized (clientObjectMap) {
-                while (clientObjectMap.containsKey(myName)) {
-                    try {
-                        // We need to wait in case an agitator this agitator will migrate in the same
-                        // bailiff
-                        clientObjectMap.wait();
-                    } catch (InterruptedException e) {
-                        log.entry("[InterruptedException] agitator " + myName);
-                    }
-                }
-
-                // Add the agent in the list of current agents
-                clientObjectMap.put(myName, this);
-                //debugMsg("[" + id + "] Start running");
-                //debugMsg("[" + id + "] " + localAgents.toString());
+            Thread self = Thread.currentThread();
+            ClassLoader engineLoader = self.getContextClassLoader();
+            self.setContextClassLoader(myLoader);
+            BailiffContext.enter(new Context(this));
+            try {
+                agitate();
+            } finally {
+                BailiffContext.leave();
+                self.setContextClassLoader(engineLoader);
             }
+        }
+
+        /**
+         * Invokes the requested entry point on the client object, which
+         * migrate has already admitted to the list of current agents.
+         */
+        protected void agitate() {
+            pending.decrementAndGet();
+            stopTiming(admissionWait, myQueued);
 
+            long start = startTiming();
             try {
-                myMethod.invoke(myObj, myArgs);
+                myEntry.invoke(myObj, myArgs);
             } catch (Throwable t) {
+                event(EventLog.ERROR, myName, null, null, 0);
                 if (debug) {
                     log.entry(t);
                 }
             } finally {
-                synchronized (clientObjectMap) {
-                    // Remove the agent from list of current agents
-                    clientObjectMap.remove(myName);
-                    //debugMsg("[" + id + "] " + localAgents.toString());
-                    //debugMsg("[" + id + "] End running");
-
-                    // Notify a possible waiting thread
-                    clientObjectMap.notify();
-                }
+                stopTiming(runTime, start);
+                // An agent that migrated has usually left already.
+                depart(this);
             }
         }
     } // class agitator
 
+    /**
+     * Enters an arriving agent in the list of current agents. If the list
+     * holds an incarnation of the agent that is departing from this very
+     * Bailiff, the arrival takes its place.
+     *
+     * @throws RemoteException Thrown if the agent is already resident.
+     */
+    protected void admit(agitator agt) throws RemoteException {
+        agt.myArrival = System.currentTimeMillis();
+        agitator previous = clientObjectMap.putIfAbsent(agt.myName, agt);
+        if (previous != null
+                && !(previous.departing
+                && clientObjectMap.replace(agt.myName, previous, agt))) {
+            throw new RemoteException("Agent " + agt.myName
+                    + " is already resident");
+        }
+    }
+
+    /**
+     * Removes an incarnation of an agent from the list of current agents,
+     * once. If it was replaced by a newer incarnation, the list and the
+     * journal are left to the newer one.
+     */
+    protected void depart(agitator agt) {
+        if (!agt.left.compareAndSet(false, true)) {
+            return;
+        }
+        if (clientObjectMap.remove(agt.myName, agt)) {
+            journalDeparture(agt.myName);
+            event(EventLog.DEPART, agt.myName, null, null,
+                    population.get() - 1);
+        }
+        population.decrementAndGet();
+    }
+
+    /**
+     * Migrates a resident agent to another Bailiff. The agent is marked as
+     * departing, which makes it untaggable here, and it leaves the list of
+     * current agents as soon as the destination has admitted it. If the
+     * migration fails it stays resident, as if nothing had happened.
+     * <p>
+     * A RemoteException does not tell whether the destination admitted
+     * the agent before its answer was lost. Unless the call was never
+     * sent, the agent stays departing while the destination is asked
+     * whether it admitted the migration, so that the agent never runs in
+     * two places (see admittedBy).
+     */
+    protected void handoff(agitator agt, BailiffInterface dest, Dexter obj,
+                           String cb, Object[] args)
+            throws RemoteException, NoSuchMethodException,
+            BailiffFullException {
+        agt.departing = true;
+        UUID migrationId = Transfers.newId();
+        long start = startTiming();
+        try {
+            dest.migrate(obj, cb, args, migrationId);
+        } catch (RemoteException e) {
+            if (Transfers.neverSent(e)
+                    || !admittedBy(dest, agt.myName, migrationId)) {
+                agt.departing = false;
+                throw e;
+            }
+            log.entry("migrate", "agent", agt.myName, "reply", "lost");
+        } catch (NoSuchMethodException | BailiffFullException
+                | RuntimeException e) {
+            agt.departing = false;
+            throw e;
+        } finally {
+            stopTiming(handoffTime, start);
+        }
+        event(EventLog.MIGRATE, agt.myName, null, null, 0);
+        depart(agt);
+        departures.increment();
+    }
+
+    /**
+     * Finds out whether a destination admitted a migration whose call
+     * failed with a RemoteException, by asking it until it answers. The
+     * question settles the migration, so a call still on its way is
+     * turned away when it arrives (see BailiffInterface.wasAdmitted).
+     * <p>
+     * If there is no answer within HANDOFF_WAIT_MS, or the thread is
+     * interrupted, the agent is parked: it is taken to have been admitted
+     * and leaves this Bailiff. A parked agent that the destination did not
+     * admit is lost, along with its tag, but no agent ever runs twice.
+     */
+    protected boolean admittedBy(BailiffInterface dest, UUID name,
+                                 UUID migrationId) {
+        long deadline = System.currentTimeMillis() + HANDOFF_WAIT_MS;
+        long wait = HANDOFF_RETRY_MS;
+        for (;;) {
+            try {
+                return dest.wasAdmitted(migrationId);
+            } catch (RemoteException again) {
+                if (debug) {
+                    log.entry("migrate", "agent", name, "in doubt", again);
+                }
+            }
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                break;
+            }
+            try {
+                Thread.sleep(Math.min(wait, left));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            wait = Math.min(2 * wait, HANDOFF_RETRY_MAX_MS);
+        }
+        log.entry("migrate", "agent", name, "parked", migrationId);
+        parked.increment();
+        return true;
+    }
+
+    /**
+     * Returns the number of agents parked by a handoff in doubt.
+     */
+    public long getParkedCount() {
+        return parked.sum();
+    }
+
+    /**
+     * Returns the number of agents that have migrated from this Bailiff
+     * through a handoff.
+     */
+    public long getDepartureCount() {
+        return departures.sum();
+    }
+
     // In BailiffInterface:
 
     /**
@@ -304,15 +638,18 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
      * @returns The ping response.
      */
     public String ping() throws java.rmi.RemoteException {
+        long start = startTiming();
         if (debug) {
             log.entry("<ping/>");
         }
 
-        return ("Ping echo from Bailiff on host=" + host
+        String echo = "Ping echo from Bailiff on host=" + host
                 + " [" + myInetAddress.getHostAddress() + "] "
                 + " room=" + room
                 + " user=" + user
-                + ".");
+                + ".";
+        stopTiming(rpcPing, start);
+        return echo;
     }
 
     // In BailiffInterface:
@@ -324,10 +661,13 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
      * @returns The property value.
      */
     public String getProperty(String key) {
+        long start = startTiming();
         if (debug) {
-            log.entry("<getProperty key=\"" + key + "\"/>");
+            log.entry("getProperty", "key", key);
         }
-        return (String) propertyMap.get(key.toLowerCase());
+        String value = (String) propertyMap.get(key.toLowerCase());
+        stopTiming(rpcProperty, start);
+        return value;
     }
 
     // In BailiffInterface:
@@ -340,8 +680,8 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
      */
     public void setProperty(String key, String value) {
         if (debug) {
-            log.entry("<setProperty key=\""
-                    + key.toLowerCase() + "\" value=\"" + value + "\"/>");
+            log.entry("setProperty", "key", key.toLowerCase(),
+                    "value", value);
         }
         propertyMap.put(key.toLowerCase(), value);
     }
@@ -354,37 +694,233 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
 
     @Override
     public ArrayList<UUID> getAgentsNames() throws RemoteException {
-        Set<UUID> keySet = clientObjectMap.keySet();
-        return new ArrayList<>(keySet);
+        long start = startTiming();
+        ArrayList<UUID> names = new ArrayList<>(clientObjectMap.keySet());
+        stopTiming(rpcNames, start);
+        return names;
     }
 
 
+    /**
+     * Asks a local agent if it is 'it'. An agent that is not (or no
+     * longer) in this Bailiff, or is departing from it, is not 'it' here.
+     */
     @Override
     public boolean isIt(UUID name) throws RemoteException {
-        // Is the agent in the Bailiff ?
-        //debugMsg("Try to find UUID: [" + name.toString() + "] in " + localAgents.toString());
-
-        return clientObjectMap.get(name).isIt();
+        long start = startTiming();
+        agitator agt = clientObjectMap.get(name);
+        boolean res = (agt != null) && !agt.departing && agt.isIt();
+        stopTiming(rpcIsIt, start);
+        return res;
     }
 
+    /**
+     * Tries to tag a local agent. Tagging an agent that is not (or no
+     * longer) in this Bailiff, or is departing from it, fails.
+     */
     @Override
     public boolean agentHasIt(UUID name) throws RemoteException{
-        // Is the agent in the Bailiff ?
-        //debugMsg("Try to find UUID: [" + name.toString() + "] in " + localAgents.toString());
-
-        boolean res = clientObjectMap.get(name).agentHasIt();
-        if (res)
-            log.entry("<it agent=\"" + name + "\"/>");
+        long start = startTiming();
+        tagAttempts.increment();
+        agitator agt = clientObjectMap.get(name);
+        boolean res = (agt != null) && !agt.departing && agt.agentHasIt();
+        if (res) {
+            tagSuccesses.increment();
+            journalIt(name, true);
+            log.entry("it", "agent", name);
+        }
 
+        stopTiming(rpcHasIt, start);
         return res;
     }
 
+    /**
+     * Builds a snapshot of the current agents. If nothing changed since
+     * the last snapshot, the caller's epoch is still current and we answer
+     * null; otherwise the new contents get the next epoch number.
+     */
+    @Override
+    public AgentSnapshot getAgentSnapshot(long knownEpoch)
+            throws RemoteException {
+        long start = startTiming();
+        agitator[] agents =
+                clientObjectMap.values().toArray(new agitator[0]);
+        Arrays.sort(agents, new Comparator<agitator>() {
+            public int compare(agitator a, agitator b) {
+                return a.myName.compareTo(b.myName);
+            }
+        });
+
+        long[] names = new long[2 * agents.length];
+        byte[] flags = new byte[agents.length];
+        long[] arrivals = new long[agents.length];
+        for (int i = 0; i < agents.length; i++) {
+            names[2 * i] = agents[i].myName.getMostSignificantBits();
+            names[2 * i + 1] = agents[i].myName.getLeastSignificantBits();
+            flags[i] = (byte) ((agents[i].isIt() ? AgentSnapshot.IT : 0)
+                    | (agents[i].departing || agents[i].isMigrating()
+                    ? AgentSnapshot.MIGRATING : 0));
+            arrivals[i] = agents[i].myArrival;
+        }
+
+        AgentSnapshot current;
+        synchronized (snapshotLock) {
+            AgentSnapshot fresh =
+                    new AgentSnapshot(lastSnapshot.getEpoch(),
+                            lastSnapshot.getTime(), names, flags, arrivals);
+            if (!fresh.sameAgents(lastSnapshot)) {
+                lastSnapshot = fresh.withEpoch(lastSnapshot.getEpoch() + 1,
+                        System.currentTimeMillis());
+            }
+            current = lastSnapshot;
+        }
+        stopTiming(rpcSnapshot, start);
+        return (current.getEpoch() == knownEpoch) ? null : current;
+    }
+
+    /**
+     * Returns the current load of this Bailiff.
+     */
+    @Override
+    public BailiffLoad getLoad() throws RemoteException {
+        long start = startTiming();
+        BailiffLoad load = currentLoad();
+        stopTiming(rpcLoad, start);
+        return load;
+    }
+
+    protected BailiffLoad currentLoad() {
+        return new BailiffLoad(clientObjectMap.size(),
+                engine.getActiveCount(), migrationRate);
+    }
+
+    /**
+     * Updates the arrival rate and, if the load has changed noticeably,
+     * replaces the load attribute registered with the lookup servers.
+     * Called every LOAD_PERIOD milliseconds by the housekeeper.
+     */
+    protected void updateLoad() {
+        long n = arrivals.get();
+        float instant = (n - arrivalsAtLastTick) * 1000.0f / LOAD_PERIOD;
+        arrivalsAtLastTick = n;
+        migrationRate = migrationRate + 0.5f * (instant - migrationRate);
+
+        BailiffLoad load = currentLoad();
+        BailiffLoad old = publishedLoad;
+        if (old.agents.equals(load.agents)
+                && old.threads.equals(load.threads)
+                && Math.abs(old.migrationRate - load.migrationRate) < 1.0f) {
+            return;
+        }
+        publishedLoad = load;
+        bf_joinmanager.modifyAttributes(new Entry[]{new BailiffLoad()},
+                new Entry[]{load});
+    }
+
+    @Override
+    public UUID tagAnyAgent(UUID tagger) throws RemoteException {
+        try {
+            return tagAnyAgent(tagger, Transfers.newId());
+        } catch (TransferExpiredException e) {
+            // A new id does not expire.
+            throw new RemoteException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Carries out our part of a tag transfer, unless the transfer id is
+     * in the transfer log, in which case the logged outcome is returned,
+     * or is too old to be (see TransferLog).
+     * An agent calling from inside this Bailiff gets here by a plain
+     * method call through its BailiffContext, so a transfer between two
+     * agents that share the Bailiff never leaves the JVM.
+     */
+    @Override
+    public UUID tagAnyAgent(UUID tagger, UUID transferId)
+            throws RemoteException, TransferExpiredException {
+        long start = startTiming();
+        try {
+            UUID known = transfers.begin(transferId);
+            if (known != null) {
+                return (known.equals(TransferLog.NOBODY)) ? null : known;
+            }
+            UUID target = null;
+            try {
+                target = transfer(tagger, transferId);
+            } finally {
+                transfers.end(transferId, target);
+            }
+            if (target != null) {
+                event(EventLog.TAG, target, tagger, transferId, 0);
+            }
+            return target;
+        } finally {
+            stopTiming(rpcTag, start);
+        }
+    }
+
+    /**
+     * Tags any local agent other than the tagger. Candidates are tried in
+     * random order until one can be prepared to receive the tag, which is
+     * then committed. A resident tagger must be giving; one that is not
+     * does not hold the tag, and nobody is tagged for it.
+     * <p>
+     * The outcome is journaled before the receiver's new flag, so that a
+     * Bailiff restarted from its journal never holds a tagged agent
+     * without knowing the transfer that tagged it.
+     */
+    protected UUID transfer(UUID tagger, UUID transferId) {
+        tagAttempts.increment();
+        agitator self = clientObjectMap.get(tagger);
+        if (self != null && (self.tagState().get() & TagState.GIVING) == 0) {
+            return null;
+        }
+
+        List<agitator> candidates =
+                new ArrayList<agitator>(clientObjectMap.values());
+        Collections.shuffle(candidates, ThreadLocalRandom.current());
+
+        for (agitator agt : candidates) {
+            if (agt.departing || agt.myName.equals(tagger)) {
+                continue;
+            }
+            TagState receiver = agt.tagState();
+            if (receiver.prepareReceive()) {
+                receiver.commitReceive();
+                // The tagger journals its side in its own Bailiff when
+                // it commits (see BailiffContext.tagGiven).
+                journalOutcome(AgentJournal.TAGGED, transferId, agt.myName);
+                journalIt(agt.myName, true);
+                if (debug) {
+                    log.entry("it", "agent", agt.myName, "by", tagger);
+                }
+                tagSuccesses.increment();
+                return agt.myName;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of tag transfers carried out, and the number of
+     * retried transfers answered from the transfer log.
+     */
+    public long getTransferCount() {
+        return transfers.getTransferCount();
+    }
+
+    public long getTransferRetryCount() {
+        return transfers.getRetryCount();
+    }
+
 
     /**
      * Entry point for remote clients who want to pass an object to be
-     * executed by the Bailiff. The Bailiff starts a new thread for the
-     * object and calls the specified entry (callback) method. When that
-     * method returns, the thread exits and the object becomes inert.
+     * executed by the Bailiff. The Bailiff hands the object to its
+     * AgentEngine, which calls the specified entry (callback) method on
+     * a thread of its own. When that method returns, the thread is given
+     * back to the engine and the object becomes inert. The agent is
+     * resident, and can be tagged, from the moment migrate returns.
      *
      * @param obj  The object to execute.
      * @param cb   The name of the entry (callback) method to call.
@@ -396,17 +932,457 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
     public void migrate(Dexter obj, String cb, Object[] args)
             throws
             java.rmi.RemoteException,
-            java.lang.NoSuchMethodException {
+            java.lang.NoSuchMethodException,
+            BailiffFullException {
+        migrate(obj, cb, args, Transfers.newId());
+    }
+
+    /**
+     * Admits an agent as in migrate, unless the migration id is in the
+     * migration log: a migration that was admitted before is not admitted
+     * again, and one that was given up is turned away.
+     */
+    @Override
+    public void migrate(Dexter obj, String cb, Object[] args,
+                        UUID migrationId)
+            throws
+            java.rmi.RemoteException,
+            java.lang.NoSuchMethodException,
+            BailiffFullException {
+        long start = startTiming();
+        try {
+            UUID known;
+            try {
+                known = migrations.begin(migrationId);
+            } catch (TransferExpiredException e) {
+                throw new RemoteException(e.getMessage(), e);
+            }
+            if (known != null) {
+                if (known.equals(TransferLog.NOBODY)) {
+                    throw new RemoteException("Migration " + migrationId
+                            + " was given up");
+                }
+                return;
+            }
+            UUID admitted = null;
+            try {
+                admitted = accept(obj, cb, args, migrationId);
+            } finally {
+                migrations.end(migrationId, admitted);
+            }
+        } finally {
+            stopTiming(rpcMigrate, start);
+        }
+    }
+
+    /**
+     * Tells whether a migration was admitted, settling it in the
+     * migration log if it has not been seen.
+     */
+    @Override
+    public boolean wasAdmitted(UUID migrationId) throws RemoteException {
+        long start = startTiming();
+        try {
+            return !migrations.settle(migrationId).equals(TransferLog.NOBODY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted", e);
+        } catch (TransferExpiredException e) {
+            throw new RemoteException(e.getMessage(), e);
+        } finally {
+            stopTiming(rpcAdmitted, start);
+        }
+    }
+
+    /**
+     * Does the work of migrate. The outcome of the migration is journaled
+     * before the arrival, as that of a tag transfer is (see transfer).
+     *
+     * @return The name of the admitted agent.
+     */
+    protected UUID accept(Dexter obj, String cb, Object[] args,
+                          UUID migrationId)
+            throws
+            java.rmi.RemoteException,
+            java.lang.NoSuchMethodException,
+            BailiffFullException {
         if (debug) {
-            log.entry("<migrate obj=\"" + obj + "\" cb=\"" + cb
-                    + "\" args=\"" + args + "\"/>");
+            log.entry("migrate", "obj", obj, "cb", cb, "args", args);
+        }
+        Pacing p = agentPacing;
+        if (p != null) {
+            obj.setPacing(p);
         }
         agitator agt = new agitator(obj, cb, args);
         agt.initialize();
-        //agt.setName(agt.myName);
-        //debugMsg("before start is "+ name + " alive : " + agt.isAlive());
-        agt.start();
-        //debugMsg("is "+ name + " alive : " + agt.isAlive());
+        try {
+            reserve();
+        } catch (BailiffFullException e) {
+            event(EventLog.REJECT, agt.myName, null, null, population.get());
+            throw e;
+        }
+        try {
+            admit(agt);
+        } catch (RemoteException e) {
+            pending.decrementAndGet();
+            population.decrementAndGet();
+            throw e;
+        }
+        // Journaled before migrate returns, so that once the sender lets
+        // go of the agent a crash of this Bailiff does not lose it, and
+        // before the agent runs, so that its departure comes after.
+        journalOutcome(AgentJournal.ADMITTED, migrationId, agt.myName);
+        journalArrival(agt);
+        try {
+            long before = engine.getQueuedTotal();
+            agt.myQueued = startTiming();
+            engine.execute(agt);
+            if (engine.getQueuedTotal() != before) {
+                queued.increment();
+            }
+            arrivals.incrementAndGet();
+            accepted.increment();
+            event(EventLog.ADMIT, agt.myName, null, null, population.get());
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            pending.decrementAndGet();
+            depart(agt);
+            journalOutcome(AgentJournal.ADMITTED, migrationId,
+                    TransferLog.NOBODY);
+            throw new RemoteException("Bailiff is shutting down", e);
+        }
+        return agt.myName;
+    }
+
+    /**
+     * Opens the journal of resident agents and brings back to life the
+     * agents it says were resident when this Bailiff last ran, and the
+     * outcomes of its recent tag transfers and migrations. From then
+     * on arrivals, departures and tags are recorded in it. Agents that
+     * arrived before are not, which is why the Bailiff constructor that
+     * takes a journal file opens it before announcing the Bailiff.
+     *
+     * @param file The journal file.
+     * @throws IOException Thrown if the journal can not be opened.
+     */
+    public void openJournal(File file) throws IOException {
+        AgentJournal j = AgentJournal.open(file);
+        journal = j;
+        List<AgentJournal.Resident> residents = j.residents();
+        log.entry("journal", "file", file, "agents",
+                Integer.valueOf(residents.size()));
+        for (AgentJournal.Outcome o : j.outcomes(AgentJournal.TAGGED)) {
+            transfers.restore(o.id, o.target, o.ended);
+        }
+        for (AgentJournal.Outcome o : j.outcomes(AgentJournal.ADMITTED)) {
+            migrations.restore(o.id, o.target, o.ended);
+        }
+        for (AgentJournal.Resident r : residents) {
+            try {
+                resurrect(r);
+            } catch (Exception e) {
+                // An agent we can not restore is dropped from the journal.
+                log.entry("resurrect", "agent", r.name, "failed", e);
+                journalDeparture(r.name);
+            }
+        }
+    }
+
+    /**
+     * Restarts an agent from the journal. Its 'it' flag is set to the one
+     * last journaled, also in any Boolean arguments to its entry method,
+     * which is how Dexter is told whether he is 'it'.
+     */
+    protected void resurrect(AgentJournal.Resident r)
+            throws IOException, ClassNotFoundException,
+            NoSuchMethodException {
+        Object[] state = r.restore();
+        Dexter obj = (Dexter) state[0];
+        Object[] args = (Object[]) state[1];
+        obj.getTagState().set(r.it);
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof Boolean) {
+                args[i] = Boolean.valueOf(r.it);
+            }
+        }
+        agitator agt = new agitator(obj, r.cb, args);
+        agt.initialize();
+        agt.myName = r.name;
+        pending.incrementAndGet();
+        population.incrementAndGet();
+        try {
+            admit(agt);
+        } catch (RemoteException e) {
+            pending.decrementAndGet();
+            population.decrementAndGet();
+            throw e;
+        }
+        try {
+            engine.execute(agt);
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            pending.decrementAndGet();
+            depart(agt);
+            throw e;
+        }
+        event(EventLog.ADMIT, agt.myName, null, null, population.get());
+        log.entry("resurrect", "agent", r.name, "it", Boolean.valueOf(r.it));
+    }
+
+    /**
+     * Journals an agent that has just been admitted. This runs in migrate,
+     * so the sender waits for the agent to be marshalled again (some 20
+     * us for a Dexter), but does not hand the agent off before it is in
+     * the journal.
+     */
+    protected void journalArrival(agitator agt) {
+        AgentJournal j = journal;
+        if (j != null) {
+            try {
+                j.arrive(agt.myName, agt.myCb, agt.tagState(), agt.myObj,
+                        agt.myArgs);
+            } catch (IOException e) {
+                log.entry(e);
+            }
+        }
+    }
+
+    protected void journalOutcome(byte type, UUID id, UUID target) {
+        AgentJournal j = journal;
+        if (j != null) {
+            try {
+                j.outcome(type, id, target);
+            } catch (IOException e) {
+                log.entry(e);
+            }
+        }
+    }
+
+    protected void journalDeparture(UUID name) {
+        AgentJournal j = journal;
+        if (j != null) {
+            try {
+                j.depart(name);
+            } catch (IOException e) {
+                log.entry(e);
+            }
+        }
+    }
+
+    protected void journalIt(UUID name, boolean it) {
+        AgentJournal j = journal;
+        if (j != null) {
+            try {
+                j.it(name, it);
+            } catch (IOException e) {
+                log.entry(e);
+            }
+        }
+    }
+
+    /**
+     * Opens a binary event log, in which migrations, admissions,
+     * departures, tags, rejections and agent failures are recorded from
+     * then on. For admit, depart and reject events the value is the
+     * number of resident agents. See EventLogReader. An event log that
+     * was open before is closed. Events before the call are not recorded,
+     * which is why main has the constructor open the log before the
+     * Bailiff is announced.
+     *
+     * @param file The first segment file.
+     * @param segmentBytes The size of each segment file.
+     * @throws IOException Thrown if the log can not be opened.
+     */
+    public void openEventLog(File file, int segmentBytes) throws IOException {
+        useEventLog(EventLog.open(file, room, segmentBytes));
+    }
+
+    /**
+     * Records events in an open event log from now on, and closes the one
+     * used before, if any.
+     */
+    protected void useEventLog(EventLog ev) {
+        EventLog old = events;
+        events = ev;
+        if (old != null) {
+            old.close();
+        }
+        log.entry("events", "file", ev.getFile());
+    }
+
+    /**
+     * Records an event, if we keep an event log.
+     */
+    protected void event(byte type, UUID agent, UUID other, UUID transfer,
+                         int value) {
+        EventLog ev = events;
+        if (ev != null) {
+            ev.record(type, agent, other, transfer, value);
+        }
+    }
+
+    /**
+     * Reserves room for one arriving agent, within the admission limits.
+     *
+     * @throws BailiffFullException Thrown if a limit has been reached.
+     */
+    protected void reserve() throws BailiffFullException {
+        if (!reserveOne(pending, maxPending)) {
+            rejected.increment();
+            throw new BailiffFullException("Too many pending arrivals ("
+                    + maxPending + ")");
+        }
+        if (!reserveOne(population, maxResident)) {
+            pending.decrementAndGet();
+            rejected.increment();
+            throw new BailiffFullException("Too many resident agents ("
+                    + maxResident + ")");
+        }
+    }
+
+    /**
+     * Increments a counter unless that would take it past a limit.
+     *
+     * @return True if the counter was incremented.
+     */
+    protected static boolean reserveOne(
+            java.util.concurrent.atomic.AtomicInteger counter, int limit) {
+        for (;;) {
+            int n = counter.get();
+            if (0 < limit && limit <= n) {
+                return false;
+            }
+            if (counter.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Sets the largest number of agents, resident or pending, this Bailiff
+     * accepts. Zero removes the limit.
+     */
+    public void setMaxResident(int n) {
+        maxResident = Math.max(n, 0);
+    }
+
+    public int getMaxResident() {
+        return maxResident;
+    }
+
+    /**
+     * Sets the largest number of accepted agents that may wait to start
+     * executing. Zero removes the limit.
+     */
+    public void setMaxPending(int n) {
+        maxPending = Math.max(n, 0);
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * Returns the number of arrivals accepted so far.
+     */
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    /**
+     * Returns the number of arrivals turned away so far.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Sets the pacing given to arriving Dexters from now on, which is how
+     * a busy Bailiff slows down the agents that pass through it.
+     *
+     * @param p The pacing, or null to let Dexters keep their own.
+     */
+    public void setAgentPacing(Pacing p) {
+        agentPacing = p;
+    }
+
+    public Pacing getAgentPacing() {
+        return agentPacing;
+    }
+
+    /**
+     * Returns the number of arrivals so far that had to wait before they
+     * could start executing.
+     */
+    public long getQueuedCount() {
+        return queued.sum();
+    }
+
+    /**
+     * Returns the number of accepted arrivals not yet executing.
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * Returns this Bailiff's counters, gauges and latency histograms.
+     */
+    @Override
+    public Metrics.Snapshot getMetrics() throws RemoteException {
+        return metrics.snapshot();
+    }
+
+    /**
+     * Turns the measuring of latencies on or off. Counters and gauges are
+     * always kept.
+     */
+    public void setTiming(boolean on) {
+        timing = on;
+    }
+
+    public boolean isTiming() {
+        return timing;
+    }
+
+    /**
+     * Returns the time to measure a latency from, or zero if timing is off.
+     */
+    protected long startTiming() {
+        return timing ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since start, unless timing was off at the start.
+     */
+    protected static void stopTiming(Histogram h, long start) {
+        if (start != 0) {
+            h.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the metrics to a file every period, and once
+     * more at shutdown. Each snapshot replaces the previous one.
+     *
+     * @param file     The file.
+     * @param periodMs The period in milliseconds.
+     */
+    public void dumpMetrics(File file, long periodMs) {
+        metricsFile = file;
+        housekeeper.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                writeMetrics();
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    protected void writeMetrics() {
+        try {
+            metrics.snapshot().writeTo(metricsFile);
+        } catch (IOException e) {
+            if (debug) {
+                log.entry(e);
+            }
+        }
     }
 
     /**
@@ -432,29 +1408,112 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
             java.rmi.RemoteException,
             java.net.UnknownHostException,
             java.io.IOException {
-        this.log = (log == null) ? new Logger() : log;
-        this.user = user;
-        this.room = room;
-        myInetAddress = java.net.InetAddress.getLocalHost();
-        host = myInetAddress.getHostName().toLowerCase();
-        this.debug = (this.debug == true) ? true : debug;
+        this(room, user, debug, log, null);
+    }
 
-        propertyMap = Collections.synchronizedMap(new HashMap());
-        propertyMap.put("hostname", host);
-        propertyMap.put("hostaddress", myInetAddress.getHostAddress());
-        propertyMap.put("room", room);
+    /**
+     * Creates a new Bailiff service instance that runs its agents on the
+     * given execution engine.
+     *
+     * @param room   Informational text field used to designate the 'room'.
+     * @param user   Information text field used to designate the 'user'.
+     * @param debug  If true, diagnostic messages will be logged.
+     * @param log    The Logger instance to use, or null for a default one.
+     * @param engine The engine that lends threads to agents. If null, a
+     *               thread-per-agent engine is created.
+     * @throws RemoteException
+     * @throws UnknownHostException Thrown if the local host address can not
+     *                              be determined.
+     * @throws IOException          Thrown if there is an I/O problem.
+     */
+    public Bailiff(String room, String user, boolean debug, Logger log,
+                   AgentEngine engine)
+            throws
+            java.rmi.RemoteException,
+            java.net.UnknownHostException,
+            java.io.IOException {
+        this(room, user, debug, log, engine, null, null);
+    }
+
+    /**
+     * Creates a new Bailiff service instance that keeps a journal of its
+     * resident agents. The journal is opened, and the agents in it are
+     * brought back, before the Bailiff is announced to the lookup
+     * servers, so that no agent can arrive before the journal records it.
+     *
+     * @param room        Informational text field used to designate the 'room'.
+     * @param user        Information text field used to designate the 'user'.
+     * @param debug       If true, diagnostic messages will be logged.
+     * @param log         The Logger instance to use, or null for a default one.
+     * @param engine      The engine that lends threads to agents, or null.
+     * @param journalFile The journal file, or null for no journal.
+     * @throws RemoteException
+     * @throws UnknownHostException Thrown if the local host address can not
+     *                              be determined.
+     * @throws IOException          Thrown if there is an I/O problem, also
+     *                              with the journal.
+     */
+    public Bailiff(String room, String user, boolean debug, Logger log,
+                   AgentEngine engine, File journalFile)
+            throws
+            java.rmi.RemoteException,
+            java.net.UnknownHostException,
+            java.io.IOException {
+        this(room, user, debug, log, engine, journalFile, null);
+    }
+
+    /**
+     * Creates a new Bailiff service instance that keeps a journal of its
+     * resident agents and records its events in an event log. Both are in
+     * use before the Bailiff is announced to the lookup servers, so that
+     * the first arrivals, and the agents the journal brings back, are
+     * recorded as well.
+     *
+     * @param room        Informational text field used to designate the 'room'.
+     * @param user        Information text field used to designate the 'user'.
+     * @param debug       If true, diagnostic messages will be logged.
+     * @param log         The Logger instance to use, or null for a default one.
+     * @param engine      The engine that lends threads to agents, or null.
+     * @param journalFile The journal file, or null for no journal.
+     * @param events      An open event log, or null for none. The Bailiff
+     *                    closes it when it shuts down.
+     * @throws RemoteException
+     * @throws UnknownHostException Thrown if the local host address can not
+     *                              be determined.
+     * @throws IOException          Thrown if there is an I/O problem, also
+     *                              with the journal.
+     */
+    public Bailiff(String room, String user, boolean debug, Logger log,
+                   AgentEngine engine, File journalFile, EventLog events)
+            throws
+            java.rmi.RemoteException,
+            java.net.UnknownHostException,
+            java.io.IOException {
+        init(room, user, debug, log, engine);
+        if (events != null) {
+            useEventLog(events);
+        }
 
-        clientObjectMap = new HashMap();
+        // Discover the lookup servers of the public group, and keep a
+        // cache of the Bailiffs on them for our agents to use, also for
+        // the agents the journal brings back.
+        discovery = new LookupDiscoveryManager(new String[]{""}, null, null);
+        lookupCache = new LookupCacheDirectory(discovery);
+        directory = lookupCache;
 
-        log.entry("STARTING host=" + host + ", room=" + room + ", user="
-                + user + ", debug=" + debug + ".");
+        if (journalFile != null) {
+            openJournal(journalFile);
+        }
 
         // Create Jini service attributes.
 
+        publishedLoad = currentLoad();
+
         Entry[] bf_attributes =
                 new Entry[]{
                         new Name("Bailiff"),
-                        new Location(host, room, user)
+                        new Location(host, room, user),
+                        publishedLoad
                         //      ,
                         //	new BailiffServiceType (host, room, user)
                 };
@@ -466,17 +1525,142 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
                         this,            // the service object
                         bf_attributes,        // the attribute sets
                         new IDListener(),    // Service ID callback
-                        null,            // Default Service Discovery Manager
+                        discovery,        // Our discovery manager
                         null            // Default Lease Renewal Manager
                 );
+
+        startHousekeeping();
         //setProperty(idListner.getServiceID(), room);
     }
 
+    /**
+     * Creates a Bailiff that neither registers with Jini lookup servers nor
+     * accepts RMI calls. Its agents find other Bailiffs in the given
+     * directory and call them directly, which is how several Bailiffs run
+     * in one JVM in the simulation and the benchmarks. The load is not
+     * published, since there is nowhere to publish it.
+     *
+     * @param room      The room name, which also tells the Bailiffs apart.
+     * @param log       The Logger instance to use, or null for a silent one.
+     * @param engine    The engine that lends threads to agents, or null.
+     * @param directory The directory of the Bailiffs in this JVM.
+     * @throws RemoteException Thrown if the Bailiff can not be unexported.
+     * @throws UnknownHostException Thrown if the local host address can not
+     *                              be determined.
+     */
+    Bailiff(String room, Logger log, AgentEngine engine,
+            BailiffDirectory directory)
+            throws
+            java.rmi.RemoteException,
+            java.net.UnknownHostException {
+        UnicastRemoteObject.unexportObject(this, true);
+        init(room, System.getProperty("user.name"), false, log, engine);
+        this.directory = directory;
+        publishedLoad = currentLoad();
+    }
+
+    /**
+     * Sets up the parts common to all Bailiffs.
+     */
+    private void init(String room, String user, boolean debug, Logger log,
+                      AgentEngine engine)
+            throws java.net.UnknownHostException {
+        this.log = (log == null) ? new Logger() : log;
+        this.engine = (engine == null) ? AgentEngine.create(null) : engine;
+        this.user = user;
+        this.room = room;
+        myInetAddress = java.net.InetAddress.getLocalHost();
+        host = myInetAddress.getHostName().toLowerCase();
+        this.debug = (this.debug == true) ? true : debug;
+
+        propertyMap = Collections.synchronizedMap(new HashMap());
+        propertyMap.put("hostname", host);
+        propertyMap.put("hostaddress", myInetAddress.getHostAddress());
+        propertyMap.put("room", room);
+
+        metrics.gauge("agents.resident", new java.util.function.LongSupplier() {
+            public long getAsLong() {
+                return clientObjectMap.size();
+            }
+        });
+        metrics.gauge("agents.pending", new java.util.function.LongSupplier() {
+            public long getAsLong() {
+                return pending.get();
+            }
+        });
+        metrics.gauge("engine.active", new java.util.function.LongSupplier() {
+            public long getAsLong() {
+                return Bailiff.this.engine.getActiveCount();
+            }
+        });
+        metrics.gauge("tag.transfers", new java.util.function.LongSupplier() {
+            public long getAsLong() {
+                return transfers.getTransferCount();
+            }
+        });
+        metrics.gauge("tag.retries", new java.util.function.LongSupplier() {
+            public long getAsLong() {
+                return transfers.getRetryCount();
+            }
+        });
+
+        this.log.entry("STARTING host=" + host + ", room=" + room + ", user="
+                + user + ", debug=" + debug + ", engine=" + this.engine + ".");
+
+        try {
+            adminName = BailiffAdmin.register(this);
+        } catch (javax.management.JMException e) {
+            this.log.entry(e);
+        }
+    }
+
+    /**
+     * Starts the periodic update of the published load.
+     */
+    private void startHousekeeping() {
+        housekeeper.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    updateLoad();
+                } catch (RuntimeException e) {
+                    // A failed update must not cancel the next ones.
+                    if (debug) {
+                        log.entry(e);
+                    }
+                }
+            }
+        }, LOAD_PERIOD, LOAD_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Shuts down this Bailiff service.
      */
     public void shutdown() {
-        bf_joinmanager.terminate();
+        housekeeper.shutdown();
+        if (adminName != null) {
+            BailiffAdmin.unregister(adminName);
+            adminName = null;
+        }
+        if (lookupCache != null) {
+            lookupCache.terminate();
+        }
+        if (bf_joinmanager != null) {
+            bf_joinmanager.terminate();
+        }
+        if (discovery != null) {
+            // The JoinManager only terminates a manager it created.
+            discovery.terminate();
+        }
+        engine.shutdown();
+        if (metricsFile != null) {
+            writeMetrics();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        if (events != null) {
+            events.close();
+        }
     }
 
     /**
@@ -495,8 +1679,9 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
      * Bailiff and registers it with the Jini lookup server(s).
      * When the main routine exits the JVM will
      * keep on running because the JoinManager will be running and referring
-     * to the Bailiff. There may also be agitator threads active. Some house-
-     * holding counters and a shutdown method are attractive extensions.
+     * to the Bailiff. There may also be agitator threads active. The
+     * Bailiff's counters can be read with getMetrics, or written to a
+     * file with -metrics.
      *
      * @param args The array of commandline strings, Java standard.
      * @throws java.net.UnknownHostException Thrown if the name of the
@@ -527,13 +1712,46 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
         CmdlnOption logOption = new CmdlnOption("-log",
                 CmdlnOption.OPTIONAL |
                         CmdlnOption.PAR_OPT);
+        CmdlnOption logAsyncOption = new CmdlnOption("-logasync",
+                CmdlnOption.OPTIONAL |
+                        CmdlnOption.PAR_REQ);
+        CmdlnOption logRollOption = new CmdlnOption("-logroll",
+                CmdlnOption.OPTIONAL |
+                        CmdlnOption.PAR_REQ);
+        CmdlnOption engineOption = new CmdlnOption("-engine",
+                CmdlnOption.OPTIONAL |
+                        CmdlnOption.PAR_REQ);
+        CmdlnOption maxAgentsOption = new CmdlnOption("-maxagents",
+                CmdlnOption.OPTIONAL |
+                        CmdlnOption.PAR_REQ);
+        CmdlnOption maxPendingOption = new CmdlnOption("-maxpending",
+                CmdlnOption.OPTIONAL |
+                        CmdlnOption.PAR_REQ);
+        CmdlnOption journalOption = new CmdlnOption("-journal",
+                CmdlnOption.OPTIONAL |
+                        CmdlnOption.PAR_REQ);
+        CmdlnOption eventsOption = new CmdlnOption("-events",
+                CmdlnOption.OPTIONAL |
+                        CmdlnOption.PAR_REQ);
+        CmdlnOption metricsOption = new CmdlnOption("-metrics",
+                CmdlnOption.OPTIONAL |
+                        CmdlnOption.PAR_OPT);
 
         CmdlnOption[] opts =
                 new CmdlnOption[]{helpOption,
+                        noFrameOption,
                         debugOption,
                         roomOption,
                         userOption,
-                        logOption};
+                        logOption,
+                        logAsyncOption,
+                        logRollOption,
+                        engineOption,
+                        maxAgentsOption,
+                        maxPendingOption,
+                        journalOption,
+                        eventsOption,
+                        metricsOption};
 
         String[] restArgs = Commandline.parseArgs(System.out, argv, opts);
 
@@ -543,7 +1761,10 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
 
         if (helpOption.getIsSet() == true) {
             System.out.println
-                    ("Usage: [-room room][-user user][-debug][-log [logfile]]");
+                    ("Usage: [-room room][-user user][-debug][-noframe][-log [logfile]]"
+                            + "[-logasync spec][-logroll spec][-engine spec][-maxagents n][-maxpending n]"
+                            + "[-journal file][-events file[:MB]]"
+                            + "[-metrics [file[:seconds]]]");
             System.out.print("Where room is location of the service ");
             if (room == null) {
                 System.out.println("(no default).");
@@ -559,13 +1780,43 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
             }
 
             System.out.println("      -debug turns on debugging mode.");
+            System.out.println("      -noframe runs headless: no window, and AWT is never loaded.");
             System.out.println("      -log turns on logging to file.");
+            System.out.println("      -logasync policy[:capacity[:flushms]] writes the log");
+            System.out.println("        from a background thread; when it falls behind:");
+            System.out.println("        block      callers wait");
+            System.out.println("        drop       entries are dropped");
+            System.out.println("        count      entries are dropped and counted in the log");
+            System.out.println("      -logroll MB[:minutes[:keep[:gz]]] rolls the log file");
+            System.out.println("        into numbered segments, keeping the newest (default 10),");
+            System.out.println("        compressed if gz is given. Without a logfile, the log");
+            System.out.println("        is Bailiff-room.log.");
+            System.out.println("      -engine selects how agents get threads:");
+            System.out.println("        thread     one thread per agent (default)");
+            System.out.println("        pool[:N]   elastic pool of at most N threads");
+            System.out.println("        fixed[:N]  N prestarted threads");
+            System.out.println("        virtual    one virtual thread per agent");
+            System.out.println("      -maxagents limits resident agents (0 = no limit).");
+            System.out.println("      -maxpending limits arrivals waiting to start.");
+            System.out.println("      -journal keeps resident agents in a file and");
+            System.out.println("        restarts them when the Bailiff is restarted.");
+            System.out.println("      -events records events in binary segment files of");
+            System.out.println("        MB megabytes (default 16); see EventLogReader.");
+            System.out.println("      -metrics measures latencies, and writes the metrics");
+            System.out.println("        to file every so many seconds (default 60).");
+            System.out.println("The Bailiff can be watched and tuned with jconsole, as the");
+            System.out.println("MXBean dsv.pis.gotag:type=Bailiff,room=\"room\".");
 
             System.exit(0);
         }
 
         debug = debugOption.getIsSet();
 
+        if (noFrameOption.getIsSet() == true) {
+            // Neither we nor any visiting Dexter is to load AWT.
+            System.setProperty("java.awt.headless", "true");
+        }
+
         if (roomOption.getIsSet() == true) {
             room = roomOption.getValue().toLowerCase();
         }
@@ -574,23 +1825,129 @@ public class Bailiff extends java.rmi.server.UnicastRemoteObject    // for RMI
             user = userOption.getValue().toLowerCase();
         }
 
+        int maxAgents = 0;
+        int maxPending = 0;
+        try {
+            if (maxAgentsOption.getIsSet() == true) {
+                maxAgents = Integer.parseInt(maxAgentsOption.getValue());
+            }
+            if (maxPendingOption.getIsSet() == true) {
+                maxPending = Integer.parseInt(maxPendingOption.getValue());
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Bad number: " + e.getMessage());
+            System.exit(1);
+        }
+
+        AgentEngine engine = null;
+        if (engineOption.getIsSet() == true) {
+            try {
+                engine = AgentEngine.create(engineOption.getValue());
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+
         Logger log;
 
         if (logOption.getIsSet() == true) {
             String lg = logOption.getValue();
+            if (lg == null && logRollOption.getIsSet() == true) {
+                // A rolling log gets a stable name, to continue its segments.
+                lg = (room != null) ? "Bailiff-" + room + ".log" : "Bailiff.log";
+            }
             log =
                     (lg != null) ? new Logger(lg, true) : new Logger(".", "Bailiff");
         } else {
             log = new Logger();
         }
 
+        if (logRollOption.getIsSet() == true) {
+            try {
+                log.setRolling(logRollOption.getValue());
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        if (logAsyncOption.getIsSet() == true) {
+            try {
+                log.setAsync(logAsyncOption.getValue());
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+
         // Set the RMI security manager.
         System.setSecurityManager(new RMISecurityManager());
-        Bailiff bf = new Bailiff(room, user, debug, log);
+        File journalFile = (journalOption.getIsSet() == true)
+                ? new File(journalOption.getValue()) : null;
+        EventLog events = null;
+        if (eventsOption.getIsSet() == true) {
+            String spec = eventsOption.getValue();
+            int segment = EventLog.DEFAULT_SEGMENT;
+            int colon = spec.lastIndexOf(':');
+            if (0 < colon) {
+                try {
+                    int mb = Integer.parseInt(spec.substring(colon + 1));
+                    if (mb < 1 || MAX_SEGMENT_MB < mb) {
+                        System.out.println("Bad event segment size: " + mb
+                                + " MB (1.." + MAX_SEGMENT_MB + ")");
+                        System.exit(1);
+                    }
+                    segment = mb << 20;
+                    spec = spec.substring(0, colon);
+                } catch (NumberFormatException e) {
+                    // A colon in the file name.
+                }
+            }
+            events = EventLog.open(new File(spec), room, segment);
+        }
+        Bailiff bf = new Bailiff(room, user, debug, log, engine, journalFile,
+                events);
+        bf.setMaxResident(maxAgents);
+        bf.setMaxPending(maxPending);
+        if (metricsOption.getIsSet() == true) {
+            bf.setTiming(true);
+            String spec = metricsOption.getValue();
+            if (spec != null) {
+                long seconds = 60;
+                int colon = spec.lastIndexOf(':');
+                if (0 < colon) {
+                    try {
+                        seconds = Long.parseLong(spec.substring(colon + 1));
+                        spec = spec.substring(0, colon);
+                    } catch (NumberFormatException e) {
+                        // A colon in the file name.
+                    }
+                }
+                bf.dumpMetrics(new File(spec), Math.max(1, seconds) * 1000);
+            }
+        }
         if (noFrameOption.getIsSet() == false) {
-            BailiffFrame bff = new BailiffFrame(bf);
+            openFrame(bf, log);
         }
+        log.entry("ready", "ms", Long.valueOf(java.lang.management
+                .ManagementFactory.getRuntimeMXBean().getUptime()));
     } // main
 
+    /**
+     * Opens a BailiffFrame on a Bailiff. The frame is loaded by name, so
+     * that a headless Bailiff never loads it, nor AWT, and Bailiff.jar
+     * works without the GUI jar. If there is no GUI to be had, the
+     * Bailiff runs on without one.
+     */
+    protected static void openFrame(Bailiff bf, Logger log) {
+        try {
+            Class.forName("dsv.pis.gotag.bailiff.BailiffFrame")
+                    .getConstructor(Bailiff.class).newInstance(bf);
+        } catch (Exception | LinkageError e) {
+            log.entry("noframe", "reason", e);
+        }
+    }
+
 } // public class Bailiff
 
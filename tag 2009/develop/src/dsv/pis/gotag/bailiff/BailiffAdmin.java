@@ -0,0 +1,212 @@
+// BailiffAdmin.java
+// Shows a Bailiff to JMX tools through the platform MBean server.
+
+package dsv.pis.gotag.bailiff;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import javax.management.*;
+
+import dsv.pis.gotag.util.Pacing;
+
+/**
+ * The BailiffAdmin is the MXBean of one Bailiff. It reads the Bailiff's
+ * fields as they are when it is asked, so it costs nothing until a tool
+ * looks. Since it is registered with the platform MBean server, a local
+ * jconsole sees every Bailiff in the JVM, window or no window; for remote
+ * tools, start the JVM with the usual com.sun.management.jmxremote
+ * properties.
+ */
+class BailiffAdmin implements BailiffAdminMXBean {
+
+  /**
+   * The domain of the Bailiffs' object names.
+   */
+  static final String DOMAIN = "dsv.pis.gotag";
+
+  protected final Bailiff bf;
+
+  BailiffAdmin (Bailiff bf) {
+    this.bf = bf;
+  }
+
+  /**
+   * Registers the MXBean of a Bailiff. If there already is one for the
+   * room in this JVM, the name gets an id to tell them apart.
+   * @return The name it was registered under.
+   * @throws JMException Thrown if it could not be registered.
+   */
+  static ObjectName register (Bailiff bf) throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer ();
+    String base = DOMAIN + ":type=Bailiff,room="
+      + ObjectName.quote (String.valueOf (bf.room));
+    BailiffAdmin admin = new BailiffAdmin (bf);
+    for (int id = 1; ; id++) {
+      ObjectName name = new ObjectName ((id == 1) ? base : base + ",id=" + id);
+      try {
+	return server.registerMBean (admin, name).getObjectName ();
+      }
+      catch (InstanceAlreadyExistsException e) {
+	// Try the next id.
+      }
+    }
+  }
+
+  /**
+   * Unregisters an MXBean, if it is still registered.
+   */
+  static void unregister (ObjectName name) {
+    try {
+      ManagementFactory.getPlatformMBeanServer ().unregisterMBean (name);
+    }
+    catch (JMException e) {}
+  }
+
+  public String getRoom () {
+    return bf.room;
+  }
+
+  public String getUser () {
+    return bf.user;
+  }
+
+  public String getHost () {
+    return bf.host;
+  }
+
+  public String getEngine () {
+    return bf.engine.toString ();
+  }
+
+  public String [] getResidentAgents () {
+    List<String> names = new ArrayList<String> ();
+    for (Bailiff.agitator agt : bf.clientObjectMap.values ()) {
+      names.add (agt.myName
+		 + (agt.isIt () ? " it" : "")
+		 + (agt.departing ? " departing" : ""));
+    }
+    Collections.sort (names);
+    return names.toArray (new String [names.size ()]);
+  }
+
+  public int getResidentCount () {
+    return bf.clientObjectMap.size ();
+  }
+
+  public int getPendingCount () {
+    return bf.getPendingCount ();
+  }
+
+  public int getActiveThreads () {
+    return bf.engine.getActiveCount ();
+  }
+
+  public int getWaitingTasks () {
+    return bf.engine.getQueuedCount ();
+  }
+
+  public long getCompletedTasks () {
+    return bf.engine.getCompletedCount ();
+  }
+
+  public long getAcceptedCount () {
+    return bf.getAcceptedCount ();
+  }
+
+  public long getRejectedCount () {
+    return bf.getRejectedCount ();
+  }
+
+  public long getQueuedCount () {
+    return bf.getQueuedCount ();
+  }
+
+  public long getDepartureCount () {
+    return bf.getDepartureCount ();
+  }
+
+  public long getTransferCount () {
+    return bf.getTransferCount ();
+  }
+
+  public long getTransferRetryCount () {
+    return bf.getTransferRetryCount ();
+  }
+
+  public float getMigrationRate () {
+    return bf.migrationRate;
+  }
+
+  public Map<String, Long> getCounters () {
+    return new TreeMap<String, Long> (bf.metrics.snapshot ().getValues ());
+  }
+
+  public String getMetricsReport () {
+    return bf.metrics.snapshot ().toString ();
+  }
+
+  public Map<String, String> getProperties () {
+    Map<String, String> copy = new TreeMap<String, String> ();
+    synchronized (bf.propertyMap) {
+      Map<?, ?> props = bf.propertyMap;
+      for (Map.Entry<?, ?> e : props.entrySet ()) {
+	copy.put (String.valueOf (e.getKey ()), String.valueOf (e.getValue ()));
+      }
+    }
+    return copy;
+  }
+
+  public void setProperty (String key, String value) {
+    bf.setProperty (key, value);
+  }
+
+  public int getMaxResident () {
+    return bf.getMaxResident ();
+  }
+
+  public void setMaxResident (int n) {
+    bf.setMaxResident (n);
+  }
+
+  public int getMaxPending () {
+    return bf.getMaxPending ();
+  }
+
+  public void setMaxPending (int n) {
+    bf.setMaxPending (n);
+  }
+
+  public boolean isDebug () {
+    return bf.debug;
+  }
+
+  public void setDebug (boolean on) {
+    bf.debug = on;
+  }
+
+  public boolean isTiming () {
+    return bf.isTiming ();
+  }
+
+  public void setTiming (boolean on) {
+    bf.setTiming (on);
+  }
+
+  public String getAgentPacing () {
+    Pacing p = bf.getAgentPacing ();
+    return (p == null) ? "" : p.toString ();
+  }
+
+  public void setAgentPacing (String spec) {
+    String s = (spec == null) ? "" : spec.trim ();
+    bf.setAgentPacing (s.isEmpty () ? null : Pacing.parse (s));
+  }
+
+  public boolean isLogAsync () {
+    return bf.log.isAsync ();
+  }
+
+  public long getLogDroppedCount () {
+    return bf.log.getDroppedCount ();
+  }
+}
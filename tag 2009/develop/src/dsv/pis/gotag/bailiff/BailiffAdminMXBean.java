@@ -0,0 +1,135 @@
+// BailiffAdminMXBean.java
+// The management interface of a Bailiff, for JMX tools.
+
+package dsv.pis.gotag.bailiff;
+
+import java.util.Map;
+
+/**
+ * This is what a Bailiff shows of itself to JMX tools such as jconsole:
+ * who it is, its agents, its engine, its counters and properties, and
+ * the limits an operator may change while it runs. Each Bailiff
+ * registers one with the platform MBean server under the name
+ * dsv.pis.gotag:type=Bailiff,room=<i>room</i> (see BailiffAdmin).
+ */
+public interface BailiffAdminMXBean {
+
+  public String getRoom ();
+
+  public String getUser ();
+
+  public String getHost ();
+
+  /**
+   * Returns the kind and size of the agent engine.
+   */
+  public String getEngine ();
+
+  /**
+   * Returns the names of the resident agents. The name of an agent that
+   * is 'it' is followed by " it", that of one leaving by " departing".
+   */
+  public String [] getResidentAgents ();
+
+  public int getResidentCount ();
+
+  /**
+   * Returns the number of accepted agents not yet executing.
+   */
+  public int getPendingCount ();
+
+  /**
+   * Returns the number of engine threads executing agents.
+   */
+  public int getActiveThreads ();
+
+  /**
+   * Returns the number of agents waiting for an engine thread.
+   */
+  public int getWaitingTasks ();
+
+  public long getCompletedTasks ();
+
+  public long getAcceptedCount ();
+
+  public long getRejectedCount ();
+
+  /**
+   * Returns the number of arrivals that had to wait for a thread.
+   */
+  public long getQueuedCount ();
+
+  public long getDepartureCount ();
+
+  public long getTransferCount ();
+
+  public long getTransferRetryCount ();
+
+  /**
+   * Returns the recent rate of arrivals, per second.
+   */
+  public float getMigrationRate ();
+
+  /**
+   * Returns the counters and gauges of the Bailiff's metrics.
+   */
+  public Map<String, Long> getCounters ();
+
+  /**
+   * Returns the Bailiff's metrics as text, latencies included.
+   */
+  public String getMetricsReport ();
+
+  public Map<String, String> getProperties ();
+
+  public void setProperty (String key, String value);
+
+  /**
+   * The largest number of resident or pending agents; zero is no limit.
+   */
+  public int getMaxResident ();
+
+  public void setMaxResident (int n);
+
+  /**
+   * The largest number of agents waiting to start; zero is no limit.
+   */
+  public int getMaxPending ();
+
+  public void setMaxPending (int n);
+
+  /**
+   * True if the Bailiff makes debug entries in its log.
+   */
+  public boolean isDebug ();
+
+  public void setDebug (boolean on);
+
+  /**
+   * True if the Bailiff measures latencies.
+   */
+  public boolean isTiming ();
+
+  public void setTiming (boolean on);
+
+  /**
+   * The pacing given to arriving Dexters, as a Pacing specification, or
+   * the empty string if they keep their own.
+   */
+  public String getAgentPacing ();
+
+  /**
+   * Sets the pacing given to arriving Dexters.
+   * @param spec A Pacing specification, or the empty string.
+   * @throws IllegalArgumentException Thrown if spec can not be parsed.
+   */
+  public void setAgentPacing (String spec);
+
+  public boolean isLogAsync ();
+
+  /**
+   * Returns the number of log entries dropped because the log writer
+   * fell behind.
+   */
+  public long getLogDroppedCount ();
+}
@@ -0,0 +1,94 @@
+// BailiffContext.java
+// What a Bailiff offers the agents executing in it.
+
+package dsv.pis.gotag.bailiff;
+
+/**
+ * The BailiffContext gives an agent access to the Bailiff it is
+ * currently executing in. It is bound to the thread the Bailiff lends
+ * the agent, so an agent asks for it from its entry point (or from code
+ * called by it):
+ * <pre>
+ *   BailiffContext ctx = BailiffContext.getLocal ();
+ *   if (ctx != null) { ... }
+ * </pre>
+ * Outside a Bailiff, for example in the JVM that launches an agent,
+ * there is no context and getLocal returns null.
+ */
+public abstract class BailiffContext {
+
+  private static final ThreadLocal<BailiffContext> current =
+    new ThreadLocal<BailiffContext> ();
+
+  /**
+   * Returns the context of the Bailiff the calling thread executes an
+   * agent for, or null if it does not.
+   */
+  public static BailiffContext getLocal () {
+    return current.get ();
+  }
+
+  /**
+   * Binds a context to the calling thread.
+   */
+  static void enter (BailiffContext ctx) {
+    current.set (ctx);
+  }
+
+  /**
+   * Unbinds the calling thread's context.
+   */
+  static void leave () {
+    current.remove ();
+  }
+
+  /**
+   * Returns the local Bailiff. Calls through this reference are ordinary
+   * method calls, not RMI.
+   */
+  public abstract BailiffInterface getBailiff ();
+
+  /**
+   * Returns the Bailiff's directory of known Bailiffs, or null if the
+   * Bailiff does not maintain one.
+   */
+  public abstract BailiffDirectory getDirectory ();
+
+  /**
+   * Returns the selector whose statistics the Bailiff's agents share.
+   */
+  public abstract BailiffSelector getSelector ();
+
+  /**
+   * Tells the Bailiff that the calling agent has handed the tag to
+   * another agent, in this Bailiff or any other, so that its journal no
+   * longer has the agent as 'it'. The Bailiff that carried out the
+   * transfer journals only the receiver.
+   */
+  public abstract void tagGiven ();
+
+  /**
+   * Migrates the calling agent to another Bailiff, with the local Bailiff
+   * as a party to the handoff. From the call on the agent can not be
+   * tagged here, and once the destination has admitted it, the agent is
+   * no longer resident here, even though its entry point has not yet
+   * returned. If the migration fails the agent stays resident. If the
+   * destination can not be asked whether it admitted the agent, the call
+   * returns as if it had, and the agent had better stop here.
+   * @param dest The destination Bailiff.
+   * @param obj The agent.
+   * @param cb The name of the entry method to call at the destination.
+   * @param args The arguments to the entry method.
+   * @exception java.rmi.RemoteException Thrown if there is an RMI problem.
+   * @exception java.lang.NoSuchMethodException Thrown if the entry method
+   * is not found.
+   * @exception BailiffFullException Thrown if the destination is full.
+   */
+  public abstract void migrate (BailiffInterface dest,
+				dsv.pis.gotag.dexter.Dexter obj,
+				String cb, Object [] args)
+    throws
+      java.rmi.RemoteException,
+      java.lang.NoSuchMethodException,
+      BailiffFullException;
+}
@@ -0,0 +1,44 @@
+// BailiffDirectory.java
+// The set of Bailiffs known to the Bailiff an agent is executing in.
+
+package dsv.pis.gotag.bailiff;
+
+import net.jini.core.lookup.*;
+import net.jini.lookup.*;
+
+/**
+ * A BailiffDirectory answers which Bailiffs are currently available.
+ * The Bailiff keeps one directory up to date for the lifetime of its JVM
+ * and offers it to resident agents through their BailiffContext, so that
+ * an agent arriving at the Bailiff does not need to start its own
+ * discovery of Jini lookup servers.
+ */
+public interface BailiffDirectory {
+
+  /**
+   * Returns the Bailiffs the directory currently knows of.
+   * @param filter If non-null, only service items accepted by the filter
+   * are returned.
+   * @param maxMatches The maximum number of service items to return.
+   * @return The service items of the Bailiffs, possibly an empty array.
+   */
+  public ServiceItem [] lookup (ServiceItemFilter filter, int maxMatches);
+
+  /**
+   * Returns a number that changes whenever a Bailiff is added to or
+   * removed from the directory. A change of its attributes, such as its
+   * load, does not count.
+   */
+  public long getVersion ();
+
+  /**
+   * Waits until the directory has changed since the given version.
+   * @param version The version the caller last saw.
+   * @param timeout The longest time to wait, in milliseconds.
+   * @return True if the directory has changed, false on timeout.
+   * @throws InterruptedException Thrown if the wait is interrupted.
+   */
+  public boolean awaitChange (long version, long timeout)
+    throws
+      java.lang.InterruptedException;
+}
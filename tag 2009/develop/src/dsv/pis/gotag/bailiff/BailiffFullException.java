@@ -0,0 +1,23 @@
+// BailiffFullException.java
+// Thrown when a Bailiff turns away an arriving agent.
+
+package dsv.pis.gotag.bailiff;
+
+/**
+ * A BailiffFullException is thrown by BailiffInterface.migrate when the
+ * Bailiff already hosts as many agents, or has as many arrivals waiting
+ * to start, as it has been configured to accept. The agent has not been
+ * admitted and is free to try another Bailiff at once.
+ */
+public class BailiffFullException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Creates a new exception.
+   * @param msg The reason the agent was turned away.
+   */
+  public BailiffFullException (String msg) {
+    super (msg);
+  }
+}
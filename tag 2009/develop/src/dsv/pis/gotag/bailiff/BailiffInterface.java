@@ -48,12 +48,52 @@ public interface BailiffInterface
    * @exception java.lang.NoSuchMethodException Thrown if the proposed
    * callback is not found (which happen if the name is spelled wrong,
    * the number of arguments is wrong or are of the wrong type).
-   * 
+   * @exception BailiffFullException Thrown if the Bailiff has reached
+   * its limit of resident agents or of arrivals waiting to start.
+   * Same as migrate (obj, cb, args, Transfers.newId ()).
    */
   public void migrate (Dexter obj, String cb, Object [] args)
     throws
       java.rmi.RemoteException,
-      java.lang.NoSuchMethodException;
+      java.lang.NoSuchMethodException,
+      BailiffFullException;
+
+  /**
+   * The entry point for mobile code, as one migration that the Bailiff
+   * logs under its id (see wasAdmitted). If the call is repeated with the
+   * same id, for instance because the answer was lost, the Bailiff does
+   * not admit the agent again.
+   * @param obj The object (to execute).
+   * @param cb The name of the method to call as the program of obj.
+   * @param args The parameters for the callback method.
+   * @param migrationId The id of the migration, chosen by the sender (see
+   * Transfers.newId).
+   * @exception java.rmi.RemoteException Thrown if there is an RMI problem,
+   * or if the migration has been given up (see wasAdmitted).
+   * @exception java.lang.NoSuchMethodException Thrown if the proposed
+   * callback is not found.
+   * @exception BailiffFullException Thrown if the Bailiff has reached
+   * its limit of resident agents or of arrivals waiting to start.
+   */
+  public void migrate (Dexter obj, String cb, Object [] args,
+		       UUID migrationId)
+    throws
+      java.rmi.RemoteException,
+      java.lang.NoSuchMethodException,
+      BailiffFullException;
+
+  /**
+   * Tells whether the Bailiff admitted the agent of a migration, waiting
+   * for the migration to finish if it is under way. A migration that the
+   * Bailiff has not seen is given up: should its call arrive later, the
+   * agent is turned away. So the answer holds for good.
+   * @param migrationId The id the migration was called with.
+   * @return True if the agent was admitted.
+   * @exception java.rmi.RemoteException Thrown if there is an RMI problem.
+   */
+  public boolean wasAdmitted (UUID migrationId)
+    throws
+      java.rmi.RemoteException;
 
   public ArrayList<UUID> getAgentsNames()
           throws java.rmi.RemoteException;
@@ -64,4 +104,78 @@ public interface BailiffInterface
   public boolean agentHasIt(UUID name)
           throws java.rmi.RemoteException;
 
+  /**
+   * Tags one of the agents in the Bailiff on behalf of the caller, as a
+   * new transfer. Same as tagAnyAgent (tagger, Transfers.newId ()).
+   * @param tagger The name of the tagging agent, who is never selected.
+   * @return The name of the agent that was tagged, or null if no agent
+   * accepted the tag.
+   * @exception java.rmi.RemoteException Thrown if there is an RMI problem.
+   */
+  public UUID tagAnyAgent (UUID tagger)
+    throws
+      java.rmi.RemoteException;
+
+  /**
+   * Carries out the Bailiff's part of a tag transfer (see TagState). The
+   * tagger must have prepared to give the tag before calling, and
+   * commits or aborts according to the answer. The Bailiff picks the
+   * candidates itself, in random order, and tags the first that is idle.
+   * <p>
+   * The call is idempotent: if it is repeated with the same transfer id,
+   * for instance because the answer was lost, the Bailiff answers with
+   * the outcome of the first call and tags nobody else, also after it
+   * has been restarted from its journal. The Bailiff remembers an
+   * outcome for a limited time, so an id made by Transfers.newId is
+   * good for EXPIRE_MS (see TransferLog) and is refused after that.
+   * An id that is older than the Bailiff, and that it does not know,
+   * is answered with null.
+   * @param tagger The name of the tagging agent, who is never selected.
+   * If the tagger is an agent in this Bailiff, it must be giving.
+   * @param transferId The id of the transfer, chosen by the tagger.
+   * @return The name of the agent that was tagged, or null if no agent
+   * was tagged.
+   * @exception java.rmi.RemoteException Thrown if there is an RMI problem.
+   * @exception TransferExpiredException Thrown if the transfer id is
+   * too old for the Bailiff to tell whether somebody was tagged.
+   */
+  public UUID tagAnyAgent (UUID tagger, UUID transferId)
+    throws
+      java.rmi.RemoteException,
+      TransferExpiredException;
+
+  /**
+   * Returns the names, flags and arrival times of all agents in the
+   * Bailiff in one call.
+   * @param knownEpoch The epoch of the snapshot the caller already holds,
+   * or -1 if it holds none.
+   * @return A snapshot of the agents, or null if the caller's snapshot is
+   * still current.
+   * @exception java.rmi.RemoteException Thrown if there is an RMI problem.
+   */
+  public AgentSnapshot getAgentSnapshot (long knownEpoch)
+    throws
+      java.rmi.RemoteException;
+
+  /**
+   * Returns the current load of the Bailiff: resident agents, threads
+   * executing agents, and the recent rate of arrivals. The same figures
+   * are published, at a coarser pace, as a BailiffLoad attribute.
+   * @exception java.rmi.RemoteException Thrown if there is an RMI problem.
+   */
+  public BailiffLoad getLoad ()
+    throws
+      java.rmi.RemoteException;
+
+  /**
+   * Returns the Bailiff's metrics: counters of admissions, migrations and
+   * tags, gauges of its current state and, if it measures them, latency
+   * histograms of migration, admission, agent run time and the methods of
+   * this interface.
+   * @exception java.rmi.RemoteException Thrown if there is an RMI problem.
+   */
+  public dsv.pis.gotag.util.Metrics.Snapshot getMetrics ()
+    throws
+      java.rmi.RemoteException;
+
 }
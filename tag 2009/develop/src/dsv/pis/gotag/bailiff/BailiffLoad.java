@@ -0,0 +1,79 @@
+// BailiffLoad.java
+// The load of a Bailiff, as a Jini service attribute.
+
+package dsv.pis.gotag.bailiff;
+
+import net.jini.entry.*;
+
+/**
+ * A BailiffLoad describes how busy a Bailiff is. The Bailiff registers
+ * one as an attribute with the Jini lookup servers and replaces it as
+ * its load changes, so agents can read the load of every Bailiff from
+ * their directory without calling the Bailiffs. The same figures are
+ * also returned by BailiffInterface.getLoad().
+ * <p>
+ * As required of Jini entries, the fields are public and of object
+ * types, and a null field matches anything in a template.
+ */
+public class BailiffLoad extends AbstractEntry {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The number of agents resident in the Bailiff.
+   */
+  public Integer agents;
+
+  /**
+   * The number of threads executing agents.
+   */
+  public Integer threads;
+
+  /**
+   * The recent rate of arriving agents, per second.
+   */
+  public Float migrationRate;
+
+  /**
+   * Creates a new instance with all fields null, for use as a template.
+   */
+  public BailiffLoad () {}
+
+  /**
+   * Creates a new instance with specified values.
+   * @param agents The number of resident agents.
+   * @param threads The number of threads executing agents.
+   * @param migrationRate The recent arrival rate, per second.
+   */
+  public BailiffLoad (int agents, int threads, float migrationRate) {
+    this.agents = Integer.valueOf (agents);
+    this.threads = Integer.valueOf (threads);
+    this.migrationRate = Float.valueOf (migrationRate);
+  }
+
+  /**
+   * Returns the number of agents or threads, whichever is higher, or zero
+   * if unknown.
+   */
+  public int getOccupancy () {
+    int a = (agents != null) ? agents.intValue () : 0;
+    int t = (threads != null) ? threads.intValue () : 0;
+    return Math.max (a, t);
+  }
+
+  /**
+   * Returns the first BailiffLoad among a service's attributes.
+   * @param attributeSets The attributes of a service item.
+   * @return The load, or null if the service does not publish one.
+   */
+  public static BailiffLoad find (net.jini.core.entry.Entry [] attributeSets) {
+    if (attributeSets != null) {
+      for (int i = 0; i < attributeSets.length; i++) {
+	if (attributeSets[i] instanceof BailiffLoad) {
+	  return (BailiffLoad) attributeSets[i];
+	}
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,204 @@
+// BailiffSelector.java
+// Chooses which Bailiff an agent should migrate to next.
+
+package dsv.pis.gotag.bailiff;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.jini.core.lookup.*;
+
+/**
+ * The BailiffSelector keeps liveness and latency statistics for the
+ * Bailiffs agents have talked to: when the last call succeeded, an
+ * exponentially weighted moving average of the round-trip time, and the
+ * number of failures since the last success. Agents report the outcome
+ * of their pings and migrations, and the selector uses the statistics to
+ * prefer fast and healthy Bailiffs, and to tell whether a Bailiff needs
+ * to be pinged at all before the next attempt.
+ * <p>
+ * The load a Bailiff publishes as a BailiffLoad attribute is part of its
+ * cost as well. The placement strategies are:
+ * <pre>
+ *   random     uniform choice, as the original Dexter
+ *   weighted   random choice weighted by the inverse cost (default)
+ *   p2c        power of two choices: draw two candidates at random and
+ *              take the cheaper one
+ * </pre>
+ * <p>
+ * A Bailiff keeps one selector for all its resident agents, so what one
+ * agent learns is used by the next.
+ */
+public class BailiffSelector {
+
+  public static final String RANDOM   = "random";
+  public static final String WEIGHTED = "weighted";
+  public static final String P2C      = "p2c";
+
+  /**
+   * How long a success keeps a Bailiff from needing a probe.
+   */
+  public static final long STALE_MS = 30000;
+
+  /**
+   * The weight of the newest sample in the round-trip average.
+   */
+  protected static final double ALPHA = 0.2;
+
+  /**
+   * The round-trip time assumed for a Bailiff we have no samples of.
+   * Unknown Bailiffs thereby look attractive and get explored.
+   */
+  protected static final double UNKNOWN_RTT_NS = 100000.0;
+
+  /**
+   * The statistics of one Bailiff.
+   */
+  protected static class Health {
+    long lastSuccess = 0;
+    long lastFailure = 0;
+    double rtt = -1.0;		// Average round-trip in ns, -1 if unknown
+    int failures = 0;		// Failures since the last success
+  }
+
+  protected final ConcurrentMap<ServiceID, Health> health =
+    new ConcurrentHashMap<ServiceID, Health> ();
+
+  protected Health healthOf (ServiceID id) {
+    Health h = health.get (id);
+    if (h == null) {
+      Health fresh = new Health ();
+      h = health.putIfAbsent (id, fresh);
+      if (h == null) {
+	h = fresh;
+      }
+    }
+    return h;
+  }
+
+  /**
+   * Records a successful call to a Bailiff.
+   * @param id The Bailiff's service ID.
+   * @param rttNanos The round-trip time of the call in nanoseconds.
+   */
+  public void recordSuccess (ServiceID id, long rttNanos) {
+    if (id == null) {
+      return;
+    }
+    Health h = healthOf (id);
+    synchronized (h) {
+      h.lastSuccess = System.currentTimeMillis ();
+      h.failures = 0;
+      h.rtt = (h.rtt < 0) ? rttNanos : h.rtt + ALPHA * (rttNanos - h.rtt);
+    }
+  }
+
+  /**
+   * Records a failed call to a Bailiff.
+   * @param id The Bailiff's service ID.
+   */
+  public void recordFailure (ServiceID id) {
+    if (id == null) {
+      return;
+    }
+    Health h = healthOf (id);
+    synchronized (h) {
+      h.lastFailure = System.currentTimeMillis ();
+      h.failures += 1;
+    }
+  }
+
+  /**
+   * Returns true if nothing recent is known about the Bailiff, so that it
+   * should be pinged before an agent tries to migrate to it.
+   * @param id The Bailiff's service ID.
+   */
+  public boolean needsProbe (ServiceID id) {
+    Health h = (id != null) ? health.get (id) : null;
+    if (h == null) {
+      return true;
+    }
+    synchronized (h) {
+      return h.failures > 0
+	|| System.currentTimeMillis () - h.lastSuccess > STALE_MS;
+    }
+  }
+
+  /**
+   * Returns true if the strategy name is one the selector knows.
+   */
+  public static boolean isStrategy (String s) {
+    return RANDOM.equals (s) || WEIGHTED.equals (s) || P2C.equals (s);
+  }
+
+  /**
+   * Returns the expected cost of migrating to a Bailiff: its round-trip
+   * time, raised quadratically by failures and linearly by the number of
+   * agents or threads it reports.
+   */
+  protected double costOf (ServiceItem item) {
+    BailiffLoad load = BailiffLoad.find (item.attributeSets);
+    double crowd = 1.0 + ((load != null) ? load.getOccupancy () : 0);
+    Health h = (item.serviceID != null) ? health.get (item.serviceID) : null;
+    if (h == null) {
+      return UNKNOWN_RTT_NS * crowd;
+    }
+    synchronized (h) {
+      double rtt = (h.rtt < 0) ? UNKNOWN_RTT_NS : Math.max (h.rtt, 1.0);
+      double penalty = 1.0 + h.failures;
+      return rtt * penalty * penalty * crowd;
+    }
+  }
+
+  /**
+   * Selects one of the candidate Bailiffs with the weighted strategy.
+   * @param items The candidates.
+   * @param n The number of candidates, taken from the start of items.
+   * @param rnd The source of randomness.
+   * @return The index of the selected candidate.
+   */
+  public int select (ServiceItem [] items, int n, Random rnd) {
+    return select (items, n, rnd, WEIGHTED);
+  }
+
+  /**
+   * Selects one of the candidate Bailiffs.
+   * @param items The candidates.
+   * @param n The number of candidates, taken from the start of items.
+   * @param rnd The source of randomness.
+   * @param strategy The placement strategy; unknown names are taken as
+   * weighted.
+   * @return The index of the selected candidate.
+   */
+  public int select (ServiceItem [] items, int n, Random rnd,
+		     String strategy) {
+    if (n <= 1) {
+      return 0;
+    }
+    if (RANDOM.equals (strategy)) {
+      return rnd.nextInt (n);
+    }
+    if (P2C.equals (strategy)) {
+      int a = rnd.nextInt (n);
+      int b = rnd.nextInt (n - 1);
+      if (a <= b) {
+	b += 1;
+      }
+      return (costOf (items[b]) < costOf (items[a])) ? b : a;
+    }
+    double [] weights = new double [n];
+    double total = 0.0;
+    for (int i = 0; i < n; i++) {
+      weights[i] = 1.0 / costOf (items[i]);
+      total += weights[i];
+    }
+    double r = rnd.nextDouble () * total;
+    for (int i = 0; i < n; i++) {
+      r -= weights[i];
+      if (r < 0.0) {
+	return i;
+      }
+    }
+    return n - 1;
+  }
+}
@@ -0,0 +1,584 @@
+// BailiffSimulation.java
+// Several Bailiffs and their agents in one JVM, without Jini or RMI.
+
+package dsv.pis.gotag.bailiff;
+
+import java.rmi.MarshalledObject;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import dsv.pis.gotag.dexter.Dexter;
+import dsv.pis.gotag.util.*;
+
+/**
+ * The BailiffSimulation runs a number of Bailiffs and a population of
+ * Dexters in one JVM, for load testing without httpd, rmid, reggie and a
+ * JVM per Bailiff. The Bailiffs are listed in a StaticDirectory instead
+ * of the Jini lookup service, and the agents call them directly instead
+ * of through RMI. The agents are the real Dexter, without a face.
+ * <p>
+ * A direct call would hand the Bailiff the very object the agent is, so
+ * the Bailiffs are listed behind a ByValue proxy that copies the agent
+ * on migrate, as RMI does. The copy also keeps a registry of where each
+ * agent lives now, which the simulation uses to tag and to count.
+ * <p>
+ * The workload is the number of agents, the rate at which each of them
+ * hops, and an extra rate of tag transfers that the simulation makes the
+ * holder of the tag carry out, on top of those Dexter makes as he hops.
+ * At the end the simulation freezes: an agent that migrates is copied
+ * but not started, so one by one the agents leave the Bailiffs and are
+ * held. When all are held, and so no transfer can be under way, the
+ * simulation checks that exactly one of them is 'it'. Holding the copies
+ * instead of the migrating threads lets bounded engines drain.
+ */
+public class BailiffSimulation {
+
+  /**
+   * Where an agent lives: the latest copy of it and its Bailiff.
+   */
+  static final class Residence {
+    final Dexter agent;
+    final Bailiff bailiff;
+
+    Residence (Dexter agent, Bailiff bailiff) {
+      this.agent = agent;
+      this.bailiff = bailiff;
+    }
+  }
+
+  /**
+   * Stands in for the RMI stub of a Bailiff. Every call goes directly to
+   * the Bailiff, except that migrate passes a copy of the agent.
+   */
+  class ByValue implements BailiffInterface {
+
+    protected final Bailiff bailiff;
+
+    ByValue (Bailiff bailiff) {
+      this.bailiff = bailiff;
+    }
+
+    public String ping () throws RemoteException {
+      return bailiff.ping ();
+    }
+
+    public String getProperty (String key) throws RemoteException {
+      return bailiff.getProperty (key);
+    }
+
+    public void migrate (Dexter obj, String cb, Object [] args)
+      throws
+	RemoteException,
+	NoSuchMethodException,
+	BailiffFullException
+    {
+      migrate (obj, cb, args, Transfers.newId ());
+    }
+
+    public void migrate (Dexter obj, String cb, Object [] args,
+			 UUID migrationId)
+      throws
+	RemoteException,
+	NoSuchMethodException,
+	BailiffFullException
+    {
+      Dexter copy;
+      try {
+	copy = new MarshalledObject<Dexter> (obj).get ();
+      }
+      catch (java.io.IOException | ClassNotFoundException e) {
+	throw new RemoteException ("Could not copy agent", e);
+      }
+      UUID name = copy.getName ();
+      Residence here = new Residence (copy, bailiff);
+      Residence before = registry.put (name, here);
+      if (frozen) {
+	hold ();
+	return;
+      }
+      try {
+	bailiff.migrate (copy, cb, args, migrationId);
+	hops.increment ();
+      }
+      catch (RemoteException | NoSuchMethodException
+	     | BailiffFullException e) {
+	if (before != null) {
+	  registry.replace (name, here, before);
+	}
+	else {
+	  registry.remove (name, here);
+	}
+	throw e;
+      }
+    }
+
+    public boolean wasAdmitted (UUID migrationId) throws RemoteException {
+      return bailiff.wasAdmitted (migrationId);
+    }
+
+    public ArrayList<UUID> getAgentsNames () throws RemoteException {
+      return bailiff.getAgentsNames ();
+    }
+
+    public boolean isIt (UUID name) throws RemoteException {
+      return bailiff.isIt (name);
+    }
+
+    public boolean agentHasIt (UUID name) throws RemoteException {
+      return bailiff.agentHasIt (name);
+    }
+
+    public UUID tagAnyAgent (UUID tagger) throws RemoteException {
+      return bailiff.tagAnyAgent (tagger);
+    }
+
+    public UUID tagAnyAgent (UUID tagger, UUID transferId)
+      throws RemoteException, TransferExpiredException
+    {
+      return bailiff.tagAnyAgent (tagger, transferId);
+    }
+
+    public AgentSnapshot getAgentSnapshot (long knownEpoch)
+      throws RemoteException
+    {
+      return bailiff.getAgentSnapshot (knownEpoch);
+    }
+
+    public BailiffLoad getLoad () throws RemoteException {
+      return bailiff.getLoad ();
+    }
+
+    public Metrics.Snapshot getMetrics () throws RemoteException {
+      return bailiff.getMetrics ();
+    }
+  }
+
+  protected final StaticDirectory directory = new StaticDirectory ();
+  protected final List<Bailiff> bailiffs = new ArrayList<Bailiff> ();
+  protected final List<ByValue> proxies = new ArrayList<ByValue> ();
+  protected final ConcurrentMap<UUID, Residence> registry =
+    new ConcurrentHashMap<UUID, Residence> ();
+
+  protected final LongAdder hops = new LongAdder ();
+  protected final LongAdder tags = new LongAdder ();
+
+  /**
+   * How often, in milliseconds, freeze looks at the populations.
+   */
+  static final long QUIET_POLL_MS = 10;
+
+  protected volatile boolean frozen = false;
+  private final Object freezer = new Object ();
+  private int held = 0;
+
+  /**
+   * Creates the Bailiffs of a simulation.
+   * @param nofBailiffs The number of Bailiffs.
+   * @param engineSpec The AgentEngine of each Bailiff, or null for the
+   * default engine.
+   * @param maxResident The admission limit of each Bailiff, or 0 for
+   * no limit.
+   */
+  public BailiffSimulation (int nofBailiffs, String engineSpec,
+			    int maxResident)
+    throws
+      RemoteException,
+      java.net.UnknownHostException
+  {
+    for (int i = 0; i < nofBailiffs; i++) {
+      Bailiff bf = new Bailiff ("sim" + i, null,
+				AgentEngine.create (engineSpec), directory);
+      bf.setMaxResident (maxResident);
+      ByValue proxy = new ByValue (bf);
+      bailiffs.add (bf);
+      proxies.add (proxy);
+      directory.add (proxy);
+    }
+  }
+
+  /**
+   * Opens an event log for each Bailiff, named after the given file and
+   * the Bailiff's room.
+   * @param file The name the event log files start with.
+   */
+  public void openEventLogs (String file) throws java.io.IOException {
+    for (Bailiff bf : bailiffs) {
+      bf.openEventLog (new java.io.File (file + "-" + bf.room + ".evt"),
+		       EventLog.DEFAULT_SEGMENT);
+    }
+  }
+
+  /**
+   * Turns on the measuring of latencies in every Bailiff.
+   */
+  public void setTiming (boolean on) {
+    for (Bailiff bf : bailiffs) {
+      bf.setTiming (on);
+    }
+  }
+
+  /**
+   * Prints the metrics of every Bailiff.
+   */
+  public void printMetrics (java.io.PrintStream out) throws RemoteException {
+    java.io.PrintWriter pw = new java.io.PrintWriter (out);
+    for (Bailiff bf : bailiffs) {
+      pw.println ("Metrics of " + bf.room + ":");
+      bf.getMetrics ().write (pw);
+    }
+    pw.flush ();
+  }
+
+  /**
+   * Launches agents into randomly chosen Bailiffs. The first agent ever
+   * launched is 'it'.
+   * @param count The number of agents.
+   * @param pacing The pacing of the agents.
+   */
+  public void launch (int count, Pacing pacing) throws Exception {
+    Random rnd = new Random ();
+    for (int i = 0; i < count; i++) {
+      Dexter dx = new Dexter (false, true, UUID.randomUUID (), pacing);
+      boolean first = registry.isEmpty () && i == 0;
+      if (first) {
+	dx.getTagState ().grant ();
+      }
+      proxies.get (rnd.nextInt (proxies.size ()))
+	.migrate (dx, "topLevel", new Object [] {Boolean.valueOf (first)});
+    }
+  }
+
+  /**
+   * Makes the agent that is 'it' give the tag to another agent in its
+   * Bailiff, as Dexter does before he hops.
+   * @return True if somebody was tagged.
+   */
+  public boolean tagOnce () throws RemoteException {
+    for (Map.Entry<UUID, Residence> e : registry.entrySet ()) {
+      Residence r = e.getValue ();
+      TagState tag = r.agent.getTagState ();
+      if (tag.prepareGive ()) {
+	UUID got = null;
+	try {
+	  got = r.bailiff.tagAnyAgent (e.getKey ());
+	}
+	finally {
+	  if (got != null) {
+	    tag.commitGive ();
+	    tags.increment ();
+	  }
+	  else {
+	    tag.abortGive ();
+	  }
+	}
+	return got != null;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Holds every agent at its next migration, and waits until all of them
+   * are held and have left their Bailiffs. A held agent is counted before
+   * its entry point returns, and only leaves the population of its
+   * Bailiff after that, so the populations are polled until they are all
+   * zero.
+   * @param timeout The longest time to wait, in milliseconds.
+   * @return True if all agents were held, and gone, in time.
+   */
+  public boolean freeze (long timeout) throws InterruptedException {
+    frozen = true;
+    long deadline = System.currentTimeMillis () + timeout;
+    synchronized (freezer) {
+      while (held < registry.size ()) {
+	long left = deadline - System.currentTimeMillis ();
+	if (left <= 0) {
+	  return false;
+	}
+	freezer.wait (left);
+      }
+    }
+    while (0 < countResident ()) {
+      if (deadline <= System.currentTimeMillis ()) {
+	return false;
+      }
+      Thread.sleep (QUIET_POLL_MS);
+    }
+    return true;
+  }
+
+  /**
+   * Counts an agent that arrived while the simulation is frozen.
+   */
+  protected void hold () {
+    synchronized (freezer) {
+      held += 1;
+      freezer.notifyAll ();
+    }
+  }
+
+  /**
+   * Returns the number of agents held by the freeze.
+   */
+  public int getHeldCount () {
+    synchronized (freezer) {
+      return held;
+    }
+  }
+
+  /**
+   * Returns the number of agents that are 'it'.
+   */
+  public int countIt () {
+    int n = 0;
+    for (Residence r : registry.values ()) {
+      if (r.agent.isIt ()) {
+	n += 1;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Returns the number of agents resident in the Bailiffs, including
+   * those on their way out and those waiting for a thread.
+   */
+  public int countResident () {
+    int n = 0;
+    for (Bailiff bf : bailiffs) {
+      n += bf.population.get ();
+    }
+    return n;
+  }
+
+  /**
+   * Returns the number of agents launched.
+   */
+  public int getAgentCount () {
+    return registry.size ();
+  }
+
+  /**
+   * Returns the number of completed migrations, launches included.
+   */
+  public long getHopCount () {
+    return hops.sum ();
+  }
+
+  /**
+   * Returns the number of tag transfers the Bailiffs have carried out.
+   */
+  public long getTransferCount () {
+    long n = 0;
+    for (Bailiff bf : bailiffs) {
+      n += bf.getTransferCount ();
+    }
+    return n;
+  }
+
+  /**
+   * Returns the number of tags made by tagOnce.
+   */
+  public long getTagCount () {
+    return tags.sum ();
+  }
+
+  public void shutdown () {
+    for (Bailiff bf : bailiffs) {
+      bf.shutdown ();
+    }
+  }
+
+  public static void main (String [] argv) throws Exception {
+    CmdlnOption helpOption = new CmdlnOption ("-help");
+    CmdlnOption bailiffsOption = new CmdlnOption ("-bailiffs",
+						  CmdlnOption.OPTIONAL |
+						  CmdlnOption.PAR_REQ);
+    CmdlnOption agentsOption = new CmdlnOption ("-agents",
+						CmdlnOption.OPTIONAL |
+						CmdlnOption.PAR_REQ);
+    CmdlnOption hopRateOption = new CmdlnOption ("-hoprate",
+						 CmdlnOption.OPTIONAL |
+						 CmdlnOption.PAR_REQ);
+    CmdlnOption tagRateOption = new CmdlnOption ("-tagrate",
+						 CmdlnOption.OPTIONAL |
+						 CmdlnOption.PAR_REQ);
+    CmdlnOption durationOption = new CmdlnOption ("-duration",
+						  CmdlnOption.OPTIONAL |
+						  CmdlnOption.PAR_REQ);
+    CmdlnOption reportOption = new CmdlnOption ("-report",
+						CmdlnOption.OPTIONAL |
+						CmdlnOption.PAR_REQ);
+    CmdlnOption engineOption = new CmdlnOption ("-engine",
+						CmdlnOption.OPTIONAL |
+						CmdlnOption.PAR_REQ);
+    CmdlnOption maxAgentsOption = new CmdlnOption ("-maxagents",
+						   CmdlnOption.OPTIONAL |
+						   CmdlnOption.PAR_REQ);
+    CmdlnOption eventsOption = new CmdlnOption ("-events",
+						CmdlnOption.OPTIONAL |
+						CmdlnOption.PAR_REQ);
+    CmdlnOption metricsOption = new CmdlnOption ("-metrics");
+
+    CmdlnOption [] opts =
+      new CmdlnOption [] {helpOption, bailiffsOption, agentsOption,
+			  hopRateOption, tagRateOption, durationOption,
+			  reportOption, engineOption, maxAgentsOption,
+			  eventsOption, metricsOption};
+
+    String [] restArgs = Commandline.parseArgs (System.out, argv, opts);
+    if (restArgs == null) {
+      System.exit (1);
+    }
+
+    if (helpOption.getIsSet ()) {
+      System.out.println ("Usage: [-help]|[-bailiffs n][-agents n]"
+			  + "[-hoprate r][-tagrate r][-duration s]"
+			  + "[-report s][-engine spec][-maxagents n]"
+			  + "[-events file][-metrics]");
+      System.out.println ("where -bailiffs is the number of Bailiffs "
+			  + "(default 4).");
+      System.out.println ("      -agents is the number of Dexters "
+			  + "(default 100).");
+      System.out.println ("      -hoprate is the hops per second of each "
+			  + "agent; 0 means");
+      System.out.println ("        as fast as possible (default 1).");
+      System.out.println ("      -tagrate is the extra tag transfers per "
+			  + "second (default 0).");
+      System.out.println ("      -duration is the length of the run in "
+			  + "seconds (default 30).");
+      System.out.println ("      -report is the seconds between reports "
+			  + "(default 5).");
+      System.out.println ("      -engine is the AgentEngine of each "
+			  + "Bailiff (see Bailiff -help).");
+      System.out.println ("      -maxagents is the admission limit of "
+			  + "each Bailiff.");
+      System.out.println ("      -events keeps an event log per Bailiff, "
+			  + "in file-room.evt.");
+      System.out.println ("      -metrics measures latencies and prints "
+			  + "the metrics of each Bailiff.");
+      System.exit (0);
+    }
+
+    int nofBailiffs = bailiffsOption.getIsSet ()
+      ? Integer.parseInt (bailiffsOption.getValue ()) : 4;
+    int nofAgents = agentsOption.getIsSet ()
+      ? Integer.parseInt (agentsOption.getValue ()) : 100;
+    double hopRate = hopRateOption.getIsSet ()
+      ? Double.parseDouble (hopRateOption.getValue ()) : 1.0;
+    double tagRate = tagRateOption.getIsSet ()
+      ? Double.parseDouble (tagRateOption.getValue ()) : 0.0;
+    long duration = durationOption.getIsSet ()
+      ? Long.parseLong (durationOption.getValue ()) : 30;
+    long report = reportOption.getIsSet ()
+      ? Long.parseLong (reportOption.getValue ()) : 5;
+    String engineSpec = engineOption.getIsSet ()
+      ? engineOption.getValue () : null;
+    int maxAgents = maxAgentsOption.getIsSet ()
+      ? Integer.parseInt (maxAgentsOption.getValue ()) : 0;
+
+    if (nofBailiffs < 1 || nofAgents < 1 || hopRate < 0.0
+	|| tagRate < 0.0 || duration < 1 || report < 1) {
+      System.out.println ("Bad workload, see -help.");
+      System.exit (1);
+    }
+
+    long hopMs = (hopRate == 0.0) ? 0 : Math.round (1000.0 / hopRate);
+    Pacing pacing = (hopMs == 0)
+      ? Pacing.parse (Pacing.NONE) : Pacing.fixed (hopMs, hopMs);
+
+    final BailiffSimulation sim =
+      new BailiffSimulation (nofBailiffs, engineSpec, maxAgents);
+    if (eventsOption.getIsSet ()) {
+      sim.openEventLogs (eventsOption.getValue ());
+    }
+    sim.setTiming (metricsOption.getIsSet ());
+
+    System.out.println ("Simulating " + nofAgents + " agents in "
+			+ nofBailiffs + " Bailiffs, pacing " + pacing
+			+ ", " + tagRate + " extra tags/s, for "
+			+ duration + " s.");
+
+    long t0 = System.nanoTime ();
+    sim.launch (nofAgents, pacing);
+    System.out.println ("Launched in "
+			+ (System.nanoTime () - t0) / 1000000 + " ms.");
+
+    Thread tagger = null;
+    if (0.0 < tagRate) {
+      final long periodNs = (long) (1e9 / tagRate);
+      tagger = new Thread ("simulation-tagger") {
+	  public void run () {
+	    long next = System.nanoTime ();
+	    while (!sim.frozen) {
+	      try {
+		sim.tagOnce ();
+	      }
+	      catch (RemoteException e) {}
+	      next += periodNs;
+	      long sleep = next - System.nanoTime ();
+	      if (0 < sleep) {
+		LockSupport.parkNanos (sleep);
+	      }
+	    }
+	  }
+	};
+      tagger.setDaemon (true);
+      tagger.start ();
+    }
+
+    long start = System.nanoTime ();
+    long startHops = sim.getHopCount ();
+    long lastHops = startHops;
+    long lastTransfers = sim.getTransferCount ();
+    long last = start;
+    long end = start + duration * 1000000000L;
+    while (System.nanoTime () < end) {
+      Thread.sleep (Math.min (report * 1000L,
+			      Math.max (1L, (end - System.nanoTime ())
+					/ 1000000L)));
+      long now = System.nanoTime ();
+      long h = sim.getHopCount ();
+      long x = sim.getTransferCount ();
+      double secs = (now - last) / 1e9;
+      System.out.println (String.format
+			  (Locale.ROOT,
+			   "%6.1f s  %10.1f hops/s  %9.1f transfers/s"
+			   + "  %6d resident  %d it",
+			   (now - start) / 1e9, (h - lastHops) / secs,
+			   (x - lastTransfers) / secs, sim.countResident (),
+			   sim.countIt ()));
+      lastHops = h;
+      lastTransfers = x;
+      last = now;
+    }
+    double total = (System.nanoTime () - start) / 1e9;
+    long totalHops = sim.getHopCount () - startHops;
+
+    boolean quiet = sim.freeze (10000L + 2 * hopMs);
+    if (tagger != null) {
+      tagger.join ();
+    }
+    int its = sim.countIt ();
+    int resident = sim.countResident ();
+
+    System.out.println (String.format
+			(Locale.ROOT,
+			 "%d hops (%.1f/s), %d transfers, %d extra tags.",
+			 totalHops, totalHops / total,
+			 sim.getTransferCount (), sim.getTagCount ()));
+    int held = sim.getHeldCount ();
+    boolean ok = quiet && its == 1 && held == nofAgents && resident == 0;
+    System.out.println ((ok ? "OK" : "FAILED") + ": " + its
+			+ " agents are it, " + held + " of " + nofAgents
+			+ " are held, " + resident + " are still resident.");
+    if (metricsOption.getIsSet ()) {
+      sim.printMetrics (System.out);
+    }
+    sim.shutdown ();
+    System.exit (ok ? 0 : 1);
+  }
+}
@@ -0,0 +1,180 @@
+// EntryPointCache.java
+// Resolved agent entry points, kept between migrations.
+
+package dsv.pis.gotag.bailiff;
+
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The EntryPointCache remembers, for each combination of agent class,
+ * entry method name and argument signature, the method handle that
+ * invokes the entry point and the handle that reads the agent's name.
+ * Once an agent class has visited the Bailiff, later arrivals of the
+ * same class are started without any reflective lookup.
+ * <p>
+ * Agent classes arrive through codebase classloaders. When a class from
+ * a classloader we have not seen before shows up, the cache is emptied
+ * so that handles into classes of earlier codebases are not kept alive.
+ */
+class EntryPointCache {
+
+  /**
+   * The name of the field that holds an agent's name.
+   */
+  static final String NAME_FIELD = "name";
+
+  private static final Class<?> [] NO_PARMS = new Class<?> [0];
+
+  /**
+   * The resolved entry point of one agent class.
+   */
+  static final class EntryPoint {
+
+    /**
+     * Invokes the entry point. Its type is (Object, Object[])Object.
+     */
+    final MethodHandle invoker;
+
+    /**
+     * Reads the agent's name field, or null if the class has none. Its
+     * type is (Object)Object.
+     */
+    final MethodHandle nameGetter;
+
+    EntryPoint (MethodHandle invoker, MethodHandle nameGetter) {
+      this.invoker = invoker;
+      this.nameGetter = nameGetter;
+    }
+
+    /**
+     * Invokes the entry point on the agent.
+     */
+    void invoke (Object obj, Object [] args) throws Throwable {
+      Object ignored = (Object) invoker.invokeExact (obj, args);
+    }
+
+    /**
+     * Returns the agent's name, or null if it does not have one.
+     */
+    UUID nameOf (Object obj) {
+      if (nameGetter == null) {
+	return null;
+      }
+      try {
+	return (UUID) (Object) nameGetter.invokeExact (obj);
+      }
+      catch (Throwable t) {
+	return null;
+      }
+    }
+  }
+
+  /**
+   * The cache key: agent class, entry method name and parameter classes.
+   */
+  private static final class Key {
+    final Class<?> cls;
+    final String cb;
+    final Class<?> [] parms;
+    final int hash;
+
+    Key (Class<?> cls, String cb, Class<?> [] parms) {
+      this.cls = cls;
+      this.cb = cb;
+      this.parms = parms;
+      hash = (cls.hashCode () * 31 + cb.hashCode ()) * 31
+	+ Arrays.hashCode (parms);
+    }
+
+    public int hashCode () {
+      return hash;
+    }
+
+    public boolean equals (Object o) {
+      if (!(o instanceof Key)) {
+	return false;
+      }
+      Key k = (Key) o;
+      return cls == k.cls && cb.equals (k.cb) && Arrays.equals (parms, k.parms);
+    }
+  }
+
+  private final ConcurrentMap<Key, EntryPoint> entries =
+    new ConcurrentHashMap<Key, EntryPoint> ();
+
+  private final Set<ClassLoader> loaders =
+    Collections.newSetFromMap (new WeakHashMap<ClassLoader, Boolean> ());
+
+  /**
+   * Returns the entry point of the given agent class, resolving it if
+   * this is the first time we see the combination.
+   * @param cls The agent class.
+   * @param cb The name of the entry method.
+   * @param parms The classes of the entry method's arguments, or null.
+   * @return The resolved entry point.
+   * @throws NoSuchMethodException Thrown if the class has no public entry
+   * method with that name and signature.
+   */
+  EntryPoint resolve (Class<?> cls, String cb, Class<?> [] parms)
+    throws NoSuchMethodException
+  {
+    Key key = new Key (cls, cb, (parms == null) ? NO_PARMS : parms);
+    EntryPoint ep = entries.get (key);
+    if (ep == null) {
+      noteLoader (cls.getClassLoader ());
+      ep = lookup (key);
+      entries.put (key, ep);
+    }
+    return ep;
+  }
+
+  /**
+   * Empties the cache if the classloader has not been seen before.
+   */
+  private void noteLoader (ClassLoader cl) {
+    synchronized (loaders) {
+      if (loaders.add (cl)) {
+	entries.clear ();
+      }
+    }
+  }
+
+  /**
+   * Performs the reflective lookups for a key.
+   */
+  private static EntryPoint lookup (Key key) throws NoSuchMethodException {
+    MethodHandles.Lookup lookup = MethodHandles.lookup ();
+
+    Method m = key.cls.getMethod (key.cb, key.parms);
+    MethodHandle invoker;
+    try {
+      m.setAccessible (true);
+      invoker = lookup.unreflect (m)
+	.asType (MethodType.genericMethodType (1 + key.parms.length))
+	.asSpreader (Object [].class, key.parms.length);
+    }
+    catch (IllegalAccessException e) {
+      throw new NoSuchMethodException (key.cb + ": " + e.getMessage ());
+    }
+
+    // The name field may be declared by a superclass, as when an agent
+    // extends Dexter.
+    MethodHandle nameGetter = null;
+    for (Class<?> c = key.cls; c != null && nameGetter == null;
+	 c = c.getSuperclass ()) {
+      try {
+	Field f = c.getDeclaredField (NAME_FIELD);
+	f.setAccessible (true);
+	nameGetter = lookup.unreflectGetter (f)
+	  .asType (MethodType.methodType (Object.class, Object.class));
+      }
+      catch (NoSuchFieldException e) {}
+      catch (IllegalAccessException e) {}
+    }
+
+    return new EntryPoint (invoker, nameGetter);
+  }
+}
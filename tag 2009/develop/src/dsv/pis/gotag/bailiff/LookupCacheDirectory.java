@@ -0,0 +1,96 @@
+// LookupCacheDirectory.java
+// A BailiffDirectory kept up to date by a Jini LookupCache.
+
+package dsv.pis.gotag.bailiff;
+
+import java.io.*;
+
+import net.jini.core.lookup.*;
+import net.jini.discovery.*;
+import net.jini.lookup.*;
+
+/**
+ * This directory holds a Jini LookupCache of all services implementing
+ * BailiffInterface. The cache is filled and maintained by the service
+ * discovery manager in the background, so lookups are answered from
+ * local memory. The cache's events for Bailiffs that appear or disappear
+ * advance the version of the directory and wake up anyone waiting for a
+ * change.
+ */
+public class LookupCacheDirectory
+  extends
+    AbstractBailiffDirectory
+  implements
+    ServiceDiscoveryListener
+{
+  protected ServiceDiscoveryManager sdm;
+  protected LookupCache cache;
+
+  /**
+   * Creates a new directory of all Bailiffs and starts filling its cache.
+   * @param dm The discovery manager to use for finding lookup servers,
+   * or null to let the service discovery manager create its own.
+   * @throws IOException Thrown if discovery could not be started.
+   */
+  public LookupCacheDirectory (DiscoveryManagement dm)
+    throws
+      java.io.IOException
+  {
+    this (dm, new ServiceTemplate (null,
+				   new Class<?> [] {BailiffInterface.class},
+				   null));
+  }
+
+  /**
+   * Creates a new directory of the Bailiffs matching a template and
+   * starts filling its cache.
+   * @param dm The discovery manager to use for finding lookup servers,
+   * or null to let the service discovery manager create its own.
+   * @param template The template Bailiffs must match.
+   * @throws IOException Thrown if discovery could not be started.
+   */
+  public LookupCacheDirectory (DiscoveryManagement dm,
+			       ServiceTemplate template)
+    throws
+      java.io.IOException
+  {
+    sdm = new ServiceDiscoveryManager (dm, null);
+    try {
+      cache = sdm.createLookupCache (template, null, this);
+    }
+    catch (java.rmi.RemoteException e) {
+      sdm.terminate ();
+      throw e;
+    }
+  }
+
+  public ServiceItem [] lookup (ServiceItemFilter filter, int maxMatches) {
+    return cache.lookup (filter, maxMatches);
+  }
+
+  // In ServiceDiscoveryListener:
+
+  public void serviceAdded (ServiceDiscoveryEvent e) {
+    changed ();
+  }
+
+  public void serviceRemoved (ServiceDiscoveryEvent e) {
+    changed ();
+  }
+
+  /**
+   * A Bailiff whose attributes changed, as its load does every few
+   * seconds, is still the same Bailiff; waking everyone who waits for
+   * new Bailiffs would only make them look again for nothing.
+   */
+  public void serviceChanged (ServiceDiscoveryEvent e) {
+  }
+
+  /**
+   * Stops maintaining the cache.
+   */
+  public void terminate () {
+    cache.terminate ();
+    sdm.terminate ();
+  }
+}
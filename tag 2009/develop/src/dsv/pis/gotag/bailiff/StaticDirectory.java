@@ -0,0 +1,80 @@
+// StaticDirectory.java
+// A BailiffDirectory of Bailiffs in this JVM, without Jini.
+
+package dsv.pis.gotag.bailiff;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+import net.jini.core.lookup.*;
+import net.jini.lookup.*;
+
+/**
+ * A StaticDirectory stands in for the Jini lookup service when several
+ * Bailiffs run in one JVM, as in the simulation and the benchmarks. The
+ * Bailiffs are added to it explicitly, and since the service objects are
+ * the Bailiffs themselves, an agent that looks one up calls it directly
+ * instead of through RMI.
+ */
+public class StaticDirectory extends AbstractBailiffDirectory {
+
+  protected ServiceItem [] items = new ServiceItem [0];
+
+  /**
+   * Adds a Bailiff to the directory.
+   * @param bailiff The Bailiff.
+   * @return The service item under which it is listed.
+   */
+  public synchronized ServiceItem add (BailiffInterface bailiff) {
+    ThreadLocalRandom rnd = ThreadLocalRandom.current ();
+    ServiceItem item =
+      new ServiceItem (new ServiceID (rnd.nextLong (), rnd.nextLong ()),
+		       bailiff, new net.jini.core.entry.Entry [0]);
+    ServiceItem [] grown = Arrays.copyOf (items, items.length + 1);
+    grown[items.length] = item;
+    items = grown;
+    changed ();
+    return item;
+  }
+
+  /**
+   * Removes a Bailiff from the directory.
+   * @param bailiff The Bailiff.
+   */
+  public synchronized void remove (BailiffInterface bailiff) {
+    List<ServiceItem> kept = new ArrayList<ServiceItem> ();
+    for (ServiceItem item : items) {
+      if (item.service != bailiff) {
+	kept.add (item);
+      }
+    }
+    items = kept.toArray (new ServiceItem [kept.size ()]);
+    changed ();
+  }
+
+  /**
+   * Returns a random selection of at most maxMatches of the Bailiffs,
+   * in a new array the caller may change.
+   */
+  public ServiceItem [] lookup (ServiceItemFilter filter, int maxMatches) {
+    ServiceItem [] all;
+    synchronized (this) {
+      all = items;
+    }
+    List<ServiceItem> matches = new ArrayList<ServiceItem> (all.length);
+    for (ServiceItem item : all) {
+      if (filter == null || filter.check (item)) {
+	matches.add (item);
+      }
+    }
+    int n = Math.min (Math.max (maxMatches, 0), matches.size ());
+    ThreadLocalRandom rnd = ThreadLocalRandom.current ();
+    ServiceItem [] result = new ServiceItem [n];
+    for (int i = 0; i < n; i++) {
+      int j = i + rnd.nextInt (matches.size () - i);
+      result[i] = matches.get (j);
+      matches.set (j, matches.get (i));
+    }
+    return result;
+  }
+}
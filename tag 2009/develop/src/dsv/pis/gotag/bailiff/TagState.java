@@ -0,0 +1,181 @@
+// TagState.java
+// The 'it' and migration state of an agent, as one atomic word.
+
+package dsv.pis.gotag.bailiff;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A TagState holds an agent's part in the game of tag in a single atomic
+ * integer, so that every transition is one compare-and-set and no
+ * combination of flags can be observed half-changed. The bits are:
+ * <pre>
+ *   IT         the agent holds the tag
+ *   MIGRATING  the agent is on its way to another Bailiff
+ *   GIVING     the agent has prepared to hand the tag over
+ *   RECEIVING  a Bailiff has reserved the agent to receive the tag
+ * </pre>
+ * A tag transfer is two-phase. The giver prepares (IT becomes
+ * IT|GIVING) before it asks a Bailiff to tag someone, and the Bailiff
+ * prepares a receiver (idle becomes RECEIVING), then commits it
+ * (RECEIVING becomes IT). The giver then commits (clears IT|GIVING), or
+ * aborts (clears GIVING) if nobody was tagged. Only an agent in the
+ * plain IT state can give and only an idle agent can receive, so a
+ * migrating agent neither gives nor receives, and an agent that is
+ * between the phases of a transfer can not start to migrate.
+ */
+public final class TagState {
+
+  public static final int IT        = 1;
+  public static final int MIGRATING = 2;
+  public static final int GIVING    = 4;
+  public static final int RECEIVING = 8;
+
+  private final AtomicInteger state = new AtomicInteger ();
+
+  /**
+   * Returns the current bits.
+   */
+  public int get () {
+    return state.get ();
+  }
+
+  public boolean isIt () {
+    return (state.get () & IT) != 0;
+  }
+
+  public boolean isMigrating () {
+    return (state.get () & MIGRATING) != 0;
+  }
+
+  /**
+   * Sets or clears the IT bit, leaving the other bits alone. This is for
+   * an agent that learns its state on arrival, not for tagging.
+   */
+  public void set (boolean it) {
+    if (it) {
+      setBits (IT);
+    }
+    else {
+      clearBits (IT);
+    }
+  }
+
+  /**
+   * Makes an idle agent 'it' directly, outside of any transfer.
+   * @return True if the agent was idle and is now 'it'.
+   */
+  public boolean grant () {
+    return state.compareAndSet (0, IT);
+  }
+
+  /**
+   * Clears the IT bit.
+   */
+  public void release () {
+    clearBits (IT);
+  }
+
+  /**
+   * Marks the agent as migrating. If a transfer is between its phases,
+   * we wait for it to finish, which takes no longer than a call to the
+   * Bailiff.
+   */
+  public void beginMigration () {
+    for (;;) {
+      int s = state.get ();
+      if ((s & (GIVING | RECEIVING)) == 0) {
+	if (state.compareAndSet (s, s | MIGRATING)) {
+	  return;
+	}
+      }
+      else {
+	Thread.yield ();
+      }
+    }
+  }
+
+  /**
+   * Clears the MIGRATING bit, after a migration that failed.
+   */
+  public void endMigration () {
+    clearBits (MIGRATING);
+  }
+
+  /**
+   * First phase of giving the tag away.
+   * @return True if the agent was plainly 'it' and is now giving.
+   */
+  public boolean prepareGive () {
+    return state.compareAndSet (IT, IT | GIVING);
+  }
+
+  /**
+   * Second phase of giving: the tag went to someone else.
+   */
+  public void commitGive () {
+    clearBits (IT | GIVING);
+  }
+
+  /**
+   * Second phase of giving: nobody took the tag, so we keep it.
+   */
+  public void abortGive () {
+    clearBits (GIVING);
+  }
+
+  /**
+   * First phase of receiving the tag.
+   * @return True if the agent was idle and is now reserved.
+   */
+  public boolean prepareReceive () {
+    return state.compareAndSet (0, RECEIVING);
+  }
+
+  /**
+   * Second phase of receiving: the agent is now 'it'.
+   */
+  public void commitReceive () {
+    for (;;) {
+      int s = state.get ();
+      if (state.compareAndSet (s, (s & ~RECEIVING) | IT)) {
+	return;
+      }
+    }
+  }
+
+  /**
+   * Second phase of receiving: the transfer was abandoned.
+   */
+  public void abortReceive () {
+    clearBits (RECEIVING);
+  }
+
+  private void setBits (int bits) {
+    for (;;) {
+      int s = state.get ();
+      if (state.compareAndSet (s, s | bits)) {
+	return;
+      }
+    }
+  }
+
+  private void clearBits (int bits) {
+    for (;;) {
+      int s = state.get ();
+      if (state.compareAndSet (s, s & ~bits)) {
+	return;
+      }
+    }
+  }
+
+  public String toString () {
+    int s = state.get ();
+    StringBuilder sb = new StringBuilder ();
+    if ((s & IT) != 0) sb.append ("IT ");
+    if ((s & MIGRATING) != 0) sb.append ("MIGRATING ");
+    if ((s & GIVING) != 0) sb.append ("GIVING ");
+    if ((s & RECEIVING) != 0) sb.append ("RECEIVING ");
+    return (sb.length () == 0) ? "IDLE" : sb.toString ().trim ();
+  }
+}
@@ -0,0 +1,24 @@
+// TransferExpiredException.java
+// Thrown when a Bailiff can no longer tell the outcome of a transfer.
+
+package dsv.pis.gotag.bailiff;
+
+/**
+ * A TransferExpiredException is thrown by BailiffInterface.tagAnyAgent
+ * when the transfer id is too old for the Bailiff to remember whether
+ * the transfer was carried out (see TransferLog.EXPIRE_MS). The Bailiff
+ * has not carried it out now, but may have done so before; the caller
+ * must take it that somebody was tagged.
+ */
+public class TransferExpiredException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Creates a new exception.
+   * @param msg The reason the transfer was refused.
+   */
+  public TransferExpiredException (String msg) {
+    super (msg);
+  }
+}
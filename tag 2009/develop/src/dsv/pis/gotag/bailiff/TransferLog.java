@@ -0,0 +1,227 @@
+// TransferLog.java
+// The outcomes of recent tag transfers and migrations, for answering retries.
+
+package dsv.pis.gotag.bailiff;
+
+import java.util.*;
+
+/**
+ * The TransferLog remembers the outcome of the most recent tag transfers
+ * a Bailiff has carried out, by transfer id. A giver whose call to
+ * tagAnyAgent failed on the way back does not know whether somebody was
+ * tagged; it asks again with the same transfer id and is told the
+ * original outcome, so no transfer is ever carried out twice. A retry
+ * that arrives while the original call is still running waits for it.
+ * <p>
+ * Outcomes are forgotten by age only, RETAIN_MS after the transfer
+ * ended, and a transfer that is still running is never forgotten. The
+ * log is as large as the number of transfers in that time. A transfer
+ * id made by Transfers.newId tells when it was made, which bounds how
+ * long a giver may ask: an id that is not in the log and is older than
+ * EXPIRE_MS may have been forgotten, and is refused rather than carried
+ * out again. An id that is not in the log and is older than the log
+ * itself is answered with NOBODY, for whatever a Bailiff did before it
+ * was restarted is either in its journal, and so in the log, or was
+ * lost with it (see Bailiff.transfer).
+ * <p>
+ * The log itself lives in memory. A Bailiff with a journal records in
+ * it the outcomes that tagged or admitted somebody, and restores them
+ * when it is restarted.
+ * <p>
+ * A Bailiff keeps a second log of the migrations it has admitted, by
+ * migration id, where the outcome of a migration is the name of the
+ * admitted agent. The sender of an agent whose migration failed on the
+ * way back settles the migration by asking the Bailiff whether it was
+ * admitted (see settle).
+ */
+class TransferLog {
+
+  /**
+   * How long, in milliseconds, an outcome is remembered after the
+   * transfer ended.
+   */
+  static final long RETAIN_MS = 120000;
+
+  /**
+   * How old, in milliseconds, an id that is not in the log may be before
+   * it is refused. It is below RETAIN_MS by more than the clocks of two
+   * hosts may differ, so that an id is refused before it is forgotten.
+   */
+  static final long EXPIRE_MS = 60000;
+
+  /**
+   * The outcome of a transfer that tagged nobody.
+   */
+  static final UUID NOBODY = new UUID (0L, 0L);
+
+  /**
+   * The outcome of a transfer and when it ended.
+   */
+  private static final class Outcome {
+    final UUID target;
+    final long ended;
+
+    Outcome (UUID target, long ended) {
+      this.target = target;
+      this.ended = ended;
+    }
+  }
+
+  /**
+   * Marks a transfer that is still being carried out.
+   */
+  private static final Outcome RUNNING = new Outcome (null, 0L);
+
+  /**
+   * The outcomes in the order the transfers began.
+   */
+  private final LinkedHashMap<UUID, Outcome> outcomes =
+    new LinkedHashMap<UUID, Outcome> ();
+
+  /**
+   * When the log was created, which is when the Bailiff started.
+   */
+  private final long opened = System.currentTimeMillis ();
+
+  private long transfers = 0;
+  private long retries = 0;
+
+  /**
+   * Starts a transfer, unless it has been started before or is older
+   * than the log.
+   * @param id The transfer id.
+   * @return Null if the caller is to carry out the transfer, otherwise
+   * the recorded outcome: the tagged agent or NOBODY.
+   * @exception TransferExpiredException Thrown if the id is not in the
+   * log and is too old to tell whether it ever was.
+   */
+  synchronized UUID begin (UUID id) throws TransferExpiredException {
+    Outcome known;
+    while ((known = outcomes.get (id)) == RUNNING) {
+      try {
+	wait ();
+      }
+      catch (InterruptedException e) {
+	Thread.currentThread ().interrupt ();
+	return NOBODY;
+      }
+    }
+    if (known != null) {
+      retries += 1;
+      return known.target;
+    }
+    if (predates (id)) {
+      return NOBODY;
+    }
+    outcomes.put (id, RUNNING);
+    return null;
+  }
+
+  /**
+   * Records the outcome of a transfer started with begin.
+   * @param id The transfer id.
+   * @param target The tagged agent, or null if nobody was tagged.
+   */
+  synchronized void end (UUID id, UUID target) {
+    long now = System.currentTimeMillis ();
+    outcomes.put (id, new Outcome ((target != null) ? target : NOBODY, now));
+    transfers += 1;
+    forget (now - RETAIN_MS);
+    notifyAll ();
+  }
+
+  /**
+   * Returns the outcome of a transfer, waiting for it if it is still
+   * running. A transfer that is not in the log is recorded as having
+   * tagged nobody, so that if its call is yet to arrive, begin turns it
+   * down instead of carrying it out.
+   * @param id The transfer id.
+   * @return The recorded outcome: the tagged agent or NOBODY.
+   * @exception TransferExpiredException Thrown if the id is not in the
+   * log and is too old to tell whether it ever was.
+   */
+  synchronized UUID settle (UUID id)
+    throws InterruptedException, TransferExpiredException
+  {
+    Outcome known;
+    while ((known = outcomes.get (id)) == RUNNING) {
+      wait ();
+    }
+    if (known != null) {
+      return known.target;
+    }
+    if (!predates (id)) {
+      long now = System.currentTimeMillis ();
+      outcomes.put (id, new Outcome (NOBODY, now));
+      forget (now - RETAIN_MS);
+    }
+    return NOBODY;
+  }
+
+  /**
+   * Checks the age of an id that is not in the log. An id that was not
+   * made by Transfers.newId passes.
+   * @return True if the id was made before the log was created.
+   * @exception TransferExpiredException Thrown if the id is older than
+   * EXPIRE_MS.
+   */
+  private boolean predates (UUID id) throws TransferExpiredException {
+    long issued = Transfers.issuedAt (id);
+    if (issued < 0) {
+      return false;
+    }
+    if (issued < System.currentTimeMillis () - EXPIRE_MS) {
+      throw new TransferExpiredException ("Transfer " + id
+					  + " has expired");
+    }
+    return issued < opened;
+  }
+
+  /**
+   * Puts back an outcome from the Bailiff's journal. Outcomes are to be
+   * restored in the order they were recorded, before any transfer.
+   * @param id The transfer id.
+   * @param target The tagged agent.
+   * @param ended When the transfer ended.
+   */
+  synchronized void restore (UUID id, UUID target, long ended) {
+    outcomes.put (id, new Outcome (target, ended));
+  }
+
+  /**
+   * Forgets the outcomes of transfers that ended before a given time.
+   * The transfers began in about the order they ended, so we stop at the
+   * first one that is younger or still running.
+   */
+  private void forget (long before) {
+    Iterator<Outcome> it = outcomes.values ().iterator ();
+    while (it.hasNext ()) {
+      Outcome o = it.next ();
+      if (o == RUNNING || before <= o.ended) {
+	return;
+      }
+      it.remove ();
+    }
+  }
+
+  /**
+   * Returns the number of outcomes remembered.
+   */
+  synchronized int size () {
+    return outcomes.size ();
+  }
+
+  /**
+   * Returns the number of transfers carried out.
+   */
+  synchronized long getTransferCount () {
+    return transfers;
+  }
+
+  /**
+   * Returns the number of retries answered from the log.
+   */
+  synchronized long getRetryCount () {
+    return retries;
+  }
+}
@@ -0,0 +1,60 @@
+// Transfers.java
+// Ids for tag transfers and migrations, and telling a lost call from a failed one.
+
+package dsv.pis.gotag.bailiff;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Transfers holds what the two parties to a tag transfer or a migration
+ * share: the ids under which a Bailiff logs the outcome, and the rule by
+ * which the caller tells a call that never reached the Bailiff from one
+ * whose answer may have been lost.
+ * <p>
+ * An id is a UUID of version 7, whose top 48 bits are the time it was
+ * made, in milliseconds, so that a Bailiff can tell an id that is too
+ * old to be in its log, or older than the Bailiff itself (see
+ * TransferLog). This assumes that the clocks of agents and Bailiffs
+ * agree to within half a minute or so.
+ */
+public final class Transfers {
+
+  private Transfers () {
+  }
+
+  /**
+   * Returns a new id for a tag transfer or a migration.
+   */
+  public static UUID newId () {
+    ThreadLocalRandom rnd = ThreadLocalRandom.current ();
+    long msb = (System.currentTimeMillis () << 16)
+      | 0x7000L | (rnd.nextLong () & 0x0fffL);
+    long lsb = (rnd.nextLong () & 0x3fffffffffffffffL) | 0x8000000000000000L;
+    return new UUID (msb, lsb);
+  }
+
+  /**
+   * Returns the time an id was made, or -1 if it was not made by newId.
+   */
+  public static long issuedAt (UUID id) {
+    if (id.version () != 7) {
+      return -1;
+    }
+    return id.getMostSignificantBits () >>> 16;
+  }
+
+  /**
+   * Tells whether a failed remote call is known never to have reached
+   * the remote object: the connection could not be made, or there was
+   * nothing to call. Any other RemoteException may have been thrown after
+   * the call was carried out.
+   */
+  public static boolean neverSent (java.rmi.RemoteException e) {
+    return e instanceof java.rmi.ConnectException
+      || e instanceof java.rmi.ConnectIOException
+      || e instanceof java.rmi.UnknownHostException
+      || e instanceof java.rmi.NoSuchObjectException
+      || e instanceof java.rmi.StubNotFoundException;
+  }
+}
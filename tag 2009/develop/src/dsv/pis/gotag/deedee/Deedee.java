@@ -27,8 +27,18 @@ import dsv.pis.gotag.bailiff.BailiffInterface;
  * Deedee is a messenger agent. She looks for Bailiffs (execution services)
  * registered to a particular user (started with the -user switch).
  * When she finds one, she migrates there and pops a dialogue with her message.
+ * <p>
+ * Deedee travels in a compact wire format of her own (see writeExternal);
+ * her service template is rebuilt from the recipient's name on arrival.
  */
-public class Deedee implements Serializable {
+public class Deedee implements Externalizable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The version of Deedee's wire format.
+     */
+    protected static final int WIRE_VERSION = 1;
 
     /**
      * The service discovery manager helps us locating Jini lookup servers
@@ -67,6 +77,16 @@ public class Deedee implements Serializable {
      */
     protected String bfName = "dsv.pis.gotag.bailiff.BailiffInterface";
 
+    /**
+     * The pacing decides how long Deedee waits when she finds no Bailiff.
+     */
+    protected Pacing pacing = DEFAULT_PACING;
+
+    /**
+     * The pacing of the original Deedee: a minute between empty lookups.
+     */
+    public static final Pacing DEFAULT_PACING = Pacing.fixed(0, 60000);
+
     /**
      * Creates a new Deedee.
      *
@@ -76,15 +96,74 @@ public class Deedee implements Serializable {
      */
     public Deedee(String targetUser, String msg, long expires)
             throws java.lang.ClassNotFoundException {
+        this(targetUser, msg, expires, null);
+    }
+
+    /**
+     * Creates an empty Deedee for readExternal to fill in. Externalizable
+     * classes must have a public no-argument constructor.
+     */
+    public Deedee() {
+    }
+
+    /**
+     * Creates a new Deedee with a given pacing.
+     *
+     * @param targetUser The recipient's (system-local user-) name.
+     * @param mesg       The message text.
+     * @param expires    The Java system expiration time of the message.
+     * @param pacing     The pacing to use, or null for the default.
+     */
+    public Deedee(String targetUser, String msg, long expires, Pacing pacing)
+            throws java.lang.ClassNotFoundException {
         // Copy from method arguments to instance fields.
+        if (pacing != null) {
+            this.pacing = pacing;
+        }
         toUser = targetUser;
         message = msg;
         this.expires = expires;
         // And create a template to match services with.
-        bailiffTemplate =
-                new ServiceTemplate(null,
-                        new Class[]{java.lang.Class.forName(bfName)},
-                        new Entry[]{new Location(null, null, toUser)});
+        bailiffTemplate = createTemplate();
+    }
+
+    /**
+     * Creates the template that matches the Bailiffs of the recipient.
+     */
+    protected ServiceTemplate createTemplate()
+            throws java.lang.ClassNotFoundException {
+        return new ServiceTemplate(null,
+                new Class[]{java.lang.Class.forName(bfName)},
+                new Entry[]{new Location(null, null, toUser)});
+    }
+
+    /**
+     * Writes Deedee's state: a version byte, the recipient, the message,
+     * the expiration time and the pacing.
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(WIRE_VERSION);
+        WireFormat.writeString(out, toUser);
+        WireFormat.writeString(out, message);
+        out.writeLong(expires);
+        WireFormat.writePacing(out, pacing);
+    }
+
+    /**
+     * Reads the state written by writeExternal and recreates the service
+     * template.
+     */
+    public void readExternal(ObjectInput in)
+            throws IOException, ClassNotFoundException {
+        WireFormat.readVersion(in, WIRE_VERSION, "Deedee");
+        toUser = WireFormat.readString(in);
+        message = WireFormat.readString(in);
+        expires = in.readLong();
+        Pacing p = WireFormat.readPacing(in);
+        if (p != null) {
+            pacing = p;
+        }
+        bailiffTemplate = createTemplate();
     }
 
     /**
@@ -99,6 +178,26 @@ public class Deedee implements Serializable {
         }
     }
 
+    /**
+     * Waits before the next lookup. With event pacing Deedee waits for the
+     * service discovery manager to discover a Bailiff of the recipient,
+     * and wakes as soon as one appears; otherwise she sleeps.
+     *
+     * @param ms The longest time to wait, in milliseconds.
+     */
+    protected void rest(long ms) {
+        if (pacing.wakesOnEvent()) {
+            try {
+                SDM.lookup(bailiffTemplate, null, ms);
+            } catch (java.lang.InterruptedException e) {
+            } catch (java.rmi.RemoteException e) {
+                snooze(ms);
+            }
+        } else {
+            snooze(ms);
+        }
+    }
+
     /**
      * The entry point and main program of Deedee.
      */
@@ -143,6 +242,8 @@ public class Deedee implements Serializable {
 
         // While we are still running...
 
+        int attempts = 0;
+
         while (runFlop) {
 
             // Has the message expiration time been reached?
@@ -161,9 +262,11 @@ public class Deedee implements Serializable {
             // If none is  found...
             if (svcItem == null) {
                 dgui.showWaiting();    // Emote the GUI
-                snooze(60000);        // Sleep a while
+                attempts += 1;
+                rest(pacing.retryDelay(attempts)); // Wait a while
                 continue;        // Try again
             }
+            attempts = 0;
 
 
             boolean isArrived = false;
@@ -216,9 +319,52 @@ public class Deedee implements Serializable {
             throws
             java.io.IOException,
             java.lang.ClassNotFoundException {
+        CmdlnOption helpOption = new CmdlnOption("-help");
+        CmdlnOption paceOption = new CmdlnOption("-pace",
+                CmdlnOption.OPTIONAL |
+                        CmdlnOption.PAR_REQ);
+
+        CmdlnOption wireOption = new CmdlnOption("-wirereport");
+
+        CmdlnOption[] opts = new CmdlnOption[]{helpOption, paceOption,
+                wireOption};
+
+        String[] restArgs = Commandline.parseArgs(System.out, argv, opts);
+
+        if (restArgs == null) {
+            System.exit(1);
+        }
+
+        if (helpOption.getIsSet() == true) {
+            System.out.println("Usage: [-help]|[-pace spec][-wirereport]");
+            System.out.println("where -help shows this message");
+            System.out.println("      -pace sets the wait when no Bailiff is found");
+            System.out.println("       (default " + DEFAULT_PACING + "):");
+            System.out.println("        fixed:hop[:retry], backoff:base[:max],");
+            System.out.println("        event[:max] or none; times in ms.");
+            System.out.println("      -wirereport prints Deedee's serialized size and");
+            System.out.println("        encode/decode times, and exits.");
+            System.exit(0);
+        }
+
+        Pacing pacing = null;
+        if (paceOption.getIsSet()) {
+            try {
+                pacing = Pacing.parse(paceOption.getValue());
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+
         Deedee de = new Deedee("ralph",
                 "This is a message for Ralph!",
-                300000);
+                300000,
+                pacing);
+        if (wireOption.getIsSet()) {
+            System.out.println(WireFormat.report(de, 10000));
+            System.exit(0);
+        }
         de.topLevel();
         System.exit(0);
     }
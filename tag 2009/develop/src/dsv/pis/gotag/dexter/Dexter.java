@@ -14,24 +14,43 @@ import java.lang.*;
 import java.util.Random;
 import java.util.*;
 
-import java.awt.*;
-import java.awt.event.*;
-import javax.swing.*;
-import java.util.concurrent.atomic.AtomicBoolean;
-
 import net.jini.core.lookup.*;
 import net.jini.lookup.*;
 
 import dsv.pis.gotag.util.*;
+import dsv.pis.gotag.bailiff.AgentSnapshot;
+import dsv.pis.gotag.bailiff.BailiffContext;
+import dsv.pis.gotag.bailiff.BailiffFullException;
+import dsv.pis.gotag.bailiff.BailiffDirectory;
+import dsv.pis.gotag.bailiff.LookupCacheDirectory;
+import dsv.pis.gotag.bailiff.TagState;
+import dsv.pis.gotag.bailiff.BailiffSelector;
 import dsv.pis.gotag.bailiff.BailiffInterface;
+import dsv.pis.gotag.bailiff.TransferExpiredException;
+import dsv.pis.gotag.bailiff.Transfers;
 
 /**
  * Dexter jumps around randomly among the Bailiffs. He is can be used
  * test that the system is operating, or as a template for more
  * evolved agents.
+ * <p>
+ * Dexter travels in a compact wire format of his own (see writeExternal)
+ * rather than with default serialization. His service template is not
+ * shipped at all, since it is the same for every Dexter.
  */
-public class Dexter implements Serializable
+public class Dexter implements Externalizable
 {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The version of Dexter's wire format.
+   */
+  protected static final int WIRE_VERSION = 1;
+
+  private static final int WIRE_DEBUG  = 1;
+  private static final int WIRE_NOFACE = 2;
+  private static final int WIRE_IT     = 4;
+
   /**
    * The string name of the Bailiff service interface, used when
    * querying the Jini lookup server.
@@ -62,11 +81,46 @@ public class Dexter implements Serializable
   protected static String baseString = "38400000-8cf0-11bd-b23e-10b96e4ef00d";
 
   /**
-   * Dexter uses a ServiceDiscoveryManager to find Bailiffs.
-   * The SDM is not serializable so it must recreated on each new Bailiff.
-   * That is why it is marked as transient.
+   * Dexter keeps a directory of Bailiffs of his own when the Bailiff he
+   * executes in does not offer him one (or when he is not in a Bailiff
+   * at all, as when he is launched). The directory is not serializable
+   * so it must recreated on each new Bailiff. That is why it is marked
+   * as transient.
+   */
+  protected transient LookupCacheDirectory ownDirectory;
+
+  /**
+   * The directory of Bailiffs Dexter uses, his own or the Bailiff's.
+   */
+  protected transient BailiffDirectory directory;
+
+  /**
+   * The selector that chooses the next Bailiff, the Bailiff's or his own.
+   */
+  protected transient BailiffSelector selector;
+
+  /**
+   * A directory of Bailiffs given to Dexter by his launcher, to use
+   * instead of one of his own until he first migrates.
+   */
+  protected transient BailiffDirectory launchDirectory;
+
+  /**
+   * The pacing decides how long Dexter rests before each hop and how
+   * long he waits when he finds no Bailiffs.
+   */
+  protected Pacing pacing = DEFAULT_PACING;
+
+  /**
+   * The placement strategy Dexter asks the selector to use.
    */
-  protected transient ServiceDiscoveryManager SDM;
+  protected String placement = BailiffSelector.WEIGHTED;
+
+  /**
+   * The pacing of the original Dexter: 5 s before each hop and 20 s
+   * between empty lookups.
+   */
+  public static final Pacing DEFAULT_PACING = Pacing.fixed (5000, 20000);
 
   /**
    * This service template is created in Dexter's constructor and used
@@ -85,6 +139,23 @@ public class Dexter implements Serializable
     if (debug) System.out.println (msg);
   }
 
+  /**
+   * Whether Dexter is 'it', is migrating or is in the middle of a tag
+   * transfer, in one atomic word.
+   */
+  protected final TagState tag = new TagState ();
+
+  /**
+   * How long Dexter first waits before he asks a Bailiff again to carry
+   * out a tag transfer whose answer was lost, and the longest he waits as
+   * the wait doubles. TAG_WAIT_MS is how long he asks in all; it is half
+   * the time a Bailiff accepts a transfer id, leaving the rest for clocks
+   * that disagree.
+   */
+  protected static final long TAG_RETRY_MS = 100;
+  protected static final long TAG_RETRY_MAX_MS = 2000;
+  protected static final long TAG_WAIT_MS = 30000;
+
   /**
    * This creates a new Dexter. All the constructor needs to do is to
    * instantiate the service template.
@@ -92,15 +163,34 @@ public class Dexter implements Serializable
    * @throws ClassNotFoundException Thrown if the class for the Bailiff
    * service interface could not be found.
    */
+  public Dexter (boolean debug, boolean noFace, UUID name)
+  throws
+  java.lang.ClassNotFoundException
+  {
+    this (debug, noFace, name, null);
+  }
 
-  AtomicBoolean isIt = new AtomicBoolean(false);
-  AtomicBoolean isMigrating = new AtomicBoolean(false);
+  /**
+   * Creates an empty Dexter for readExternal to fill in. Externalizable
+   * classes must have a public no-argument constructor.
+   */
+  public Dexter () {}
 
-  public Dexter (boolean debug, boolean noFace, UUID name)
+  /**
+   * This creates a new Dexter with a given pacing.
+   * @param debug True if this instance is being debugged.
+   * @param noFace True if no GUI should be shown.
+   * @param name The unique name of this Dexter.
+   * @param pacing The pacing to use, or null for the default.
+   * @throws ClassNotFoundException Thrown if the class for the Bailiff
+   * service interface could not be found.
+   */
+  public Dexter (boolean debug, boolean noFace, UUID name, Pacing pacing)
   throws
   java.lang.ClassNotFoundException
   {
     if (this.debug == false) this.debug = debug;
+    if (pacing != null) this.pacing = pacing;
 
     this.noFace = noFace;
     this.name = name;
@@ -118,6 +208,61 @@ public class Dexter implements Serializable
 	 null);
   }
 
+  /**
+   * Writes Dexter's state: a version byte, a byte of flags, his name, his
+   * pacing and his placement strategy. He is migrating whenever he is
+   * written, so that flag is not sent; he arrives not migrating.
+   */
+  public void writeExternal (ObjectOutput out) throws IOException {
+    int flags = 0;
+    if (debug) flags |= WIRE_DEBUG;
+    if (noFace) flags |= WIRE_NOFACE;
+    if (tag.isIt ()) flags |= WIRE_IT;
+    out.writeByte (WIRE_VERSION);
+    out.writeByte (flags);
+    WireFormat.writeUUID (out, name);
+    WireFormat.writePacing (out, pacing);
+    WireFormat.writeString (out, placement);
+  }
+
+  /**
+   * Reads the state written by writeExternal and recreates the service
+   * template.
+   */
+  public void readExternal (ObjectInput in)
+    throws IOException, ClassNotFoundException
+  {
+    WireFormat.readVersion (in, WIRE_VERSION, "Dexter");
+    int flags = in.readUnsignedByte ();
+    debug = (flags & WIRE_DEBUG) != 0;
+    noFace = (flags & WIRE_NOFACE) != 0;
+    tag.set ((flags & WIRE_IT) != 0);
+    name = WireFormat.readUUID (in);
+    Pacing p = WireFormat.readPacing (in);
+    if (p != null) pacing = p;
+    String s = WireFormat.readString (in);
+    if (s != null) placement = s;
+    bailiffTemplate =
+      new ServiceTemplate (null, new Class<?> [] {BailiffInterface.class}, null);
+  }
+
+  /**
+   * Sets the strategy by which Dexter chooses among Bailiffs.
+   * @param placement One of BailiffSelector.RANDOM, WEIGHTED or P2C.
+   */
+  public void setPlacement (String placement) {
+    this.placement = placement;
+  }
+
+  /**
+   * Gives Dexter a directory of Bailiffs to use when he is launched,
+   * instead of creating one of his own. It may be shared with other
+   * Dexters, and it is not his to terminate.
+   */
+  public void setLaunchDirectory (BailiffDirectory directory) {
+    this.launchDirectory = directory;
+  }
+
   /**
    * Sleep snugly and safely not bothered by interrupts.
    * @param ms  The number of milliseconds to sleep.
@@ -129,13 +274,38 @@ public class Dexter implements Serializable
     catch (java.lang.InterruptedException e) {}
   }
 
+  /**
+   * Rests for the given time. If the pacing wakes on events and the
+   * directory changes after the given version, the rest ends early.
+   * @param ms The longest time to rest, in milliseconds.
+   * @param version The directory version last seen.
+   */
+  protected void rest (long ms, long version) {
+    if (pacing.wakesOnEvent ()) {
+      try {
+	directory.awaitChange (version, ms);
+      }
+      catch (java.lang.InterruptedException e) {}
+    }
+    else if (0 < ms) {
+      snooze (ms);
+    }
+    else {
+      Thread.yield ();
+    }
+  }
+
   /**
    * This is Dexter's main program once he is on his way. In short, he
-   * gets himself a service discovery manager and asks it about Bailiffs.
-   * If the list is long enough, he then selects one randomly and pings it.
-   * If the ping returned without a remote exception, Dexter then tries
-   * to migrate to that Bailiff. If the ping or the migrates fails, Dexter
-   * gives up on that Bailiff and tries another.
+   * asks the local Bailiff's directory (or, failing that, a service
+   * discovery manager of his own) about Bailiffs.
+   * If the list is long enough, he then lets the selector pick one,
+   * favouring Bailiffs that have answered quickly, and pings it unless it
+   * has answered recently. If the ping returned without a remote
+   * exception, Dexter then tries to migrate to that Bailiff. If the ping
+   * or the migrates fails, Dexter gives up on that Bailiff and tries
+   * another. When Dexter is in a Bailiff, he migrates through it, so that
+   * it can stop regarding him as resident the moment he has arrived.
    */
   public void topLevel (Boolean isIt)
     throws
@@ -143,41 +313,47 @@ public class Dexter implements Serializable
   {
     Random rnd = new Random ();
 
-    // Create a Jini service discovery manager to help us interact with
-    // the Jini lookup service.
-    SDM = new ServiceDiscoveryManager (null, null);
+    // Use the directory of the Bailiff we are in. If there is none,
+    // create a directory of our own to help us interact with the Jini
+    // lookup service.
+    BailiffContext ctx = BailiffContext.getLocal ();
+    directory = (ctx != null) ? ctx.getDirectory () : null;
+    ownDirectory = null;
+    if (directory == null) {
+      directory = launchDirectory;
+    }
+    if (directory == null) {
+      ownDirectory = new LookupCacheDirectory (null, bailiffTemplate);
+      directory = ownDirectory;
+    }
+    selector = (ctx != null) ? ctx.getSelector () : new BailiffSelector ();
+
+    Runnable face = null;	// Takes our face off the dashboard
 
-    DexterFace dexFace = null;
-    JFrame f = null;
-    this.isIt.set(isIt);
+    // The argument only decides whether a newly launched Dexter is 'it'.
+    // A Dexter that has migrated brought his state with him, and may
+    // already have been tagged since he was admitted.
+    if (ctx == null) {
+      tag.set (isIt);
+    }
 
     if (!noFace) {
-      // Create a small GUI for this Dexter instance.
-      f = new JFrame ("Dexter");
-      f.addWindowListener (new WindowAdapter () {
-	  public void windowClosing (WindowEvent e) {System.exit (0);}
-	});
-      dexFace = new DexterFace ();
-      f.getContentPane ().add ("Center", dexFace);
-      dexFace.init ();
-      f.pack ();
-      f.setSize (new Dimension (356, 292));
-      f.setVisible (true);
-      dexFace.startAnimation ();
+      face = openFace ();
     }
 
     for (;;) {
 
       ServiceItem [] svcItems;
 
-      long retryInterval = 0;
+      int attempts = 0;
+      long version = directory.getVersion ();
 
       // The restraint sleep is just there so we don't get hyperactive
       // and confuse the slow human beings.
 
       debugMsg ("Entering restraint sleep.");
 
-      snooze (5000);
+      rest (pacing.hopDelay (), version);
 
       debugMsg ("Leaving restraint sleep.");
 
@@ -185,17 +361,17 @@ public class Dexter implements Serializable
 
       do {
 
-	if (0 < retryInterval) {
+	if (0 < attempts) {
 	  debugMsg ("No Bailiffs detected - sleeping.");
-	  snooze (retryInterval);
+	  rest (pacing.retryDelay (attempts), version);
 	  debugMsg ("Waking up.");
 	}
 
-	// Put our query, expressed as a service template, to the Jini
-	// service discovery manager. 
+	// Put our query to the directory of Bailiffs.
 
-	svcItems = SDM.lookup (bailiffTemplate, 8, null);
-	retryInterval = 20 * 1000;
+	version = directory.getVersion ();
+	svcItems = directory.lookup (null, 8);
+	attempts += 1;
 
 	// If no lookup servers are found, go back up to the beginning
 	// of the loop, sleep a bit and then try again.
@@ -215,31 +391,32 @@ public class Dexter implements Serializable
 
       while (0 < nofItems) {
 
-	// Select one Bailiff randomly.
+	// Let the selector choose one Bailiff.
 
-	    int idx = 0;
-	    if (1 < nofItems) {
-	        idx = rnd.nextInt (nofItems);
-	    }
+	    int idx = selector.select (svcItems, nofItems, rnd, placement);
 
 	    boolean accepted = false;	    // Assume it will fail
 	    Object obj = svcItems[idx].service; // Get the service object
+	    ServiceID sid = svcItems[idx].serviceID;
 	    BailiffInterface bfi = null;
 
-	    // Try to ping the selected Bailiff.
-
-	    debugMsg ("Trying to ping...");
+	    // Try to ping the selected Bailiff, unless it is known to be well.
 
 	    try {
 	        if (obj instanceof BailiffInterface) {
 	            bfi = (BailiffInterface) obj;
-	            String response = bfi.ping (); // Ping it
-                //String current_bailiff = bfi.getProperty();
-	            debugMsg (response);
+	            if (selector.needsProbe (sid)) {
+	                debugMsg ("Trying to ping...");
+	                long t0 = System.nanoTime ();
+	                String response = bfi.ping (); // Ping it
+	                selector.recordSuccess (sid, System.nanoTime () - t0);
+	                debugMsg (response);
+	            }
 	            accepted = true;	// Oh, it worked!
 	        }
 	    }
 	catch (java.rmi.RemoteException e) { // Ping failed
+	  selector.recordFailure (sid);
 	  if (debug) {
 	    e.printStackTrace ();
 	  }
@@ -309,74 +486,83 @@ public class Dexter implements Serializable
           }
           */
         try {
-            // TODO : Remove debugging
-            ArrayList<UUID> agentsList = bfi.getAgentsNames();
-            debugMsg("List of agents | Size = " + agentsList.size());
-            for (int i = 0; i < agentsList.size(); ++i) {
-                try {
-                    debugMsg("Agent " + i + " : " + agentsList.get(i)
-                            + " | isIt = " + (bfi.isIt(agentsList.get(i)) ? "YES" : "NO"));
-                } catch ( Exception ex) {
-                    debugMsg("Agent " + i + " : " + agentsList.get(i));
+            // The agent listing is only fetched when somebody is there
+            // to read it.
+            if (debug) {
+                AgentSnapshot agents = bfi.getAgentSnapshot(-1);
+                debugMsg("List of agents | Size = " + agents.size());
+                for (int i = 0; i < agents.size(); ++i) {
+                    debugMsg("Agent " + i + " : " + agents.getName(i)
+                            + " | isIt = " + (agents.isIt(i) ? "YES" : "NO"));
                 }
             }
 
-            // If it => try to it a player agent in the local bailiff
-            if (this.isIt.get()) {
+            // If it => tag somebody, preferably in the Bailiff we are in,
+            // where the transfer is a plain method call.
+            if (tag.isIt()) {
                 debugMsg("\n[IT Agent] In action");
 
-                // 3) Try to it one agent in the local bailiff
-                //ArrayList<UUID> agentsList = bfi.getAgentsNames();
-                debugMsg("Nb agent in local bailiff = " + agentsList.size());
-
-                int nbAgents = agentsList.size();
-                int nbAttempts = 0;
-                while (this.isIt.get() && (nbAttempts < nbAgents - 1)) { // -1 => do not count the it agent
-                    nbAttempts++;
-
-                    UUID agent = agentsList.get(rnd.nextInt(nbAgents));
-
-                    // Avoid to it ourselves
-                    if (agent.equals(this.name))
-                        continue;
-
-                    // Try to it the agent
-                    try {
-                        debugMsg("current agent that is Trying to it " + agent + " !");
-                        if (bfi.agentHasIt(agent)) {
-                            // It successfull
-                            this.isIt.compareAndSet(true, false);
-                            debugMsg("[IT SUCCEEDED] Agent succeeded to it agent " + agent + " !");
-                            if (debug)
-                                System.out.println();
-                            continue;
-                        }
-                    } catch (Exception e) { }
+                UUID agent = null;
+                if (ctx != null) {
+                    agent = giveTag(ctx.getBailiff());
+                }
+                if (agent == null) {
+                    agent = giveTag(bfi);
+                }
+                if (agent != null) {
+                    debugMsg("[IT SUCCEEDED] Agent succeeded to it agent " + agent + " !");
+                    if (debug)
+                        System.out.println();
                 }
             }
 
             debugMsg(this + " trying to migrate...");
 
-            this.isMigrating.set(true);
-            bfi.migrate(this, "topLevel", new Object[]{isIt});
-            this.isMigrating.compareAndSet(true, false);
+            tag.beginMigration();
+            long t0 = System.nanoTime();
+            try {
+                Object[] args = new Object[]{Boolean.valueOf(tag.isIt())};
+                if (ctx != null) {
+                    ctx.migrate(bfi, this, "topLevel", args);
+                } else {
+                    bfi.migrate(this, "topLevel", args);
+                }
+            } catch (java.rmi.RemoteException e) {
+                // A failed migration is the best health signal we have.
+                selector.recordFailure(sid);
+                throw e;
+            }
+            selector.recordSuccess(sid, System.nanoTime() - t0);
+            // This copy of Dexter stays migrating, so nobody tags it
+            // before it has left.
 
             debugMsg(this + " migrated...");
-            SDM.terminate();    // SUCCESS
-            if (!noFace) {
-                dexFace.stopAnimation();
-                f.setVisible(false);
+            if (ownDirectory != null) {
+                ownDirectory.terminate();    // SUCCESS
+            }
+            if (face != null) {
+                face.run();
             }
             return;        // SUCCESS
+        } catch (BailiffFullException e) {
+            // The Bailiff is healthy but full; it is not held against it,
+            // and the next candidate is tried without resting.
+            debugMsg(this + " turned away: " + e.getMessage());
+            tag.endMigration();
         } catch (java.rmi.RemoteException | java.lang.NoSuchMethodException e ) { // FAILURE
             if (debug) {
                 e.printStackTrace();
             }
-            this.isMigrating.compareAndSet(true, false);
+            tag.endMigration();
         }
 
 	  debugMsg ("Didn't make the jump...");
 
+	  // Like a failed ping, a failed jump removes the Bailiff from the
+	  // candidates of this round.
+
+	  svcItems[idx] = svcItems[nofItems - 1];
+	  nofItems -= 1;
 	}
       }	// while there are candidates left
 
@@ -386,20 +572,148 @@ public class Dexter implements Serializable
   }
 
 
-  public boolean isIt() {
-      return isIt.get();
+  /**
+   * Hands the tag to some agent in a Bailiff, in a two-phase transfer
+   * (see TagState). If the call never reached the Bailiff, Dexter keeps
+   * the tag. If the Bailiff's answer is lost, Dexter asks again with the
+   * same transfer id, and the Bailiff answers as the first time instead
+   * of tagging another agent. Until he has an answer Dexter does not
+   * know whether he is still 'it', so he stays in the middle of the
+   * transfer and keeps asking, for up to TAG_WAIT_MS. If he still has no
+   * answer then, or the Bailiff no longer knows the transfer, he takes
+   * it that somebody was tagged and lets the tag go: that may lose the
+   * tag, whereas keeping it might make one 'it' too many.
+   * @param b The Bailiff to tag in.
+   * @return The name of the tagged agent, or null if nobody is known to
+   * have been tagged.
+   */
+  protected UUID giveTag (BailiffInterface b) {
+    if (!tag.prepareGive ()) {
+      return null;
+    }
+    UUID transferId = Transfers.newId ();
+    UUID agent = null;
+    boolean given;
+    long deadline = System.currentTimeMillis () + TAG_WAIT_MS;
+    long wait = TAG_RETRY_MS;
+    for (;;) {
+      try {
+	agent = b.tagAnyAgent (name, transferId);
+	given = (agent != null);
+	break;
+      }
+      catch (TransferExpiredException e) {
+	debugMsg ("Tag transfer forgotten, letting go of the tag");
+	given = true;
+	break;
+      }
+      catch (java.rmi.RemoteException e) {
+	if (debug) {
+	  e.printStackTrace ();
+	}
+	if (Transfers.neverSent (e)) {
+	  given = false;
+	  break;
+	}
+	long left = deadline - System.currentTimeMillis ();
+	if (left <= 0) {
+	  debugMsg ("Tag transfer still in doubt, letting go of the tag");
+	  given = true;
+	  break;
+	}
+	debugMsg ("Tag transfer in doubt, asking again in " + wait + " ms");
+	snooze (Math.min (wait, left));
+	wait = Math.min (2 * wait, TAG_RETRY_MAX_MS);
+      }
+    }
+    if (given) {
+      tag.commitGive ();
+      BailiffContext ctx = BailiffContext.getLocal ();
+      if (ctx != null) {
+	ctx.tagGiven ();
+      }
+    }
+    else {
+      tag.abortGive ();
+    }
+    return agent;
+  }
+
+  /**
+   * Shows Dexter's face on the DexterDashboard, the one window of all
+   * Dexters in this JVM. The dashboard is loaded by name, so that a
+   * faceless Dexter never loads AWT. In a headless JVM, such as that of
+   * a Bailiff started with -noframe, or without the GUI classes, Dexter
+   * goes faceless.
+   * @return A Runnable that takes the face off the dashboard, or null.
+   */
+  protected Runnable openFace () {
+    if (Boolean.getBoolean ("java.awt.headless")) {
+      return null;
+    }
+    try {
+      return (Runnable) Class.forName ("dsv.pis.gotag.dexter.DexterDashboard")
+	.getMethod ("show", Dexter.class).invoke (null, this);
+    }
+    catch (java.lang.reflect.InvocationTargetException e) {
+      debugMsg ("No face: " + e.getCause ());
+      return null;
+    }
+    catch (Exception | LinkageError e) {
+      debugMsg ("No face: " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns Dexter's name.
+   */
+  public UUID getName () {
+    return name;
+  }
+
+  /**
+   * Returns Dexter's pacing.
+   */
+  public Pacing getPacing () {
+    return pacing;
+  }
+
+  /**
+   * Replaces Dexter's pacing. A Bailiff that is told to slow its agents
+   * down does this before he starts executing.
+   */
+  public void setPacing (Pacing pacing) {
+    this.pacing = pacing;
+  }
+
+  /**
+   * Returns Dexter's tag state, through which the Bailiff tags him.
+   */
+  public TagState getTagState () {
+    return tag;
   }
 
+  public boolean isIt() {
+      return tag.isIt();
+  }
 
+  /**
+   * Makes Dexter 'it' directly, if he is idle.
+   */
   public boolean agentHasIt() {
-      // If is migrating, cannot be it
-      if (isMigrating.get()) {
-          debugMsg("dexter isMigrating.get() : " + isMigrating.get());
-          return false;
-      }
+      return tag.grant();
+  }
+
+  public boolean isMigrating() {
+      return tag.isMigrating();
+  }
 
-      // Otherwise, become the it agent
-      return isIt.compareAndSet(false, true);
+  /**
+   * Gives up the 'it' property.
+   */
+  public void releaseIt() {
+      tag.release();
   }
 
     /**
@@ -413,9 +727,34 @@ public class Dexter implements Serializable
     CmdlnOption helpOption  = new CmdlnOption ("-help");
     CmdlnOption debugOption = new CmdlnOption ("-debug");
     CmdlnOption noFaceOption = new CmdlnOption ("-noface");
+    CmdlnOption paceOption = new CmdlnOption ("-pace",
+					      CmdlnOption.OPTIONAL |
+					      CmdlnOption.PAR_REQ);
+
+    CmdlnOption placementOption = new CmdlnOption ("-placement",
+						   CmdlnOption.OPTIONAL |
+						   CmdlnOption.PAR_REQ);
+
+    CmdlnOption wireOption = new CmdlnOption ("-wirereport");
+
+    CmdlnOption agentsOption = new CmdlnOption ("-agents",
+						CmdlnOption.OPTIONAL |
+						CmdlnOption.PAR_REQ);
+    CmdlnOption itOption = new CmdlnOption ("-it",
+					    CmdlnOption.OPTIONAL |
+					    CmdlnOption.PAR_REQ);
+    CmdlnOption threadsOption = new CmdlnOption ("-threads",
+						 CmdlnOption.OPTIONAL |
+						 CmdlnOption.PAR_REQ);
+    CmdlnOption ownLookupOption = new CmdlnOption ("-ownlookup");
+    CmdlnOption timeoutOption = new CmdlnOption ("-timeout",
+						 CmdlnOption.OPTIONAL |
+						 CmdlnOption.PAR_REQ);
 
     CmdlnOption [] opts =
-      new CmdlnOption [] {helpOption, debugOption, noFaceOption};
+      new CmdlnOption [] {helpOption, debugOption, noFaceOption, paceOption,
+			  placementOption, wireOption, agentsOption, itOption,
+			  threadsOption, ownLookupOption, timeoutOption};
 
     String [] restArgs = Commandline.parseArgs (System.out, argv, opts);
 
@@ -424,31 +763,113 @@ public class Dexter implements Serializable
     }
 
     if (helpOption.getIsSet () == true) {
-      System.out.println ("Usage: [-help]|[-debug][-noface]");
+      System.out.println ("Usage: [-help]|[-debug][-noface][-pace spec]"
+			  + "[-placement strategy][-wirereport]");
+      System.out.println ("       [-agents n][-it n][-threads n][-ownlookup]"
+			  + "[-timeout s]");
       System.out.println ("where -help shows this message");
       System.out.println ("      -debug turns on debugging.");
       System.out.println ("      -noface disables the GUI.");
+      System.out.println ("      -pace sets the pause before hops and the wait");
+      System.out.println ("       when no Bailiffs are found (default "
+			  + DEFAULT_PACING + "):");
+      System.out.println ("        fixed:hop[:retry], backoff:base[:max],");
+      System.out.println ("        event[:max] or none; times in ms.");
+      System.out.println ("      -placement chooses the next Bailiff by");
+      System.out.println ("        random, weighted (default) or p2c.");
+      System.out.println ("      -wirereport prints Dexter's serialized size and");
+      System.out.println ("        encode/decode times, and exits.");
+      System.out.println ("      -agents launches n Dexters (default 3).");
+      System.out.println ("      -it makes the first n of them 'it' (default 1).");
+      System.out.println ("      -threads launches up to n of them at the same");
+      System.out.println ("        time (default all of them, up to 256).");
+      System.out.println ("      -ownlookup gives each Dexter a Jini lookup cache");
+      System.out.println ("        of his own, instead of one for all of them.");
+      System.out.println ("      -timeout stops waiting for the launch after s");
+      System.out.println ("        seconds (default no limit).");
       System.exit (0);
     }
 
-    // creating UUID
-    UUID uid = UUID.fromString(baseString);
+    String placement = BailiffSelector.WEIGHTED;
+    if (placementOption.getIsSet ()) {
+      placement = placementOption.getValue ().toLowerCase ();
+      if (!BailiffSelector.isStrategy (placement)) {
+	System.out.println ("Unknown placement: " + placement);
+	System.exit (1);
+      }
+    }
+
+    Pacing pacing = null;
+    if (paceOption.getIsSet ()) {
+      try {
+	pacing = Pacing.parse (paceOption.getValue ());
+      }
+      catch (IllegalArgumentException e) {
+	System.out.println (e.getMessage ());
+	System.exit (1);
+      }
+    }
+
+    int agents = 3;
+    int its = 1;
+    int threads = 0;
+    long timeout = 0;
+    try {
+      if (agentsOption.getIsSet ()) {
+	agents = Integer.parseInt (agentsOption.getValue ());
+      }
+      if (itOption.getIsSet ()) {
+	its = Integer.parseInt (itOption.getValue ());
+      }
+      if (threadsOption.getIsSet ()) {
+	threads = Integer.parseInt (threadsOption.getValue ());
+      }
+      if (timeoutOption.getIsSet ()) {
+	timeout = Long.parseLong (timeoutOption.getValue ()) * 1000;
+      }
+    }
+    catch (NumberFormatException e) {
+      System.out.println ("Bad number: " + e.getMessage ());
+      System.exit (1);
+    }
+    if (agents < 1 || its < 0 || threads < 0 || timeout < 0) {
+      System.out.println ("Bad count.");
+      System.exit (1);
+    }
+    if (threads == 0) {
+      threads = Math.min (agents, 256);
+    }
 
     boolean debug = debugOption.getIsSet ();
     boolean noFace = noFaceOption.getIsSet ();
-      UUID name = uid.randomUUID();
-      UUID name1 = uid.randomUUID();
-      UUID name2 = uid.randomUUID();
-
+    if (noFace) {
+      // Nothing in this JVM is to load AWT.
+      System.setProperty ("java.awt.headless", "true");
+    }
     // We will try without it first
     // System.setSecurityManager (new RMISecurityManager ());
-    Dexter dx = new Dexter (debug, noFace, name);
-    Dexter dx1 = new Dexter (debug, noFace, name1);
-    Dexter dx2 = new Dexter (debug, noFace, name2);
+    Dexter [] dexters = new Dexter [agents];
+    for (int i = 0; i < agents; i++) {
+      dexters[i] = new Dexter (debug, noFace, UUID.randomUUID (), pacing);
+      dexters[i].setPlacement (placement);
+    }
+
+    if (wireOption.getIsSet ()) {
+      System.out.println (WireFormat.report (dexters[0], 10000));
+      System.exit (0);
+    }
 
-    dx.topLevel (true);
-    dx1.topLevel (false);
-    dx2.topLevel (false);
+    BailiffDirectory shared = null;
+    if (!ownLookupOption.getIsSet ()) {
+      shared = DexterLauncher.sharedDirectory ();
+    }
+    DexterLauncher launcher =
+      new DexterLauncher (dexters, its, threads, shared);
+    try {
+      System.out.println (launcher.launch (timeout));
+    }
+    catch (InterruptedException e) {}
+    DexterLauncher.terminate (shared);
     System.exit (0);
   }
 }
@@ -0,0 +1,269 @@
+// DexterDashboard.java
+// One window showing the faces of all Dexters in a JVM.
+
+package dsv.pis.gotag.dexter;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.geom.*;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.List;
+import javax.swing.*;
+
+/**
+ * The DexterDashboard shows the faces of all Dexters in this JVM, each in
+ * a cell of a grid in one component, instead of a window and a Swing
+ * Timer per Dexter. One Timer advances every face and repaints what can
+ * be seen of the grid, so a Bailiff full of Dexters costs one event on
+ * the event dispatch thread per tick, however many there are.
+ * <p>
+ * A face is a red smile, turning by 5 degrees a tick. There
+ * are only 72 positions of it, so they are drawn once into images and
+ * from then on each face is a copy of one of them. The smile of a Dexter
+ * who is 'it' is drawn on a yellow background.
+ * <p>
+ * Dexter knows the dashboard only through show, which he calls by name,
+ * so a Dexter without a face never loads AWT or Swing. The dashboard is
+ * shipped in Dexter-gui.jar, which is on the Dexter's codebase and on
+ * the Bailiff's class path, so that Dexters show their faces in every
+ * Bailiff that has a display.
+ */
+public class DexterDashboard extends JComponent implements ActionListener
+{
+  private static final long serialVersionUID = 1L;
+
+  final static Color bg    = Color.white;
+  final static Color itBg  = new Color (255, 240, 160);
+  final static Color red   = Color.red;
+  final static Color grid  = new Color (224, 224, 224);
+
+  final static BasicStroke wideStroke = new BasicStroke (4.0f);
+
+  /**
+   * The width and height of a face, in pixels.
+   */
+  static final int CELL = 64;
+
+  /**
+   * The time between ticks, in milliseconds.
+   */
+  static final int TICK_MS = 675;
+
+  /**
+   * The number of positions of the smile: a full turn in 5 degree steps.
+   */
+  static final int PHASES = 72;
+
+  /**
+   * A Dexter on the dashboard and the tick his face started turning.
+   */
+  static final class Face implements Runnable {
+    final Dexter dx;
+    final int born;
+
+    Face (Dexter dx, int born) {
+      this.dx = dx;
+      this.born = born;
+    }
+
+    /**
+     * Takes the face off the dashboard.
+     */
+    public void run () {
+      dashboard.remove (this);
+    }
+  }
+
+  private static DexterDashboard dashboard;
+  private static JFrame frame;
+
+  private final List<Face> faces = new ArrayList<Face> ();
+  private boolean changed = false;
+  private Face [] view = new Face [0];
+
+  private final javax.swing.Timer timer;
+  private volatile int tick = 0;
+  private BufferedImage [][] images;
+
+  protected DexterDashboard () {
+    setBackground (bg);
+    setOpaque (true);
+    timer = new javax.swing.Timer (TICK_MS, this);
+    timer.setCoalesce (true);
+  }
+
+  /**
+   * Puts a Dexter's face on the dashboard, opening its window if this is
+   * the first.
+   * @param dx The Dexter.
+   * @return A Runnable that takes the face off the dashboard.
+   * @throws HeadlessException Thrown if there is no display to show it on.
+   */
+  public static Runnable show (Dexter dx) {
+    if (GraphicsEnvironment.isHeadless ()) {
+      throw new HeadlessException ();
+    }
+    DexterDashboard d;
+    synchronized (DexterDashboard.class) {
+      if (dashboard == null) {
+	dashboard = new DexterDashboard ();
+	SwingUtilities.invokeLater (new Runnable () {
+	    public void run () {
+	      openFrame (dashboard);
+	    }
+	  });
+      }
+      d = dashboard;
+    }
+    Face face = new Face (dx, d.tick);
+    d.add (face);
+    return face;
+  }
+
+  /**
+   * Opens the window of the dashboard. Closing it only hides it, since
+   * the JVM may be a Bailiff's.
+   */
+  private static void openFrame (DexterDashboard d) {
+    frame = new JFrame ("Dexters");
+    frame.setDefaultCloseOperation (WindowConstants.HIDE_ON_CLOSE);
+    frame.getContentPane ().add (new JScrollPane (d), BorderLayout.CENTER);
+    frame.setSize (new Dimension (6 * CELL + 40, 4 * CELL + 60));
+    frame.setVisible (true);
+  }
+
+  void add (Face face) {
+    synchronized (faces) {
+      faces.add (face);
+      changed = true;
+    }
+    timer.start ();
+  }
+
+  void remove (Face face) {
+    synchronized (faces) {
+      faces.remove (face);
+      changed = true;
+    }
+  }
+
+  /**
+   * Returns the number of faces on the dashboard.
+   */
+  public int getFaceCount () {
+    synchronized (faces) {
+      return faces.size ();
+    }
+  }
+
+  /**
+   * Advances every face by one tick. Called by the timer, which stops
+   * when there are no faces left. Whether to stop is decided under the
+   * lock of the faces, so that a face added meanwhile either is seen
+   * here, or starts the timer again after it was stopped.
+   */
+  public void actionPerformed (ActionEvent e) {
+    tick += 1;
+    if (update ()) {
+      revalidate ();
+      if (frame != null) {
+	frame.setTitle ("Dexters (" + view.length + ")");
+      }
+    }
+    synchronized (faces) {
+      if (!changed && faces.isEmpty ()) {
+	timer.stop ();
+      }
+    }
+    repaint (getVisibleRect ());
+  }
+
+  /**
+   * Takes a copy of the faces to paint, if they have changed.
+   * @return True if they had.
+   */
+  private boolean update () {
+    synchronized (faces) {
+      if (!changed) {
+	return false;
+      }
+      view = faces.toArray (new Face [faces.size ()]);
+      changed = false;
+      return true;
+    }
+  }
+
+  private int columns () {
+    return Math.max (1, getWidth () / CELL);
+  }
+
+  public Dimension getPreferredSize () {
+    int cols = Math.max (1, getParent () == null
+			 ? 6 : getParent ().getWidth () / CELL);
+    int rows = (view.length + cols - 1) / cols;
+    return new Dimension (cols * CELL, Math.max (1, rows) * CELL);
+  }
+
+  /**
+   * Paints the faces that are in the clip, each a copy of a cached image.
+   */
+  protected void paintComponent (Graphics g) {
+    update ();
+    Rectangle clip = g.getClipBounds ();
+    if (clip == null) {
+      clip = new Rectangle (0, 0, getWidth (), getHeight ());
+    }
+    g.setColor (bg);
+    g.fillRect (clip.x, clip.y, clip.width, clip.height);
+
+    Face [] v = view;
+    int cols = columns ();
+    int firstRow = Math.max (0, clip.y / CELL);
+    int lastRow = (clip.y + clip.height - 1) / CELL;
+    int firstCol = Math.max (0, clip.x / CELL);
+    int lastCol = Math.min (cols - 1, (clip.x + clip.width - 1) / CELL);
+    int t = tick;
+    for (int row = firstRow; row <= lastRow; row++) {
+      for (int col = firstCol; col <= lastCol; col++) {
+	int i = row * cols + col;
+	if (v.length <= i) {
+	  return;
+	}
+	int phase = (t - v[i].born) % PHASES;
+	g.drawImage (image (v[i].dx.isIt () ? 1 : 0, phase),
+		     col * CELL, row * CELL, null);
+      }
+    }
+  }
+
+  /**
+   * Returns the image of a face, drawing it the first time.
+   * @param kind 1 for a Dexter who is 'it', else 0.
+   * @param phase The position of the smile.
+   */
+  private BufferedImage image (int kind, int phase) {
+    if (images == null) {
+      images = new BufferedImage [2][PHASES];
+    }
+    BufferedImage im = images[kind][phase];
+    if (im == null) {
+      im = new BufferedImage (CELL, CELL, BufferedImage.TYPE_INT_RGB);
+      Graphics2D g2 = im.createGraphics ();
+      g2.setRenderingHint (RenderingHints.KEY_ANTIALIASING,
+			   RenderingHints.VALUE_ANTIALIAS_ON);
+      g2.setPaint ((kind == 1) ? itBg : bg);
+      g2.fillRect (0, 0, CELL, CELL);
+      g2.setPaint (grid);
+      g2.drawRect (0, 0, CELL - 1, CELL - 1);
+      g2.setStroke (wideStroke);
+      g2.setPaint (red);
+      int m = CELL / 10;
+      g2.draw (new Arc2D.Double (m, m, CELL - 2 * m, CELL - 2 * m,
+				 (phase * 5) % 360, 135, Arc2D.OPEN));
+      g2.dispose ();
+      images[kind][phase] = im;
+    }
+    return im;
+  }
+}
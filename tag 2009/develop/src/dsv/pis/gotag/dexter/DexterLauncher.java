@@ -0,0 +1,177 @@
+// DexterLauncher.java
+// Launches a number of Dexters in parallel.
+
+package dsv.pis.gotag.dexter;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import dsv.pis.gotag.bailiff.BailiffDirectory;
+import dsv.pis.gotag.bailiff.LookupCacheDirectory;
+import dsv.pis.gotag.util.Histogram;
+
+/**
+ * The DexterLauncher sends a number of Dexters on their way at once. A
+ * Dexter's topLevel does not return until he has migrated to a Bailiff,
+ * so launching them one after the other takes as many restraint sleeps
+ * and lookups as there are Dexters. The launcher instead calls topLevel
+ * for each of them on a pool of threads, and the first ones are 'it'.
+ * <p>
+ * The Dexters either share one directory of Bailiffs, so that a thousand
+ * of them need one Jini lookup cache instead of a thousand, or each make
+ * their own, as a single launched Dexter does. The launch is done when
+ * every Dexter has migrated, or has failed, or the time is up; a Report
+ * tells how many made it, how fast, and how long each took.
+ */
+public class DexterLauncher {
+
+  protected final Dexter [] agents;
+  protected final int its;
+  protected final int threads;
+  protected final BailiffDirectory shared;
+
+  /**
+   * Creates a launcher.
+   * @param agents The Dexters to launch.
+   * @param its The number of them, from the first, to launch as 'it'.
+   * @param threads The number of Dexters launched at the same time.
+   * @param shared The directory of Bailiffs the Dexters share, or null
+   * if each is to make his own.
+   */
+  public DexterLauncher (Dexter [] agents, int its, int threads,
+			 BailiffDirectory shared)
+  {
+    if (threads < 1) {
+      throw new IllegalArgumentException ("threads < 1");
+    }
+    this.agents = agents;
+    this.its = its;
+    this.threads = threads;
+    this.shared = shared;
+  }
+
+  /**
+   * Launches the Dexters and waits until they have all left.
+   * @param timeoutMs The longest time to wait, in milliseconds, or zero
+   * to wait as long as it takes. Dexters that have not left by then keep
+   * trying in the background, on daemon threads.
+   * @return What became of them.
+   * @throws InterruptedException Thrown if the wait was interrupted.
+   */
+  public Report launch (long timeoutMs)
+    throws
+      java.lang.InterruptedException
+  {
+    final Histogram latency = new Histogram ();
+    final AtomicInteger launched = new AtomicInteger ();
+    final AtomicInteger failed = new AtomicInteger ();
+    final CountDownLatch done = new CountDownLatch (agents.length);
+    final AtomicInteger serial = new AtomicInteger ();
+
+    ExecutorService pool = Executors.newFixedThreadPool
+      (Math.min (threads, Math.max (1, agents.length)),
+       new ThreadFactory () {
+	 public Thread newThread (Runnable r) {
+	   Thread t = new Thread (r, "launcher-" + serial.incrementAndGet ());
+	   t.setDaemon (true);
+	   return t;
+	 }
+       });
+
+    final long start = System.nanoTime ();
+    for (int i = 0; i < agents.length; i++) {
+      final Dexter dx = agents[i];
+      final boolean isIt = i < its;
+      if (shared != null) {
+	dx.setLaunchDirectory (shared);
+      }
+      pool.execute (new Runnable () {
+	  public void run () {
+	    long t0 = System.nanoTime ();
+	    try {
+	      dx.topLevel (isIt);
+	      latency.record (System.nanoTime () - t0);
+	      launched.incrementAndGet ();
+	    }
+	    catch (Exception e) {
+	      failed.incrementAndGet ();
+	      System.err.println ("Dexter " + dx.getName () + " failed: " + e);
+	    }
+	    finally {
+	      done.countDown ();
+	    }
+	  }
+	});
+    }
+    pool.shutdown ();
+
+    if (timeoutMs <= 0) {
+      done.await ();
+    }
+    else {
+      done.await (timeoutMs, TimeUnit.MILLISECONDS);
+    }
+    return new Report (agents.length, launched.get (), failed.get (),
+		       System.nanoTime () - start, latency.snapshot ());
+  }
+
+  /**
+   * What became of the Dexters of a launch.
+   */
+  public static class Report {
+
+    public final int agents;
+    public final int launched;
+    public final int failed;
+    public final long elapsedNanos;
+    public final Histogram.Snapshot latency;
+
+    Report (int agents, int launched, int failed, long elapsedNanos,
+	    Histogram.Snapshot latency)
+    {
+      this.agents = agents;
+      this.launched = launched;
+      this.failed = failed;
+      this.elapsedNanos = elapsedNanos;
+      this.latency = latency;
+    }
+
+    /**
+     * Returns the number of Dexters that have left, per second.
+     */
+    public double getRate () {
+      return (elapsedNanos == 0) ? 0.0 : launched * 1e9 / elapsedNanos;
+    }
+
+    public String toString () {
+      return String.format
+	(Locale.ROOT,
+	 "Launched %d of %d Dexters (%d failed) in %.0f ms: %.1f/s;"
+	 + " time to leave in ms: p50=%.1f p99=%.1f max=%.1f",
+	 launched, agents, failed, elapsedNanos / 1e6, getRate (),
+	 latency.getValueAt (0.50) / 1e6, latency.getValueAt (0.99) / 1e6,
+	 latency.getMax () / 1e6);
+    }
+  }
+
+  /**
+   * Creates a directory for Dexters to share.
+   * @throws java.io.IOException Thrown if discovery could not be started.
+   */
+  public static BailiffDirectory sharedDirectory ()
+    throws
+      java.io.IOException
+  {
+    return new LookupCacheDirectory (null);
+  }
+
+  /**
+   * Ends a directory made by sharedDirectory.
+   */
+  public static void terminate (BailiffDirectory directory) {
+    if (directory instanceof LookupCacheDirectory) {
+      ((LookupCacheDirectory) directory).terminate ();
+    }
+  }
+}
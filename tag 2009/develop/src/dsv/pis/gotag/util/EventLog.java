@@ -0,0 +1,267 @@
+// EventLog.java
+// A binary log of typed Bailiff events in memory-mapped segment files.
+
+package dsv.pis.gotag.util;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The EventLog records what happens in a Bailiff as fixed-size binary
+ * records, so that making an entry costs no string building and no lock.
+ * The events are:
+ * <pre>
+ *   migrate  an agent left for another Bailiff
+ *   admit    an agent arrived and was admitted
+ *   depart   an agent is no longer resident
+ *   tag      an agent was tagged; other is the tagger
+ *   reject   an arriving agent was turned away
+ *   error    an agent failed
+ * </pre>
+ * Every record holds the type, a timestamp, the agent, another agent
+ * and a transfer id (zero where they do not apply), and an int whose
+ * meaning depends on the type.
+ * <p>
+ * The log is written to segment files of a fixed size, each mapped into
+ * memory in full. A writer claims the next record slot of the current
+ * segment with one atomic increment, fills it in, and writes the type
+ * byte last, so that a slot whose type is zero was never completed.
+ * When a segment is full the next one is mapped: the first segment is
+ * the named file and the following ones get the suffix .1, .2 and so
+ * on. An existing segment is never overwritten; a log opened on a file
+ * that is already there continues with the first free suffix.
+ * <p>
+ * A segment starts with a header: the magic "BEVT", the version, the
+ * record size, the segment number, the time the log was opened, an id
+ * and a name for the source (a Bailiff's room, for example). See
+ * EventLogReader for the reading side.
+ */
+public class EventLog {
+
+  public static final int MAGIC = 0x42455654;	// "BEVT"
+  public static final int VERSION = 1;
+  public static final int HEADER = 64;
+  public static final int RECORD = 64;
+
+  public static final byte MIGRATE = 1;
+  public static final byte ADMIT   = 2;
+  public static final byte DEPART  = 3;
+  public static final byte TAG     = 4;
+  public static final byte REJECT  = 5;
+  public static final byte ERROR   = 6;
+
+  /**
+   * The names of the event types, by type.
+   */
+  public static final String [] TYPE_NAMES =
+    {null, "migrate", "admit", "depart", "tag", "reject", "error"};
+
+  /**
+   * The size of a segment, unless specified.
+   */
+  public static final int DEFAULT_SEGMENT = 16 << 20;
+
+  /**
+   * The longest source name kept in the header, in bytes.
+   */
+  static final int MAX_SOURCE = HEADER - 41;
+
+  /**
+   * One mapped segment file.
+   */
+  private static final class Segment {
+    final int number;
+    final MappedByteBuffer buf;
+    final int slots;
+    final AtomicInteger next = new AtomicInteger ();
+
+    Segment (int number, MappedByteBuffer buf, int slots) {
+      this.number = number;
+      this.buf = buf;
+      this.slots = slots;
+    }
+  }
+
+  private final File file;
+  private final String source;
+  private final UUID sourceId;
+  private final long opened;
+  private final int segmentBytes;
+
+  private volatile Segment current;
+  private volatile boolean closed = false;
+  private final LongAdder records = new LongAdder ();
+  private final LongAdder lost = new LongAdder ();
+
+  private EventLog (File file, String source, UUID sourceId,
+		    int segmentBytes) {
+    this.file = file;
+    this.source = source;
+    this.sourceId = sourceId;
+    this.segmentBytes = segmentBytes;
+    this.opened = System.currentTimeMillis ();
+  }
+
+  /**
+   * Opens an event log.
+   * @param file The first segment file.
+   * @param source The name of the source, for the reader.
+   * @param segmentBytes The size of each segment file.
+   * @return The open log.
+   * @throws IOException Thrown if the first segment can not be mapped.
+   */
+  public static EventLog open (File file, String source, int segmentBytes)
+    throws IOException
+  {
+    if (segmentBytes < HEADER + RECORD) {
+      throw new IllegalArgumentException ("Segment too small: "
+					  + segmentBytes);
+    }
+    EventLog log = new EventLog (file, source, UUID.randomUUID (),
+				 segmentBytes);
+    int n = 0;
+    while (segmentFile (file, n).exists ()) {
+      n += 1;
+    }
+    log.current = log.map (n);
+    return log;
+  }
+
+  /**
+   * Returns the file of a segment.
+   * @param file The first segment file.
+   * @param n The segment number.
+   */
+  public static File segmentFile (File file, int n) {
+    return (n == 0) ? file : new File (file.getPath () + "." + n);
+  }
+
+  private Segment map (int n) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile (segmentFile (file, n), "rw");
+    try {
+      raf.setLength (segmentBytes);
+      MappedByteBuffer buf =
+	raf.getChannel ().map (FileChannel.MapMode.READ_WRITE, 0,
+			       segmentBytes);
+      byte [] name = source.getBytes (StandardCharsets.UTF_8);
+      int len = Math.min (name.length, MAX_SOURCE);
+      buf.putInt (0, MAGIC);
+      buf.putShort (4, (short) VERSION);
+      buf.putShort (6, (short) RECORD);
+      buf.putInt (8, n);
+      buf.putLong (16, opened);
+      buf.putLong (24, sourceId.getMostSignificantBits ());
+      buf.putLong (32, sourceId.getLeastSignificantBits ());
+      buf.put (40, (byte) len);
+      for (int i = 0; i < len; i++) {
+	buf.put (41 + i, name[i]);
+      }
+      return new Segment (n, buf, (segmentBytes - HEADER) / RECORD);
+    }
+    finally {
+      raf.close ();		// The mapping stays valid.
+    }
+  }
+
+  /**
+   * Records an event. This never blocks, except for the writer that
+   * finds the segment full and maps the next one. If that fails, the
+   * log closes itself and further events are counted as lost.
+   * @param type The event type.
+   * @param agent The agent, or null.
+   * @param other Another agent, or null.
+   * @param transfer A transfer id, or null.
+   * @param value A number whose meaning depends on the type.
+   */
+  public void record (byte type, UUID agent, UUID other, UUID transfer,
+		      int value) {
+    long time = System.currentTimeMillis ();
+    for (;;) {
+      Segment s = current;
+      if (closed) {
+	lost.increment ();
+	return;
+      }
+      int slot = s.next.getAndIncrement ();
+      if (slot < s.slots) {
+	int p = HEADER + slot * RECORD;
+	ByteBuffer b = s.buf;
+	b.putInt (p + 4, value);
+	b.putLong (p + 8, time);
+	putUUID (b, p + 16, agent);
+	putUUID (b, p + 32, other);
+	putUUID (b, p + 48, transfer);
+	b.put (p, type);
+	records.increment ();
+	return;
+      }
+      roll (s);
+    }
+  }
+
+  private static void putUUID (ByteBuffer b, int p, UUID u) {
+    if (u != null) {
+      b.putLong (p, u.getMostSignificantBits ());
+      b.putLong (p + 8, u.getLeastSignificantBits ());
+    }
+  }
+
+  /**
+   * Replaces a full segment with the next one, unless another writer
+   * already has.
+   */
+  private synchronized void roll (Segment full) {
+    if (current != full || closed) {
+      return;
+    }
+    try {
+      current = map (full.number + 1);
+      full.buf.force ();
+    }
+    catch (IOException e) {
+      closed = true;
+    }
+  }
+
+  /**
+   * Forces the current segment to disk and stops recording.
+   */
+  public synchronized void close () {
+    if (!closed) {
+      closed = true;
+      current.buf.force ();
+    }
+  }
+
+  /**
+   * Returns the first segment file.
+   */
+  public File getFile () {
+    return file;
+  }
+
+  /**
+   * Returns the number of events recorded.
+   */
+  public long getRecordCount () {
+    return records.sum ();
+  }
+
+  /**
+   * Returns the number of events lost because the log was closed.
+   */
+  public long getLostCount () {
+    return lost.sum ();
+  }
+
+  /**
+   * Returns the number of the segment being written.
+   */
+  public int getSegmentNumber () {
+    return current.number;
+  }
+}
@@ -0,0 +1,369 @@
+// EventLogReader.java
+// Reads, filters, aggregates and converts EventLog segment files.
+
+package dsv.pis.gotag.util;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.*;
+import java.util.*;
+
+/**
+ * The EventLogReader reads the segment files written by EventLog. Run
+ * from the command line, it reads any number of segment files, from any
+ * number of Bailiffs, merges their events in time order, and prints them
+ * as text or CSV, a summary of them, or the chain of tag transfers. See
+ * -help for the options.
+ */
+public class EventLogReader {
+
+  /**
+   * One event read from a segment file.
+   */
+  public static final class Event {
+    public final String source;
+    public final byte type;
+    public final long time;
+    public final UUID agent;
+    public final UUID other;
+    public final UUID transfer;
+    public final int value;
+
+    Event (String source, byte type, long time, UUID agent, UUID other,
+	   UUID transfer, int value) {
+      this.source = source;
+      this.type = type;
+      this.time = time;
+      this.agent = agent;
+      this.other = other;
+      this.transfer = transfer;
+      this.value = value;
+    }
+
+    /**
+     * Returns the name of the event type.
+     */
+    public String typeName () {
+      return (0 < type && type < EventLog.TYPE_NAMES.length)
+	? EventLog.TYPE_NAMES[type] : "type" + type;
+    }
+  }
+
+  /**
+   * Reads the events of one segment file, in the order they were
+   * recorded. Slots that were never completed are skipped.
+   * @param f The segment file.
+   * @return The events.
+   * @throws IOException Thrown if the file can not be read or is not a
+   * segment of a version we know.
+   */
+  public static List<Event> read (File f) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile (f, "r");
+    try {
+      FileChannel ch = raf.getChannel ();
+      ByteBuffer b = ch.map (FileChannel.MapMode.READ_ONLY, 0, ch.size ());
+      if (b.limit () < EventLog.HEADER || b.getInt (0) != EventLog.MAGIC) {
+	throw new IOException (f + " is not an event log");
+      }
+      int version = b.getShort (4);
+      if (version < 1 || EventLog.VERSION < version) {
+	throw new IOException (f + ": unknown event log version " + version);
+      }
+      int record = b.getShort (6);
+      if (record < EventLog.RECORD) {
+	throw new IOException (f + ": bad record size " + record);
+      }
+      int len = b.get (40) & 0xff;
+      byte [] name = new byte [Math.min (len, EventLog.MAX_SOURCE)];
+      for (int i = 0; i < name.length; i++) {
+	name[i] = b.get (41 + i);
+      }
+      String source = new String (name, StandardCharsets.UTF_8);
+
+      List<Event> events = new ArrayList<Event> ();
+      for (int p = EventLog.HEADER; p + record <= b.limit (); p += record) {
+	byte type = b.get (p);
+	if (type != 0) {
+	  events.add (new Event (source, type, b.getLong (p + 8),
+				 getUUID (b, p + 16), getUUID (b, p + 32),
+				 getUUID (b, p + 48), b.getInt (p + 4)));
+	}
+      }
+      return events;
+    }
+    finally {
+      raf.close ();
+    }
+  }
+
+  private static UUID getUUID (ByteBuffer b, int p) {
+    long msb = b.getLong (p);
+    long lsb = b.getLong (p + 8);
+    return (msb == 0 && lsb == 0) ? null : new UUID (msb, lsb);
+  }
+
+  /**
+   * Reads several segment files and merges their events in time order.
+   * Events with the same timestamp keep the order of their file.
+   */
+  public static List<Event> readAll (List<File> files) throws IOException {
+    List<Event> all = new ArrayList<Event> ();
+    for (File f : files) {
+      all.addAll (read (f));
+    }
+    Collections.sort (all, new Comparator<Event> () {
+	public int compare (Event a, Event b) {
+	  return Long.compare (a.time, b.time);
+	}
+      });
+    return all;
+  }
+
+  // Output
+
+  private static final DateFormat stamp =
+    new SimpleDateFormat ("yyyy-MM-dd HH:mm:ss.SSS");
+
+  private static String str (Object o) {
+    return (o == null) ? "-" : o.toString ();
+  }
+
+  static void printText (PrintStream out, Event e) {
+    out.println (stamp.format (new Date (e.time)) + " " + e.source + " "
+		 + e.typeName () + " agent=" + str (e.agent)
+		 + ((e.other != null) ? " other=" + e.other : "")
+		 + ((e.transfer != null) ? " transfer=" + e.transfer : "")
+		 + " value=" + e.value);
+  }
+
+  static void printCsv (PrintStream out, Event e) {
+    out.println (e.time + "," + e.source + "," + e.typeName () + ","
+		 + ((e.agent != null) ? e.agent : "") + ","
+		 + ((e.other != null) ? e.other : "") + ","
+		 + ((e.transfer != null) ? e.transfer : "") + "," + e.value);
+  }
+
+  /**
+   * Prints the number of events of each type for each source, and the
+   * agents that were tagged most often.
+   */
+  static void printStats (PrintStream out, List<Event> events) {
+    Map<String, long []> bySource = new TreeMap<String, long []> ();
+    Map<UUID, Integer> tagged = new HashMap<UUID, Integer> ();
+    Set<UUID> agents = new HashSet<UUID> ();
+    long first = Long.MAX_VALUE;
+    long last = Long.MIN_VALUE;
+    for (Event e : events) {
+      long [] counts = bySource.get (e.source);
+      if (counts == null) {
+	counts = new long [EventLog.TYPE_NAMES.length];
+	bySource.put (e.source, counts);
+      }
+      if (0 < e.type && e.type < counts.length) {
+	counts[e.type] += 1;
+      }
+      if (e.agent != null) {
+	agents.add (e.agent);
+      }
+      if (e.type == EventLog.TAG && e.agent != null) {
+	Integer n = tagged.get (e.agent);
+	tagged.put (e.agent, (n == null) ? 1 : n + 1);
+      }
+      first = Math.min (first, e.time);
+      last = Math.max (last, e.time);
+    }
+
+    out.println (events.size () + " events, " + agents.size ()
+		 + " agents, " + bySource.size () + " sources");
+    if (!events.isEmpty ()) {
+      out.println ("from " + stamp.format (new Date (first)) + " to "
+		   + stamp.format (new Date (last)));
+    }
+    StringBuilder head = new StringBuilder (String.format ("%-24s", "source"));
+    for (int t = 1; t < EventLog.TYPE_NAMES.length; t++) {
+      head.append (String.format ("%10s", EventLog.TYPE_NAMES[t]));
+    }
+    out.println (head);
+    for (Map.Entry<String, long []> s : bySource.entrySet ()) {
+      StringBuilder row = new StringBuilder (String.format ("%-24s",
+							    s.getKey ()));
+      for (int t = 1; t < s.getValue ().length; t++) {
+	row.append (String.format ("%10d", s.getValue ()[t]));
+      }
+      out.println (row);
+    }
+
+    List<Map.Entry<UUID, Integer>> top =
+      new ArrayList<Map.Entry<UUID, Integer>> (tagged.entrySet ());
+    Collections.sort (top, new Comparator<Map.Entry<UUID, Integer>> () {
+	public int compare (Map.Entry<UUID, Integer> a,
+			    Map.Entry<UUID, Integer> b) {
+	  return b.getValue () - a.getValue ();
+	}
+      });
+    if (!top.isEmpty ()) {
+      out.println ("most tagged:");
+      for (int i = 0; i < Math.min (10, top.size ()); i++) {
+	out.println ("  " + top.get (i).getKey () + " "
+		     + top.get (i).getValue ());
+      }
+    }
+  }
+
+  /**
+   * Prints the tag transfers in time order, noting where the chain
+   * breaks: where a tagger is not the agent tagged last.
+   */
+  static void printChain (PrintStream out, List<Event> events) {
+    UUID holder = null;
+    int breaks = 0;
+    int links = 0;
+    for (Event e : events) {
+      if (e.type != EventLog.TAG) {
+	continue;
+      }
+      boolean linked = holder == null || holder.equals (e.other);
+      if (!linked) {
+	breaks += 1;
+      }
+      out.println (stamp.format (new Date (e.time)) + " " + e.source + " "
+		   + str (e.other) + " -> " + str (e.agent)
+		   + (linked ? "" : "  (break: " + holder + " was it)"));
+      holder = e.agent;
+      links += 1;
+    }
+    out.println (links + " transfers, " + breaks + " breaks");
+  }
+
+  public static void main (String [] argv) throws IOException {
+    CmdlnOption helpOption = new CmdlnOption ("-help");
+    CmdlnOption typeOption = new CmdlnOption ("-type",
+					      CmdlnOption.OPTIONAL |
+					      CmdlnOption.PAR_REQ);
+    CmdlnOption agentOption = new CmdlnOption ("-agent",
+					       CmdlnOption.OPTIONAL |
+					       CmdlnOption.PAR_REQ);
+    CmdlnOption sourceOption = new CmdlnOption ("-source",
+						CmdlnOption.OPTIONAL |
+						CmdlnOption.PAR_REQ);
+    CmdlnOption sinceOption = new CmdlnOption ("-since",
+					       CmdlnOption.OPTIONAL |
+					       CmdlnOption.PAR_REQ);
+    CmdlnOption untilOption = new CmdlnOption ("-until",
+					       CmdlnOption.OPTIONAL |
+					       CmdlnOption.PAR_REQ);
+    CmdlnOption csvOption = new CmdlnOption ("-csv");
+    CmdlnOption statsOption = new CmdlnOption ("-stats");
+    CmdlnOption chainOption = new CmdlnOption ("-chain");
+
+    CmdlnOption [] opts =
+      new CmdlnOption [] {helpOption, typeOption, agentOption, sourceOption,
+			  sinceOption, untilOption, csvOption, statsOption,
+			  chainOption};
+
+    String [] files = Commandline.parseArgs (System.out, argv, opts);
+    if (files == null) {
+      System.exit (1);
+    }
+
+    if (helpOption.getIsSet () || files.length == 0) {
+      System.out.println ("Usage: [-help]|[-type t,...][-agent uuid]"
+			  + "[-source name][-since t][-until t]"
+			  + "[-csv|-stats|-chain] file...");
+      System.out.println ("where file is an event log segment; "
+			  + "several are merged by time.");
+      System.out.println ("      -type keeps the named event types: "
+			  + "migrate, admit,");
+      System.out.println ("        depart, tag, reject, error.");
+      System.out.println ("      -agent keeps events of that agent, "
+			  + "as agent or other.");
+      System.out.println ("      -source keeps events of that source.");
+      System.out.println ("      -since and -until bound the time, as "
+			  + "milliseconds or");
+      System.out.println ("        'yyyy-MM-dd HH:mm:ss'.");
+      System.out.println ("      -csv prints CSV instead of text.");
+      System.out.println ("      -stats prints counts instead of events.");
+      System.out.println ("      -chain prints the tag transfers in order.");
+      System.exit (helpOption.getIsSet () ? 0 : 1);
+    }
+
+    boolean [] types = null;
+    if (typeOption.getIsSet ()) {
+      types = new boolean [EventLog.TYPE_NAMES.length];
+      for (String t : typeOption.getValue ().toLowerCase ().split (",")) {
+	int i = Arrays.asList (EventLog.TYPE_NAMES).indexOf (t.trim ());
+	if (i < 0) {
+	  System.out.println ("Unknown event type: " + t);
+	  System.exit (1);
+	}
+	types[i] = true;
+      }
+    }
+    UUID agent = null;
+    long since = Long.MIN_VALUE;
+    long until = Long.MAX_VALUE;
+    try {
+      if (agentOption.getIsSet ()) {
+	agent = UUID.fromString (agentOption.getValue ());
+      }
+      if (sinceOption.getIsSet ()) {
+	since = parseTime (sinceOption.getValue ());
+      }
+      if (untilOption.getIsSet ()) {
+	until = parseTime (untilOption.getValue ());
+      }
+    }
+    catch (IllegalArgumentException | ParseException e) {
+      System.out.println ("Bad argument: " + e.getMessage ());
+      System.exit (1);
+    }
+    String source = sourceOption.getIsSet () ? sourceOption.getValue () : null;
+
+    List<File> segments = new ArrayList<File> ();
+    for (String f : files) {
+      segments.add (new File (f));
+    }
+    List<Event> events = new ArrayList<Event> ();
+    for (Event e : readAll (segments)) {
+      if ((types == null || (0 < e.type && e.type < types.length
+			     && types[e.type]))
+	  && (agent == null || agent.equals (e.agent)
+	      || agent.equals (e.other))
+	  && (source == null || source.equals (e.source))
+	  && since <= e.time && e.time <= until) {
+	events.add (e);
+      }
+    }
+
+    PrintStream out = System.out;
+    if (statsOption.getIsSet ()) {
+      printStats (out, events);
+    }
+    else if (chainOption.getIsSet ()) {
+      printChain (out, events);
+    }
+    else if (csvOption.getIsSet ()) {
+      out.println ("time,source,type,agent,other,transfer,value");
+      for (Event e : events) {
+	printCsv (out, e);
+      }
+    }
+    else {
+      for (Event e : events) {
+	printText (out, e);
+      }
+    }
+    out.flush ();
+  }
+
+  private static long parseTime (String s) throws ParseException {
+    try {
+      return Long.parseLong (s);
+    }
+    catch (NumberFormatException e) {
+      return new SimpleDateFormat ("yyyy-MM-dd HH:mm:ss").parse (s).getTime ();
+    }
+  }
+}
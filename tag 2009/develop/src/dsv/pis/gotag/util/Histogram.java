@@ -0,0 +1,198 @@
+// Histogram.java
+// A lock-free histogram of latencies with log-linear buckets.
+
+package dsv.pis.gotag.util;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The Histogram counts non-negative values, typically latencies in
+ * nanoseconds, in buckets whose width grows with the value: values below
+ * 32 have a bucket each, and every power of two above that is split into
+ * 16 buckets, so that a value is known to within about 6% whatever its
+ * size. 960 buckets cover every long.
+ * <p>
+ * Recording a value is one atomic increment of a bucket, one add to a
+ * striped sum and, rarely, a compare-and-set of the maximum. The bucket
+ * counts are striped too: each thread counts in one of a few copies of
+ * the buckets, chosen by its id, so that threads on different processors
+ * seldom write the same cache line. A Snapshot adds the copies up.
+ */
+public class Histogram {
+
+  static final int SUB_BITS = 5;
+  static final int SUB = 1 << SUB_BITS;		// 32
+  static final int HALF = SUB >> 1;		// 16
+  static final int BUCKETS = (63 - SUB_BITS + 1) * HALF + HALF;	// 960
+
+  private final AtomicLongArray [] stripes;
+  private final int mask;
+  private final LongAdder sum = new LongAdder ();
+  private final AtomicLong max = new AtomicLong ();
+
+  /**
+   * Creates a histogram with one stripe per processor, up to eight.
+   */
+  public Histogram () {
+    int n = Integer.highestOneBit (Math.min (8, Math.max (1,
+	      Runtime.getRuntime ().availableProcessors ())));
+    stripes = new AtomicLongArray [n];
+    for (int i = 0; i < n; i++) {
+      stripes[i] = new AtomicLongArray (BUCKETS);
+    }
+    mask = n - 1;
+  }
+
+  /**
+   * Returns the bucket of a value.
+   */
+  static int index (long v) {
+    if (v < SUB) {
+      return (v < 0) ? 0 : (int) v;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros (v) - (SUB_BITS - 1);
+    return shift * HALF + (int) (v >>> shift);
+  }
+
+  /**
+   * Returns the smallest value in a bucket.
+   */
+  static long lowest (int index) {
+    if (index < SUB) {
+      return index;
+    }
+    int shift = index / HALF - 1;
+    return (long) (index - shift * HALF) << shift;
+  }
+
+  /**
+   * Returns the largest value in a bucket.
+   */
+  static long highest (int index) {
+    return (index == BUCKETS - 1) ? Long.MAX_VALUE : lowest (index + 1) - 1;
+  }
+
+  /**
+   * Records a value. Negative values are recorded as zero.
+   */
+  public void record (long v) {
+    if (v < 0) {
+      v = 0;
+    }
+    stripes[(int) Thread.currentThread ().getId () & mask]
+      .getAndIncrement (index (v));
+    sum.add (v);
+    long m = max.get ();
+    while (m < v && !max.compareAndSet (m, v)) {
+      m = max.get ();
+    }
+  }
+
+  /**
+   * Returns the counts as they are now. Values recorded while the
+   * snapshot is taken may or may not be in it.
+   */
+  public Snapshot snapshot () {
+    long [] counts = new long [BUCKETS];
+    int used = 0;
+    for (AtomicLongArray s : stripes) {
+      for (int i = 0; i < BUCKETS; i++) {
+	long c = s.get (i);
+	if (c != 0) {
+	  if (counts[i] == 0) {
+	    used += 1;
+	  }
+	  counts[i] += c;
+	}
+      }
+    }
+    int [] index = new int [used];
+    long [] count = new long [used];
+    int k = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      if (counts[i] != 0) {
+	index[k] = i;
+	count[k] = counts[i];
+	k += 1;
+      }
+    }
+    return new Snapshot (index, count, sum.sum (), max.get ());
+  }
+
+  /**
+   * The counts of a Histogram at one moment. Only the buckets that are
+   * not empty are kept, so a snapshot is small enough to send by RMI.
+   */
+  public static class Snapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int [] index;
+    private final long [] count;
+    private final long total;
+    private final long sum;
+    private final long max;
+
+    Snapshot (int [] index, long [] count, long sum, long max) {
+      this.index = index;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+      long t = 0;
+      for (long c : count) {
+	t += c;
+      }
+      this.total = t;
+    }
+
+    /**
+     * Returns the number of values recorded.
+     */
+    public long getCount () {
+      return total;
+    }
+
+    /**
+     * Returns the sum of the values recorded.
+     */
+    public long getSum () {
+      return sum;
+    }
+
+    /**
+     * Returns the largest value recorded.
+     */
+    public long getMax () {
+      return max;
+    }
+
+    /**
+     * Returns the mean of the values recorded, or zero if there are none.
+     */
+    public double getMean () {
+      return (total == 0) ? 0.0 : (double) sum / total;
+    }
+
+    /**
+     * Returns a value that at least the fraction q of the values recorded
+     * do not exceed: the top of the bucket where that fraction is
+     * reached, or the maximum if that is lower.
+     * @param q The fraction, between 0 and 1.
+     */
+    public long getValueAt (double q) {
+      if (total == 0) {
+	return 0;
+      }
+      long rank = Math.max (1, (long) Math.ceil (q * total));
+      long seen = 0;
+      for (int i = 0; i < index.length; i++) {
+	seen += count[i];
+	if (rank <= seen) {
+	  return Math.min (highest (index[i]), max);
+	}
+      }
+      return max;
+    }
+  }
+}
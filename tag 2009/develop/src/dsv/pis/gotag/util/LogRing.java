@@ -0,0 +1,133 @@
+// LogRing.java
+// A bounded queue of log entries for many writers and one reader.
+
+package dsv.pis.gotag.util;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * The LogRing carries log entries from the threads that make them to
+ * the single thread that writes them out. It is a ring of slots, each
+ * with a sequence number that says whose turn it is: a writer claims the
+ * next slot with one compare-and-set on the tail, fills it and publishes
+ * it by advancing the slot's sequence; the reader takes slots in order
+ * and hands them back the same way. Nobody ever locks, and an entry
+ * costs the writer one CAS and two ordered stores.
+ * <p>
+ * An entry is a timestamp, a kind and up to WIDTH objects, whose meaning
+ * is up to the Logger. The objects are handed to the reader where they
+ * lie in the ring, so an entry costs no allocation either.
+ */
+class LogRing {
+
+  /**
+   * Receives the entries taken from the ring.
+   */
+  interface Sink {
+    /**
+     * Takes one entry. The objects are items[base] to
+     * items[base + WIDTH - 1], which must not be kept.
+     */
+    void take (long time, byte kind, Object [] items, int base);
+  }
+
+  /**
+   * The number of objects an entry holds.
+   */
+  static final int WIDTH = 7;
+
+  private final int mask;
+  private final long [] times;
+  private final byte [] kinds;
+  private final Object [] items;
+  private final AtomicLongArray sequence;
+  private final AtomicLong tail = new AtomicLong ();
+  private long head = 0;	// Only used by the reader.
+
+  /**
+   * Creates a ring.
+   * @param capacity The number of slots, rounded up to a power of two.
+   */
+  LogRing (int capacity) {
+    int n = Integer.highestOneBit (Math.max (2, capacity - 1)) << 1;
+    mask = n - 1;
+    times = new long [n];
+    kinds = new byte [n];
+    items = new Object [n * WIDTH];
+    sequence = new AtomicLongArray (n);
+    for (int i = 0; i < n; i++) {
+      sequence.set (i, i);
+    }
+  }
+
+  /**
+   * Returns the number of slots.
+   */
+  int capacity () {
+    return mask + 1;
+  }
+
+  /**
+   * Adds an entry, unless the ring is full. Objects not given are null.
+   * @return True if the entry was added.
+   */
+  boolean offer (long time, byte kind, Object a, Object b, Object c,
+		 Object d, Object e, Object f, Object g) {
+    for (;;) {
+      long pos = tail.get ();
+      int i = (int) pos & mask;
+      long lag = sequence.get (i) - pos;
+      if (lag == 0) {
+	if (tail.compareAndSet (pos, pos + 1)) {
+	  int base = i * WIDTH;
+	  times[i] = time;
+	  kinds[i] = kind;
+	  items[base] = a;
+	  items[base + 1] = b;
+	  items[base + 2] = c;
+	  items[base + 3] = d;
+	  items[base + 4] = e;
+	  items[base + 5] = f;
+	  items[base + 6] = g;
+	  sequence.lazySet (i, pos + 1);
+	  return true;
+	}
+      }
+      else if (lag < 0) {
+	return false;		// The reader has not freed the slot yet.
+      }
+    }
+  }
+
+  /**
+   * Takes at most max entries, in order, and hands them to the sink.
+   * Only the reader may call this.
+   * @return The number of entries taken.
+   */
+  int drain (Sink sink, int max) {
+    int n = 0;
+    while (n < max) {
+      int i = (int) head & mask;
+      if (sequence.get (i) != head + 1) {
+	break;			// Empty, or the slot is still being filled.
+      }
+      int base = i * WIDTH;
+      sink.take (times[i], kinds[i], items, base);
+      for (int k = 0; k < WIDTH; k++) {
+	items[base + k] = null;
+      }
+      sequence.lazySet (i, head + mask + 1);
+      head += 1;
+      n += 1;
+    }
+    return n;
+  }
+
+  /**
+   * Returns true if there is nothing to take. Only the reader may call
+   * this.
+   */
+  boolean isEmpty () {
+    return sequence.get ((int) head & mask) != head + 1;
+  }
+}
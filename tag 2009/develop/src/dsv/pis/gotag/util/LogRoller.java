@@ -0,0 +1,229 @@
+// LogRoller.java
+// Names, prunes and compresses the closed segments of a rolling log.
+
+package dsv.pis.gotag.util;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The LogRoller keeps the rolling settings of a Logger and takes care of
+ * the segments it closes. A log file is rolled by renaming it to the
+ * next segment name and opening it anew, so the file being written
+ * always has the same name. The closed segments get the suffix .1, .2
+ * and so on, the highest number being the newest, and keep their number
+ * when they are compressed (file.7 becomes file.7.gz). Only the newest
+ * keep segments are kept; older ones are deleted.
+ * <p>
+ * Rolls, with the pruning that follows them, and compression are done by
+ * one background thread, in the order they were asked for; the thread
+ * ends when it has nothing to do. A segment left uncompressed by an
+ * earlier run, which exited before the thread was done, is compressed
+ * when the log file is scanned.
+ */
+class LogRoller {
+
+  static final String GZ = ".gz";
+  static final String PART = ".part";
+
+  final long maxBytes;
+  final long maxMs;
+  final int keep;
+  final boolean gzip;
+
+  private File file = null;
+  private int sequence = 0;	// The newest segment.
+
+  private final ThreadPoolExecutor compressor =
+    new ThreadPoolExecutor (0, 1, 10L, TimeUnit.SECONDS,
+			    new LinkedBlockingQueue<Runnable> (),
+			    new ThreadFactory () {
+			      public Thread newThread (Runnable r) {
+				Thread t = new Thread (r, "log-gzip");
+				t.setDaemon (true);
+				t.setPriority (Thread.MIN_PRIORITY);
+				return t;
+			      }
+			    });
+
+  /**
+   * Creates a LogRoller.
+   * @param maxBytes The largest size of a segment, or zero.
+   * @param maxMs The longest time a segment is written to, or zero.
+   * @param keep The number of closed segments to keep.
+   * @param gzip If true, closed segments are compressed.
+   */
+  LogRoller (long maxBytes, long maxMs, int keep, boolean gzip) {
+    this.maxBytes = maxBytes;
+    this.maxMs = maxMs;
+    this.keep = keep;
+    this.gzip = gzip;
+  }
+
+  /**
+   * Returns the file of a segment.
+   */
+  static File segmentFile (File file, int n) {
+    return new File (file.getPath () + "." + n);
+  }
+
+  /**
+   * Returns the segment number of a file name, or -1 if the name is not
+   * that of a segment of the log file.
+   */
+  private static int segmentNumber (String log, String name) {
+    if (!name.startsWith (log + ".")) {
+      return -1;
+    }
+    String n = name.substring (log.length () + 1);
+    if (n.endsWith (GZ)) {
+      n = n.substring (0, n.length () - GZ.length ());
+    }
+    if (n.length () == 0 || 9 < n.length ()) {
+      return -1;
+    }
+    for (int i = 0; i < n.length (); i++) {
+      if (!Character.isDigit (n.charAt (i))) {
+	return -1;
+      }
+    }
+    return Integer.parseInt (n);
+  }
+
+  private File [] segments (File log) {
+    File dir = log.getAbsoluteFile ().getParentFile ();
+    File [] files = (dir != null) ? dir.listFiles () : null;
+    return (files != null) ? files : new File [0];
+  }
+
+  /**
+   * Makes the log file the one whose segments are taken care of. Its
+   * existing segments are numbered on from, those that are too old are
+   * deleted, and the others compressed if need be. This is the only
+   * time the directory is listed; from then on the segments are known by
+   * their numbers.
+   */
+  synchronized void scan (File log) {
+    if (log.equals (file)) {
+      return;
+    }
+    file = log;
+    sequence = 0;
+    String name = log.getName ();
+    List<File> found = new ArrayList<File> ();
+    for (File f : segments (log)) {
+      int n = segmentNumber (name, f.getName ());
+      if (n < 0) {
+	if (f.getName ().startsWith (name + ".")
+	    && f.getName ().endsWith (PART)) {
+	  f.delete ();		// Left by an interrupted compression.
+	}
+	continue;
+      }
+      sequence = Math.max (sequence, n);
+      found.add (f);
+    }
+    for (File f : found) {
+      if (segmentNumber (name, f.getName ()) <= sequence - keep) {
+	f.delete ();
+      }
+      else if (gzip && !f.getName ().endsWith (GZ)) {
+	compress (f);
+      }
+    }
+  }
+
+  /**
+   * Returns the name the log file gets when it is rolled next.
+   */
+  synchronized File nextSegment () {
+    return segmentFile (file, sequence + 1);
+  }
+
+  /**
+   * Takes care of a segment the log file has been renamed to: deletes
+   * the segment that has become too old and compresses the new one.
+   * Called on the background thread, by the roll.
+   */
+  synchronized void rolled (File segment) {
+    sequence += 1;
+    int old = sequence - keep;
+    if (0 < old) {
+      File f = segmentFile (file, old);
+      f.delete ();
+      new File (f.getPath () + GZ).delete ();
+    }
+    if (gzip) {
+      gzip (segment);
+    }
+  }
+
+  /**
+   * Runs a roll of the log file on the background thread.
+   * @throws java.util.concurrent.RejectedExecutionException Thrown if
+   * the roller has been finished.
+   */
+  void submit (Runnable roll) {
+    compressor.execute (roll);
+  }
+
+  private void compress (final File segment) {
+    compressor.execute (new Runnable () {
+	public void run () {
+	  gzip (segment);
+	}
+      });
+  }
+
+  /**
+   * Compresses a segment into a .part file, which is renamed when it is
+   * complete. The segment may have been pruned in the meantime.
+   */
+  private static void gzip (File segment) {
+    File part = new File (segment.getPath () + GZ + PART);
+    byte [] buf = new byte [1 << 16];
+    try {
+      InputStream in = new FileInputStream (segment);
+      try {
+	OutputStream out =
+	  new GZIPOutputStream (new FileOutputStream (part), buf.length);
+	try {
+	  int n;
+	  while (0 < (n = in.read (buf))) {
+	    out.write (buf, 0, n);
+	  }
+	}
+	finally {
+	  out.close ();
+	}
+      }
+      finally {
+	in.close ();
+      }
+      if (part.renameTo (new File (segment.getPath () + GZ))) {
+	segment.delete ();
+      }
+    }
+    catch (IOException e) {
+      // The segment stays as it is.
+    }
+    finally {
+      part.delete ();
+    }
+  }
+
+  /**
+   * Waits for the segments being compressed, at most ms milliseconds.
+   */
+  void finish (long ms) {
+    compressor.shutdown ();
+    try {
+      compressor.awaitTermination (ms, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread ().interrupt ();
+    }
+  }
+}
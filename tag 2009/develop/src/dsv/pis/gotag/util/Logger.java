@@ -4,12 +4,15 @@
 // 2000-10-11/FK First compiled version
 // 2000-10-09/FK First version
 
-// We should introduce an option to maintain the size of the logfile.
-
 package dsv.pis.gotag.util;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.text.*;
 
 /**
@@ -21,8 +24,77 @@ import java.text.*;
  * application (System.out comes to mind as a natural choice).
  * Writing to a Logger (in theory) never fails, although it may be
  * difficult for the Logger to make a record of that fact.
+ * <p>
+ * By default an entry is formatted and written, and both streams are
+ * flushed, before entry returns. In asynchronous mode (see setAsync) the
+ * caller only puts the entry in a LogRing; a writer thread formats the
+ * entries, writes them in batches and flushes when enough entries have
+ * been written or the oldest unflushed entry is old enough. When the
+ * ring is full, the overflow policy decides what happens:
+ * <pre>
+ *   block   the caller waits until there is room
+ *   drop    the entry is dropped and counted (see getDroppedCount)
+ *   count   as drop, and the writer also enters the number of dropped
+ *           entries into the log when it catches up
+ * </pre>
+ * <p>
+ * An entry is formatted into a char buffer that is reused, and encoded
+ * into a direct byte buffer that is written to the log file's channel.
+ * The timestamp's date and time are formatted once a second; only the
+ * milliseconds are formatted per entry. The entry methods that take an
+ * element name and attribute fields, instead of a finished string,
+ * format the fields themselves: strings and other character sequences,
+ * UUIDs, Integers, Longs and Booleans are formatted without allocating,
+ * so that such an entry makes no garbage at all once the buffers have
+ * grown to size, in asynchronous mode as well. Other values are
+ * formatted with toString.
+ * <p>
+ * A log file can be rolled (see setRolling) when it reaches a size or
+ * has been written to for a time: it is closed, renamed to the next
+ * segment name (the file name with the suffix .1, .2 and so on) and
+ * opened anew, so the current log always has the same name. Only a
+ * number of segments are kept, and they may be compressed with gzip.
+ * The entry that is due only starts a roll. The roll is done by the
+ * background thread of the LogRoller, which renames the file and opens
+ * it anew without the Logger's lock, then switches to the new file under
+ * it, and prunes and compresses the segments afterwards. Entries made in
+ * the meantime go to the segment, which may therefore grow somewhat past
+ * the size. No caller of entry, nor the writer thread of asynchronous
+ * mode, waits for the file system.
  */
 public class Logger {
+
+  public static final String BLOCK = "block";
+  public static final String DROP  = "drop";
+  public static final String COUNT = "count";
+
+  /**
+   * The ring capacity of asynchronous mode, unless specified.
+   */
+  public static final int DEFAULT_CAPACITY = 8192;
+
+  /**
+   * The longest time in milliseconds an entry stays unflushed in
+   * asynchronous mode, unless specified.
+   */
+  public static final long DEFAULT_FLUSH_MS = 100;
+
+  /**
+   * The number of entries the writer thread writes between flushes.
+   */
+  public static final int FLUSH_ENTRIES = 512;
+
+  /**
+   * The number of closed segments a rolling log keeps, unless specified.
+   */
+  public static final int DEFAULT_KEEP = 10;
+
+  /**
+   * The longest time in milliseconds close waits for segments to be
+   * compressed.
+   */
+  public static final long GZIP_WAIT_MS = 30000;
+
   protected PrintWriter pwAux = null;
   protected PrintWriter pwLog = null;
   
@@ -30,10 +102,49 @@ public class Logger {
 
   protected DateFormat dtf = null;
 
+  // Asynchronous mode.
+  protected volatile LogRing ring = null;
+  protected String overflow = BLOCK;
+  protected long flushMs = DEFAULT_FLUSH_MS;
+  protected Thread writer = null;
+  protected Thread exitHook = null;
+  protected final LongAdder dropped = new LongAdder ();
+  private volatile boolean writerWaiting = false;
+  private volatile boolean stopping = false;
+  private long droppedNoted = 0;	// Used only by the writer thread.
+
+  // The kinds of entries.
+  private static final byte TEXT = 1;
+  private static final byte ELEMENT = 2;
+  private static final byte EXCEPTION = 3;
+
+  private static final char [] HEX = "0123456789abcdef".toCharArray ();
+  private static final char [] NEWLINE =
+    System.getProperty ("line.separator", "\n").toCharArray ();
+
+  // Formatting, under the Logger's lock.
+  protected FileChannel channel = null;
+  private char [] line = new char [256];
+  private int lineLength = 0;
+  private final ByteBuffer bytes = ByteBuffer.allocateDirect (1 << 16);
+  private final CharsetEncoder encoder =
+    Charset.defaultCharset ().newEncoder ()
+    .onMalformedInput (CodingErrorAction.REPLACE)
+    .onUnmappableCharacter (CodingErrorAction.REPLACE);
+  private CharBuffer lineView = CharBuffer.wrap (line);
+  private long stampSecond = -1;
+  private final char [] stamp = new char [19];
+
+  // Rolling, under the Logger's lock.
+  protected LogRoller roller = null;
+  private long written = 0;		// Bytes in the log file.
+  private long rollAt = Long.MAX_VALUE;
+  private long rollTime = Long.MAX_VALUE;
+  private boolean rollPending = false;
+
   protected void init () {
-    dtf = DateFormat.getDateTimeInstance ();
+    dtf = new SimpleDateFormat ("yyyy-MM-dd HH:mm:ss");
   }
-
   /**
    * Creates a new Logger without default (none) output streams.
    */
@@ -117,13 +228,191 @@ public class Logger {
    * @param append If true, the log is appended to the file.
    */
   public synchronized void setFile (File f, boolean append) {
+    if (pwLog != null) {
+      writeBytes ();
+      pwLog.close ();
+    }
     currentLogFile = f;
     try {
-      pwLog = new PrintWriter (new FileWriter (f.getCanonicalPath (), append));
+      FileOutputStream fos =
+	new FileOutputStream (f.getCanonicalPath (), append);
+      channel = fos.getChannel ();
+      pwLog = new PrintWriter (new OutputStreamWriter (fos));
+      written = channel.size ();
     }
     catch (java.io.IOException e) {
+      channel = null;
       pwLog = null;
     }
+    if (roller != null) {
+      roller.scan (f);
+    }
+    rollLimits (System.currentTimeMillis ());
+  }
+
+  /**
+   * Rolls the log file when it reaches a size or age.
+   * @param spec The size in megabytes, optionally followed by the age in
+   * minutes, the number of segments to keep and "gz" to compress them,
+   * for example "10:60:5:gz". A size or age of 0 is no limit.
+   * @throws IllegalArgumentException Thrown if the specification can
+   * not be parsed.
+   */
+  public void setRolling (String spec) {
+    String [] parts = spec.trim ().toLowerCase ().split (":");
+    long mb;
+    long minutes = 0;
+    int keep = DEFAULT_KEEP;
+    boolean gzip = false;
+    try {
+      mb = Long.parseLong (parts[0]);
+      if (1 < parts.length) {
+	minutes = Long.parseLong (parts[1]);
+      }
+      if (2 < parts.length) {
+	keep = Integer.parseInt (parts[2]);
+      }
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException ("Bad number in roll spec: " + spec);
+    }
+    if (3 < parts.length) {
+      if (!parts[3].equals ("gz") || 4 < parts.length) {
+	throw new IllegalArgumentException ("Bad roll spec: " + spec);
+      }
+      gzip = true;
+    }
+    setRolling (mb << 20, minutes * 60000L, keep, gzip);
+  }
+
+  /**
+   * Rolls the log file when it reaches a size or age. Closed segments
+   * left by an earlier run are kept, and compressed if gzip is true.
+   * @param maxBytes The largest size of the log file, or 0.
+   * @param maxMs The longest time a log file is written to, or 0.
+   * @param keep The number of closed segments to keep.
+   * @param gzip If true, closed segments are compressed.
+   * @throws IllegalArgumentException Thrown if an argument is bad.
+   */
+  public synchronized void setRolling (long maxBytes, long maxMs, int keep,
+				       boolean gzip) {
+    if (maxBytes < 0 || maxMs < 0 || keep < 1) {
+      throw new IllegalArgumentException ("Bad size, age or count");
+    }
+    if (roller != null) {
+      roller.finish (0);
+    }
+    roller = new LogRoller (maxBytes, maxMs, keep, gzip);
+    if (currentLogFile != null) {
+      roller.scan (currentLogFile);
+    }
+    rollLimits (System.currentTimeMillis ());
+  }
+
+  /**
+   * Sets the size and time at which the log file is rolled next.
+   */
+  private void rollLimits (long now) {
+    rollAt = Long.MAX_VALUE;
+    rollTime = Long.MAX_VALUE;
+    if (roller != null) {
+      if (0 < roller.maxBytes) {
+	rollAt = roller.maxBytes;
+      }
+      if (0 < roller.maxMs) {
+	rollTime = now + roller.maxMs;
+      }
+    }
+  }
+
+  /**
+   * Hands a roll of the log file to the roller's background thread. The
+   * caller holds the lock.
+   */
+  private void startRoll () {
+    final LogRoller r = roller;
+    rollPending = true;
+    try {
+      r.submit (new Runnable () {
+	  public void run () {
+	    roll (r);
+	  }
+	});
+    }
+    catch (java.util.concurrent.RejectedExecutionException e) {
+      rollPending = false;	// The roller was replaced or finished.
+    }
+  }
+
+  /**
+   * Renames the log file to the next segment and opens it anew, on the
+   * roller's thread. Until the new file is in use, entries are written to
+   * the renamed one. If it can not be renamed, it is written to for
+   * another size or age before the next try.
+   */
+  private void roll (LogRoller r) {
+    File f;
+    File segment;
+    synchronized (this) {
+      if (roller != r || pwLog == null) {
+	rollPending = false;
+	return;
+      }
+      f = currentLogFile;
+      segment = r.nextSegment ();
+      writeBytes ();
+    }
+    boolean renamed = f.renameTo (segment);
+    FileOutputStream fos = null;
+    if (renamed) {
+      try {
+	fos = new FileOutputStream (f.getCanonicalPath (), false);
+      }
+      catch (IOException e) {
+	// Back to the old name; the Logger tries again later.
+	segment.renameTo (f);
+	renamed = false;
+      }
+    }
+    PrintWriter old = null;
+    synchronized (this) {
+      rollPending = false;
+      if (roller != r || currentLogFile != f || pwLog == null) {
+	fos = closeQuietly (fos);	// setFile or close got in between.
+      }
+      else if (fos != null) {
+	writeBytes ();
+	old = pwLog;
+	channel = fos.getChannel ();
+	pwLog = new PrintWriter (new OutputStreamWriter (fos));
+	written = 0;
+	rollLimits (System.currentTimeMillis ());
+      }
+      else {
+	if (0 < r.maxBytes) {
+	  rollAt = written + r.maxBytes;
+	}
+	if (0 < r.maxMs) {
+	  rollTime = System.currentTimeMillis () + r.maxMs;
+	}
+      }
+    }
+    if (old != null) {
+      old.close ();
+    }
+    if (renamed) {
+      r.rolled (segment);
+    }
+  }
+
+  private static FileOutputStream closeQuietly (FileOutputStream fos) {
+    if (fos != null) {
+      try {
+	fos.close ();
+      }
+      catch (IOException e) {}
+    }
+    return null;
   }
 
   /**
@@ -164,47 +453,503 @@ public class Logger {
    * PrintWriter (if set). Both streams are flushed (if set).
    * @param e The string to enter into the log.
    */
-  public synchronized void entry (String e) {
-    String ts = null;
-    if ((pwLog != null) || (pwAux != null)) {
-      ts = dtf.format (new Date ()) + ":" + e;
-      if (pwLog != null) {
-	pwLog.println (ts);
-	pwLog.flush ();
+  public void entry (String e) {
+    put (TEXT, e, null, null, null, null, null, null);
+  }
+
+  /**
+   * Makes a log entry of an element with one attribute, such as
+   * &lt;it agent="..."/&gt;. See the class comment for the values that
+   * are formatted without allocating.
+   * @param element The element name.
+   * @param k1 The attribute name.
+   * @param v1 The attribute value.
+   */
+  public void entry (String element, String k1, Object v1) {
+    put (ELEMENT, element, k1, v1, null, null, null, null);
+  }
+
+  /**
+   * Makes a log entry of an element with two attributes.
+   */
+  public void entry (String element, String k1, Object v1,
+		     String k2, Object v2) {
+    put (ELEMENT, element, k1, v1, k2, v2, null, null);
+  }
+
+  /**
+   * Makes a log entry of an element with three attributes.
+   */
+  public void entry (String element, String k1, Object v1,
+		     String k2, Object v2, String k3, Object v3) {
+    put (ELEMENT, element, k1, v1, k2, v2, k3, v3);
+  }
+
+  /**
+   * Makes a log entry for an exception.
+   * @param t The Throwable instance to log.
+   */
+  public void entry (Throwable t) {
+    put (EXCEPTION, t, null, null, null, null, null, null);
+  }
+
+  /**
+   * Makes an entry: in asynchronous mode, through the ring, otherwise at
+   * once, flushing both streams.
+   */
+  protected void put (byte kind, Object a, String k1, Object v1,
+		      String k2, Object v2, String k3, Object v3) {
+    LogRing r = ring;
+    if (r != null) {
+      enqueue (r, kind, a, k1, v1, k2, v2, k3, v3);
+      return;
+    }
+    synchronized (this) {
+      if ((pwLog != null) || (pwAux != null)) {
+	write (System.currentTimeMillis (), kind, a, k1, v1, k2, v2, k3, v3);
+	flushStreams ();
       }
-      if (pwAux != null) {
-	pwAux.println (ts);
-	pwAux.flush ();
+    }
+  }
+
+  /**
+   * Switches the Logger to asynchronous mode.
+   * @param spec The overflow policy, optionally followed by the ring
+   * capacity and the flush interval in milliseconds, for example
+   * "drop:65536:50".
+   * @throws IllegalArgumentException Thrown if the specification can
+   * not be parsed.
+   */
+  public void setAsync (String spec) {
+    String [] parts = spec.trim ().toLowerCase ().split (":");
+    int capacity = DEFAULT_CAPACITY;
+    long ms = DEFAULT_FLUSH_MS;
+    try {
+      if (1 < parts.length) {
+	capacity = Integer.parseInt (parts[1]);
       }
+      if (2 < parts.length) {
+	ms = Long.parseLong (parts[2]);
+      }
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException ("Bad number in log spec: " + spec);
     }
+    setAsync (parts[0], capacity, ms);
   }
 
   /**
-   * Makes a log entry for an exception.
-   * @param t The Throwable instance to log.
+   * Switches the Logger to asynchronous mode, and starts the writer
+   * thread. A Logger that is already asynchronous is left as it is.
+   * @param policy The overflow policy: BLOCK, DROP or COUNT.
+   * @param capacity The number of entries the ring holds.
+   * @param flushMs The longest time an entry stays unflushed.
+   * @throws IllegalArgumentException Thrown if an argument is bad.
    */
-  public synchronized void entry (Throwable t) {
-    String ts = null;
-    if ((pwLog != null) || (pwAux != null)) {
-      ts = dtf.format (new Date ()) + ": EXCEPTION";
+  public synchronized void setAsync (String policy, int capacity,
+				     long flushMs) {
+    if (policy.equals (BLOCK)) {
+      overflow = BLOCK;
+    }
+    else if (policy.equals (DROP)) {
+      overflow = DROP;
+    }
+    else if (policy.equals (COUNT)) {
+      overflow = COUNT;
+    }
+    else {
+      throw new IllegalArgumentException ("Unknown overflow policy: "
+					  + policy);
+    }
+    if (capacity < 2 || flushMs < 1) {
+      throw new IllegalArgumentException ("Bad capacity or flush interval");
+    }
+    if (ring != null) {
+      return;
+    }
+    this.flushMs = flushMs;
+    stopping = false;
+    final LogRing r = new LogRing (capacity);
+    writer = new Thread ("log-writer") {
+	public void run () {
+	  writeLoop (r);
+	}
+      };
+    writer.setDaemon (true);
+    ring = r;
+    writer.start ();
+
+    // Entries still in the ring when the JVM exits are written out.
+    exitHook = new Thread ("log-exit") {
+	public void run () {
+	  stopWriter ();
+	}
+      };
+    Runtime.getRuntime ().addShutdownHook (exitHook);
+  }
+
+  /**
+   * Returns true if the Logger is in asynchronous mode.
+   */
+  public boolean isAsync () {
+    return ring != null;
+  }
+
+  /**
+   * Returns the number of entries dropped because the ring was full.
+   */
+  public long getDroppedCount () {
+    return dropped.sum ();
+  }
+
+  /**
+   * Puts an entry in the ring, applying the overflow policy if it is
+   * full.
+   */
+  protected void enqueue (LogRing r, byte kind, Object a, String k1,
+			  Object v1, String k2, Object v2, String k3,
+			  Object v3) {
+    if ((pwLog == null) && (pwAux == null)) {
+      return;
+    }
+    long now = System.currentTimeMillis ();
+    if (!r.offer (now, kind, a, k1, v1, k2, v2, k3, v3)) {
+      if (overflow != BLOCK) {
+	dropped.increment ();
+	return;
+      }
+      do {
+	LockSupport.unpark (writer);
+	if (ring != r) {
+	  return;		// Closed while we waited.
+	}
+	LockSupport.parkNanos (50000L);
+      } while (!r.offer (now, kind, a, k1, v1, k2, v2, k3, v3));
+    }
+    if (writerWaiting) {
+      LockSupport.unpark (writer);
+    }
+  }
+
+  /**
+   * The program of the writer thread: take entries from the ring, write
+   * them, and flush when FLUSH_ENTRIES have been written or the oldest
+   * unflushed one is flushMs old. Between batches the Logger's lock is
+   * released, so that setFile and the like can get in.
+   */
+  private void writeLoop (LogRing r) {
+    LogRing.Sink sink = new LogRing.Sink () {
+	public void take (long time, byte kind, Object [] items, int i) {
+	  write (time, kind, items[i], (String) items[i + 1], items[i + 2],
+		 (String) items[i + 3], items[i + 4], (String) items[i + 5],
+		 items[i + 6]);
+	}
+      };
+    int unflushed = 0;
+    long flushBy = 0;
+    for (;;) {
+      int n;
+      boolean done;
+      synchronized (this) {
+	n = r.drain (sink, FLUSH_ENTRIES);
+	if (overflow == COUNT) {
+	  noteDropped ();
+	}
+	long now = System.currentTimeMillis ();
+	if (0 < n && unflushed == 0) {
+	  flushBy = now + flushMs;
+	}
+	unflushed += n;
+	done = stopping && r.isEmpty ();
+	if (done || FLUSH_ENTRIES <= unflushed
+	    || (0 < unflushed && flushBy <= now)) {
+	  flushStreams ();
+	  unflushed = 0;
+	}
+      }
+      if (done) {
+	return;
+      }
+      if (n == 0) {
+	long wait = (0 < unflushed)
+	  ? flushBy - System.currentTimeMillis () : 1000L;
+	writerWaiting = true;
+	if (r.isEmpty () && !stopping && 0 < wait) {
+	  LockSupport.parkNanos (wait * 1000000L);
+	}
+	writerWaiting = false;
+      }
+    }
+  }
+
+  /**
+   * Writes one entry without flushing. The caller holds the lock.
+   */
+  private void write (long time, byte kind, Object a, String k1, Object v1,
+		      String k2, Object v2, String k3, Object v3) {
+    if ((rollAt <= written + bytes.position () || rollTime <= time)
+	&& pwLog != null && !rollPending) {
+      startRoll ();
+    }
+    lineLength = 0;
+    appendStamp (time);
+    if (kind == EXCEPTION) {
+      append (" EXCEPTION");
+      endLine ();
+      Throwable t = (Throwable) a;
       if (pwLog != null) {
-	pwLog.println (ts);
+	writeBytes ();
 	t.printStackTrace (pwLog);
+	pwLog.flush ();
+	try {
+	  written = channel.size ();
+	}
+	catch (IOException e) {}
       }
       if (pwAux != null) {
-	pwAux.println (ts);
 	t.printStackTrace (pwAux);
       }
+      return;
     }
+    if (kind == TEXT) {
+      append ((String) a);
+    }
+    else {
+      appendChar ('<');
+      append ((String) a);
+      appendAttribute (k1, v1);
+      appendAttribute (k2, v2);
+      appendAttribute (k3, v3);
+      appendChar ('/');
+      appendChar ('>');
+    }
+    endLine ();
   }
 
   /**
-   * Closes the logfile (if set). The auxilliary PrintWriter is never
-   * closed by the Logger.
+   * Appends the timestamp and the colon. The date and time are formatted
+   * once a second.
    */
-  public synchronized void close () {
-    if (pwLog != null) {
-      pwLog.close ();
+  private void appendStamp (long time) {
+    long second = time / 1000;
+    if (second != stampSecond) {
+      stampSecond = second;
+      dtf.format (new Date (second * 1000)).getChars (0, stamp.length,
+						       stamp, 0);
+    }
+    for (int i = 0; i < stamp.length; i++) {
+      appendChar (stamp[i]);
+    }
+    int ms = (int) (time - second * 1000);
+    appendChar ('.');
+    appendChar ((char) ('0' + ms / 100));
+    appendChar ((char) ('0' + ms / 10 % 10));
+    appendChar ((char) ('0' + ms % 10));
+    appendChar (':');
+  }
+
+  private void appendAttribute (String k, Object v) {
+    if (k == null) {
+      return;
+    }
+    appendChar (' ');
+    append (k);
+    appendChar ('=');
+    appendChar ('"');
+    appendValue (v);
+    appendChar ('"');
+  }
+
+  private void appendValue (Object v) {
+    if (v instanceof CharSequence) {
+      append ((CharSequence) v);
+    }
+    else if (v instanceof UUID) {
+      UUID u = (UUID) v;
+      appendHex (u.getMostSignificantBits () >>> 32, 8);
+      appendChar ('-');
+      appendHex (u.getMostSignificantBits () >>> 16, 4);
+      appendChar ('-');
+      appendHex (u.getMostSignificantBits (), 4);
+      appendChar ('-');
+      appendHex (u.getLeastSignificantBits () >>> 48, 4);
+      appendChar ('-');
+      appendHex (u.getLeastSignificantBits (), 12);
+    }
+    else if (v instanceof Long || v instanceof Integer) {
+      appendLong (((Number) v).longValue ());
+    }
+    else if (v instanceof Boolean) {
+      append (((Boolean) v).booleanValue () ? "true" : "false");
+    }
+    else {
+      append (String.valueOf (v));
+    }
+  }
+
+  private void appendHex (long bits, int digits) {
+    for (int i = digits - 1; 0 <= i; i--) {
+      appendChar (HEX[(int) (bits >>> (4 * i)) & 0xf]);
+    }
+  }
+
+  private void appendLong (long n) {
+    if (n == Long.MIN_VALUE) {
+      append (String.valueOf (n));
+      return;
+    }
+    if (n < 0) {
+      appendChar ('-');
+      n = -n;
+    }
+    long div = 1;
+    while (div <= n / 10) {
+      div *= 10;
+    }
+    for (; 0 < div; div /= 10) {
+      appendChar ((char) ('0' + n / div % 10));
+    }
+  }
+
+  private void append (CharSequence cs) {
+    int n = cs.length ();
+    for (int i = 0; i < n; i++) {
+      appendChar (cs.charAt (i));
+    }
+  }
+
+  private void appendChar (char c) {
+    if (lineLength == line.length) {
+      line = Arrays.copyOf (line, line.length * 2);
+      lineView = CharBuffer.wrap (line);
+    }
+    line[lineLength++] = c;
+  }
+
+  /**
+   * Ends the line in the char buffer and writes it: to the byte buffer
+   * for the log file, which is written to the channel when it is full or
+   * flushed, and to the auxilliary writer.
+   */
+  private void endLine () {
+    for (char c : NEWLINE) {
+      appendChar (c);
+    }
+    if (channel != null) {
+      lineView.limit (lineLength).position (0);
+      for (;;) {
+	CoderResult cr = encoder.encode (lineView, bytes, true);
+	if (!cr.isOverflow ()) {
+	  break;
+	}
+	writeBytes ();
+      }
+      encoder.reset ();
+    }
+    if (pwAux != null) {
+      pwAux.write (line, 0, lineLength);
+    }
+  }
+
+  /**
+   * Writes the byte buffer to the log file.
+   */
+  private void writeBytes () {
+    bytes.flip ();
+    written += bytes.remaining ();
+    try {
+      while (bytes.hasRemaining () && channel != null) {
+	channel.write (bytes);
+      }
+    }
+    catch (IOException e) {
+      // Writing to a Logger (in theory) never fails.
+    }
+    bytes.clear ();
+  }
+
+  /**
+   * Enters the number of entries dropped since last time, if any.
+   */
+  private void noteDropped () {
+    long d = dropped.sum ();
+    if (droppedNoted < d) {
+      write (System.currentTimeMillis (), ELEMENT, "dropped",
+	     "entries", Long.valueOf (d - droppedNoted), null, null,
+	     null, null);
+      droppedNoted = d;
+    }
+  }
+
+  private void flushStreams () {
+    if (channel != null) {
+      writeBytes ();
+    }
+    if (pwAux != null) {
+      pwAux.flush ();
+    }
+  }
+
+  /**
+   * Lets the writer thread write what is in the ring and waits for it to
+   * finish. Afterwards the Logger is synchronous again.
+   */
+  protected void stopWriter () {
+    Thread w;
+    synchronized (this) {
+      w = writer;
+      if (w == null) {
+	return;
+      }
+      stopping = true;
+    }
+    LockSupport.unpark (w);
+    boolean interrupted = false;
+    for (;;) {
+      try {
+	w.join ();
+	break;
+      }
+      catch (InterruptedException e) {
+	interrupted = true;
+      }
+    }
+    synchronized (this) {
+      ring = null;
+      writer = null;
+    }
+    if (interrupted) {
+      Thread.currentThread ().interrupt ();
+    }
+  }
+
+  /**
+   * Closes the logfile (if set), after the writer thread, if any, has
+   * written every entry, and waits a while for closed segments to be
+   * compressed. The auxilliary PrintWriter is never closed by
+   * the Logger.
+   */
+  public void close () {
+    LogRoller r;
+    stopWriter ();
+    synchronized (this) {
+      if (exitHook != null) {
+	try {
+	  Runtime.getRuntime ().removeShutdownHook (exitHook);
+	}
+	catch (IllegalStateException e) {}	// Already exiting.
+	exitHook = null;
+      }
+      if (pwLog != null) {
+	writeBytes ();
+	pwLog.close ();
+	pwLog = null;
+	channel = null;
+      }
+      r = roller;
+    }
+    if (r != null) {
+      r.finish (GZIP_WAIT_MS);
     }
   }
 }
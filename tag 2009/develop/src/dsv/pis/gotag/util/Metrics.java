@@ -0,0 +1,211 @@
+// Metrics.java
+// A registry of named counters, gauges and latency histograms.
+
+package dsv.pis.gotag.util;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The Metrics registry holds the measurements of a service under names
+ * such as "admit.accepted" or "rpc.migrate". There are three kinds:
+ * <pre>
+ *   counter    a LongAdder, which threads increment without contending
+ *   gauge      a value read when a snapshot is taken
+ *   histogram  a Histogram, usually of latencies in nanoseconds
+ * </pre>
+ * Counters and histograms are created on first use and then kept, so
+ * the instrumented code looks them up once and holds on to them; making
+ * a measurement never touches the registry. A Snapshot of everything
+ * can be sent by RMI or written to a file.
+ */
+public class Metrics {
+
+  private final ConcurrentMap<String, LongAdder> counters =
+    new ConcurrentHashMap<String, LongAdder> ();
+  private final ConcurrentMap<String, LongSupplier> gauges =
+    new ConcurrentHashMap<String, LongSupplier> ();
+  private final ConcurrentMap<String, Histogram> histograms =
+    new ConcurrentHashMap<String, Histogram> ();
+
+  /**
+   * Returns the counter of a name, creating it if need be.
+   */
+  public LongAdder counter (String name) {
+    LongAdder c = counters.get (name);
+    if (c == null) {
+      LongAdder fresh = new LongAdder ();
+      c = counters.putIfAbsent (name, fresh);
+      if (c == null) {
+	c = fresh;
+      }
+    }
+    return c;
+  }
+
+  /**
+   * Registers a gauge, replacing any gauge of the same name.
+   */
+  public void gauge (String name, LongSupplier value) {
+    gauges.put (name, value);
+  }
+
+  /**
+   * Returns the histogram of a name, creating it if need be.
+   */
+  public Histogram histogram (String name) {
+    Histogram h = histograms.get (name);
+    if (h == null) {
+      Histogram fresh = new Histogram ();
+      h = histograms.putIfAbsent (name, fresh);
+      if (h == null) {
+	h = fresh;
+      }
+    }
+    return h;
+  }
+
+  /**
+   * Returns the current values of all counters and gauges, and snapshots
+   * of all histograms.
+   */
+  public Snapshot snapshot () {
+    SortedMap<String, Long> values = new TreeMap<String, Long> ();
+    for (Map.Entry<String, LongAdder> e : counters.entrySet ()) {
+      values.put (e.getKey (), Long.valueOf (e.getValue ().sum ()));
+    }
+    for (Map.Entry<String, LongSupplier> e : gauges.entrySet ()) {
+      values.put (e.getKey (), Long.valueOf (e.getValue ().getAsLong ()));
+    }
+    SortedMap<String, Histogram.Snapshot> hs =
+      new TreeMap<String, Histogram.Snapshot> ();
+    for (Map.Entry<String, Histogram> e : histograms.entrySet ()) {
+      hs.put (e.getKey (), e.getValue ().snapshot ());
+    }
+    return new Snapshot (System.currentTimeMillis (), values, hs);
+  }
+
+  /**
+   * The measurements of a Metrics registry at one moment.
+   */
+  public static class Snapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long time;
+    private final SortedMap<String, Long> values;
+    private final SortedMap<String, Histogram.Snapshot> histograms;
+
+    Snapshot (long time, SortedMap<String, Long> values,
+	      SortedMap<String, Histogram.Snapshot> histograms) {
+      this.time = time;
+      this.values = values;
+      this.histograms = histograms;
+    }
+
+    /**
+     * Returns the time the snapshot was taken.
+     */
+    public long getTime () {
+      return time;
+    }
+
+    /**
+     * Returns the counters and gauges, by name.
+     */
+    public SortedMap<String, Long> getValues () {
+      return Collections.unmodifiableSortedMap (values);
+    }
+
+    /**
+     * Returns the value of a counter or gauge, or zero if there is none
+     * of that name.
+     */
+    public long getValue (String name) {
+      Long v = values.get (name);
+      return (v == null) ? 0 : v.longValue ();
+    }
+
+    /**
+     * Returns the histograms, by name.
+     */
+    public SortedMap<String, Histogram.Snapshot> getHistograms () {
+      return Collections.unmodifiableSortedMap (histograms);
+    }
+
+    /**
+     * Returns a histogram, or null if there is none of that name.
+     */
+    public Histogram.Snapshot getHistogram (String name) {
+      return histograms.get (name);
+    }
+
+    /**
+     * Writes the snapshot as text: a heading, one line per counter or
+     * gauge, and one line per histogram that has values, with its count,
+     * mean, percentiles and maximum in microseconds.
+     */
+    public void write (PrintWriter pw) {
+      pw.println ("# "
+		  + new SimpleDateFormat ("yyyy-MM-dd HH:mm:ss.SSS")
+		  .format (new Date (time))
+		  + "; latencies in microseconds");
+      for (Map.Entry<String, Long> e : values.entrySet ()) {
+	pw.println (e.getKey () + " " + e.getValue ());
+      }
+      for (Map.Entry<String, Histogram.Snapshot> e : histograms.entrySet ()) {
+	Histogram.Snapshot h = e.getValue ();
+	if (h.getCount () == 0) {
+	  continue;
+	}
+	pw.println (e.getKey ()
+		    + " count=" + h.getCount ()
+		    + " mean=" + micros (h.getMean ())
+		    + " p50=" + micros (h.getValueAt (0.50))
+		    + " p90=" + micros (h.getValueAt (0.90))
+		    + " p99=" + micros (h.getValueAt (0.99))
+		    + " p999=" + micros (h.getValueAt (0.999))
+		    + " max=" + micros (h.getMax ()));
+      }
+    }
+
+    private static String micros (double ns) {
+      return String.format (Locale.ROOT, "%.1f", ns / 1000.0);
+    }
+
+    /**
+     * Writes the snapshot to a file, replacing it as a whole: readers
+     * never see half a snapshot.
+     * @throws IOException Thrown if the file can not be written.
+     */
+    public void writeTo (File file) throws IOException {
+      File tmp = new File (file.getPath () + ".tmp");
+      PrintWriter pw = new PrintWriter (new FileWriter (tmp));
+      try {
+	write (pw);
+      }
+      finally {
+	pw.close ();
+      }
+      if (pw.checkError ()) {
+	throw new IOException ("Could not write " + tmp);
+      }
+      if (!tmp.renameTo (file)) {
+	file.delete ();
+	if (!tmp.renameTo (file)) {
+	  throw new IOException ("Could not rename " + tmp + " to " + file);
+	}
+      }
+    }
+
+    public String toString () {
+      StringWriter sw = new StringWriter ();
+      write (new PrintWriter (sw));
+      return sw.toString ();
+    }
+  }
+}
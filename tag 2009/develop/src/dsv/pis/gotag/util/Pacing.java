@@ -0,0 +1,134 @@
+// Pacing.java
+// How long a migrating agent rests between its actions.
+
+package dsv.pis.gotag.util;
+
+import java.io.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A Pacing decides how long an agent pauses before each hop, and how long
+ * it waits before asking again when it found no Bailiffs. It is created
+ * from a specification string, normally given on the commandline:
+ * <pre>
+ *   fixed:H[:R]      pause H ms before each hop and R ms (default H)
+ *                    between empty lookups
+ *   backoff:B[:M]    pause B ms before each hop; after the n:th empty
+ *                    lookup wait a random time in [d/2, d] ms, where
+ *                    d = min (M, B * 2^(n-1)) and M defaults to 60000
+ *   event[:M]        do not pause before hops; after an empty lookup
+ *                    wait until the set of Bailiffs changes, at most M
+ *                    ms (default 60000)
+ *   none             never pause (for benchmarking)
+ * </pre>
+ * Pacings are serializable so that they travel with the agent.
+ */
+public class Pacing implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final String FIXED   = "fixed";
+  public static final String BACKOFF = "backoff";
+  public static final String EVENT   = "event";
+  public static final String NONE    = "none";
+
+  /**
+   * The longest wait of the backoff and event pacings, unless specified.
+   */
+  public static final long DEFAULT_MAX = 60000;
+
+  protected String kind;
+  protected long hop;
+  protected long retry;
+
+  protected Pacing (String kind, long hop, long retry) {
+    this.kind = kind;
+    this.hop = hop;
+    this.retry = retry;
+  }
+
+  /**
+   * Returns a fixed pacing.
+   * @param hopMs The pause before each hop.
+   * @param retryMs The wait between empty lookups.
+   */
+  public static Pacing fixed (long hopMs, long retryMs) {
+    return new Pacing (FIXED, hopMs, retryMs);
+  }
+
+  /**
+   * Creates a pacing from its specification string.
+   * @param spec The specification, for example "backoff:100:5000".
+   * @return The new pacing.
+   * @throws IllegalArgumentException Thrown if the specification can
+   * not be parsed.
+   */
+  public static Pacing parse (String spec) {
+    String [] parts = spec.trim ().toLowerCase ().split (":");
+    String kind = parts[0];
+    long [] n = new long [parts.length - 1];
+    for (int i = 0; i < n.length; i++) {
+      try {
+	n[i] = Long.parseLong (parts[i + 1]);
+      }
+      catch (NumberFormatException e) {
+	throw new IllegalArgumentException ("Bad pacing: " + spec);
+      }
+      if (n[i] < 0) {
+	throw new IllegalArgumentException ("Bad pacing: " + spec);
+      }
+    }
+
+    if (kind.equals (NONE) && n.length == 0) {
+      return new Pacing (NONE, 0, 0);
+    }
+    else if (kind.equals (FIXED) && 1 <= n.length && n.length <= 2) {
+      return new Pacing (FIXED, n[0], (n.length == 2) ? n[1] : n[0]);
+    }
+    else if (kind.equals (BACKOFF) && 1 <= n.length && n.length <= 2) {
+      return new Pacing (BACKOFF, n[0], (n.length == 2) ? n[1] : DEFAULT_MAX);
+    }
+    else if (kind.equals (EVENT) && n.length <= 1) {
+      return new Pacing (EVENT, 0, (n.length == 1) ? n[0] : DEFAULT_MAX);
+    }
+    throw new IllegalArgumentException ("Bad pacing: " + spec);
+  }
+
+  /**
+   * Returns the number of milliseconds to pause before a hop.
+   */
+  public long hopDelay () {
+    return hop;
+  }
+
+  /**
+   * Returns the number of milliseconds to wait after an empty lookup.
+   * @param attempt The number of empty lookups so far, counting from one.
+   */
+  public long retryDelay (int attempt) {
+    if (kind.equals (BACKOFF)) {
+      int shift = Math.min (Math.max (attempt - 1, 0), 30);
+      long d = Math.min (retry, Math.max (hop, 1) << shift);
+      return d / 2 + ThreadLocalRandom.current ().nextLong (d / 2 + 1);
+    }
+    return retry;
+  }
+
+  /**
+   * Returns true if waits after empty lookups should end as soon as the
+   * set of Bailiffs changes.
+   */
+  public boolean wakesOnEvent () {
+    return kind.equals (EVENT);
+  }
+
+  public String toString () {
+    if (kind.equals (NONE)) {
+      return NONE;
+    }
+    else if (kind.equals (EVENT)) {
+      return EVENT + ":" + retry;
+    }
+    return kind + ":" + hop + ":" + retry;
+  }
+}
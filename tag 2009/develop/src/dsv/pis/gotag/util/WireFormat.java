@@ -0,0 +1,179 @@
+// WireFormat.java
+// Helpers for the compact wire format of migrating agents.
+
+package dsv.pis.gotag.util;
+
+import java.io.*;
+import java.util.UUID;
+
+/**
+ * WireFormat holds the primitives the agents use in their writeExternal
+ * and readExternal methods: variable-length integers, nullable strings,
+ * UUIDs and pacings. Each agent starts its state with a version byte of
+ * its own, so that a Bailiff can refuse state it does not understand
+ * instead of misreading it.
+ * <p>
+ * The report method serializes an agent as it travels in migrate and
+ * times the round trip, for comparing wire formats.
+ */
+public class WireFormat {
+
+  /**
+   * Writes a non-negative integer in 7-bit groups, low group first. Small
+   * values take a single byte.
+   */
+  public static void writeVarInt (DataOutput out, int v) throws IOException {
+    while ((v & ~0x7f) != 0) {
+      out.writeByte ((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+    out.writeByte (v);
+  }
+
+  /**
+   * Reads an integer written by writeVarInt.
+   */
+  public static int readVarInt (DataInput in) throws IOException {
+    int v = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte ();
+      v |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+	return v;
+      }
+    }
+    throw new StreamCorruptedException ("Malformed varint");
+  }
+
+  /**
+   * Writes a string, which may be null, as its UTF-8 length plus one
+   * followed by the UTF-8 bytes. Null is written as a single zero byte.
+   */
+  public static void writeString (DataOutput out, String s)
+    throws IOException
+  {
+    if (s == null) {
+      writeVarInt (out, 0);
+      return;
+    }
+    byte [] b = s.getBytes ("UTF-8");
+    writeVarInt (out, b.length + 1);
+    out.write (b);
+  }
+
+  /**
+   * Reads a string written by writeString.
+   */
+  public static String readString (DataInput in) throws IOException {
+    int n = readVarInt (in);
+    if (n == 0) {
+      return null;
+    }
+    byte [] b = new byte [n - 1];
+    in.readFully (b);
+    return new String (b, "UTF-8");
+  }
+
+  /**
+   * Writes a UUID, which may be null, as a presence byte and two longs.
+   */
+  public static void writeUUID (DataOutput out, UUID u) throws IOException {
+    out.writeBoolean (u != null);
+    if (u != null) {
+      out.writeLong (u.getMostSignificantBits ());
+      out.writeLong (u.getLeastSignificantBits ());
+    }
+  }
+
+  /**
+   * Reads a UUID written by writeUUID.
+   */
+  public static UUID readUUID (DataInput in) throws IOException {
+    if (!in.readBoolean ()) {
+      return null;
+    }
+    long msb = in.readLong ();
+    return new UUID (msb, in.readLong ());
+  }
+
+  /**
+   * Writes a pacing, which may be null, as its specification string.
+   */
+  public static void writePacing (DataOutput out, Pacing p)
+    throws IOException
+  {
+    writeString (out, (p != null) ? p.toString () : null);
+  }
+
+  /**
+   * Reads a pacing written by writePacing.
+   */
+  public static Pacing readPacing (DataInput in) throws IOException {
+    String spec = readString (in);
+    if (spec == null) {
+      return null;
+    }
+    try {
+      return Pacing.parse (spec);
+    }
+    catch (IllegalArgumentException e) {
+      throw new InvalidObjectException (e.getMessage ());
+    }
+  }
+
+  /**
+   * Checks the version byte at the start of an agent's state.
+   * @param in The stream to read from.
+   * @param max The highest version the reader understands.
+   * @param what The name of the agent class, for the message.
+   * @return The version read.
+   * @throws InvalidObjectException Thrown if the version is unknown.
+   */
+  public static int readVersion (DataInput in, int max, String what)
+    throws IOException
+  {
+    int v = in.readUnsignedByte ();
+    if (v < 1 || max < v) {
+      throw new InvalidObjectException ("Unknown " + what
+					+ " wire version " + v);
+    }
+    return v;
+  }
+
+  /**
+   * Serializes an object the way it travels in a migration and reports
+   * the size of the result and the average encode and decode times.
+   * @param obj The object, normally an agent.
+   * @param rounds The number of round trips to average over.
+   * @return A one-line report.
+   */
+  public static String report (Serializable obj, int rounds)
+    throws IOException, ClassNotFoundException
+  {
+    rounds = Math.max (rounds, 1);
+    byte [] bytes = null;
+    long encode = 0;
+    long decode = 0;
+    // The first round warms up and is not counted.
+    for (int i = 0; i <= rounds; i++) {
+      long t0 = System.nanoTime ();
+      ByteArrayOutputStream bos = new ByteArrayOutputStream (256);
+      ObjectOutputStream oos = new ObjectOutputStream (bos);
+      oos.writeObject (obj);
+      oos.close ();
+      bytes = bos.toByteArray ();
+      long t1 = System.nanoTime ();
+      ObjectInputStream ois =
+	new ObjectInputStream (new ByteArrayInputStream (bytes));
+      ois.readObject ();
+      long t2 = System.nanoTime ();
+      if (0 < i) {
+	encode += t1 - t0;
+	decode += t2 - t1;
+      }
+    }
+    return obj.getClass ().getName () + ": " + bytes.length + " bytes, encode "
+      + (encode / rounds / 1000.0) + " us, decode "
+      + (decode / rounds / 1000.0) + " us (" + rounds + " rounds)";
+  }
+}
@@ -0,0 +1,328 @@
+// TagStressTest.java
+// Checks that tag transfers over a lossy network neither lose nor copy tags.
+
+package dsv.pis.gotag.bailiff;
+
+import java.lang.reflect.*;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import dsv.pis.gotag.dexter.Dexter;
+import dsv.pis.gotag.util.*;
+
+/**
+ * TagStressTest lets a number of agents in a few Bailiffs, some of them
+ * 'it', hand the tag on as fast as they can, through proxies of the
+ * Bailiffs that lose tagAnyAgent requests and replies at random. A lost
+ * reply leaves the giver in doubt, and the giver must neither keep the
+ * tag (if somebody was tagged) nor have it carried out twice; either
+ * would change the number of agents that are 'it'.
+ * <p>
+ * While the agents play, a sampler counts the tags every SAMPLE_MS.
+ * Looking at the agents one by one it could count a moving tag twice,
+ * or not at all, so the proxies carry out tagAnyAgent holding a read
+ * lock, and the sampler counts holding the write lock. No Bailiff is
+ * then in the middle of a transfer, and no agent is receiving. A giver
+ * whose transfer is in doubt is still giving; the proxy, which saw the
+ * Bailiff's answer, has marked it if somebody was tagged, and a marked
+ * giver holds no tag. Exactly as many tags as at the start must be held.
+ * <p>
+ * When the time is up the losses stop, every agent finishes the transfer
+ * it is in, and the test counts once more. The Bailiffs are neither
+ * registered with Jini nor exported for RMI, as in BailiffBench. The
+ * test is run by the ant target 'test', and exits with 1 if it fails.
+ */
+public class TagStressTest {
+
+  /**
+   * The chance that a tagAnyAgent request, or its reply, is lost.
+   */
+  static volatile double loss = 0.2;
+
+  /**
+   * How often, in milliseconds, the sampler counts the tags.
+   */
+  static final long SAMPLE_MS = 10;
+
+  /**
+   * Held for reading while a Bailiff carries out a transfer, and for
+   * writing by the sampler while it counts. It is fair, or the sampler
+   * would hardly ever get it.
+   */
+  static final ReentrantReadWriteLock gate =
+    new ReentrantReadWriteLock (true);
+
+  static final AtomicLong lostRequests = new AtomicLong ();
+  static final AtomicLong lostReplies = new AtomicLong ();
+
+  /**
+   * An agent that hands the tag on to a random Bailiff whenever it has
+   * it, until the test is over.
+   */
+  public static class Player extends Dexter {
+    static volatile boolean playing = true;
+    static volatile BailiffInterface [] bailiffs;
+    static volatile CountDownLatch done;
+    static final AtomicLong gives = new AtomicLong ();
+    static final ConcurrentMap<UUID, Player> byName =
+      new ConcurrentHashMap<UUID, Player> ();
+
+    /**
+     * Set by the proxy when a Bailiff tagged somebody for the transfer
+     * this agent is giving in.
+     */
+    volatile boolean moved;
+
+    public Player () throws ClassNotFoundException {
+      super (false, true, UUID.randomUUID ());
+    }
+
+    public void play (Boolean isIt) {
+      ThreadLocalRandom rnd = ThreadLocalRandom.current ();
+      try {
+	while (playing) {
+	  if (isIt ()) {
+	    BailiffInterface [] bs = bailiffs;
+	    moved = false;
+	    if (giveTag (bs[rnd.nextInt (bs.length)]) != null) {
+	      gives.incrementAndGet ();
+	    }
+	  }
+	  else {
+	    snooze (5);
+	  }
+	}
+      }
+      finally {
+	done.countDown ();
+      }
+    }
+  }
+
+  /**
+   * Counts the tags held, the agents that are giving and the agents
+   * that are receiving. A giver holds the tag unless it is marked as
+   * having passed it on; its state is read before the mark, which it
+   * clears before it starts to give.
+   * @return The three counts, in that order.
+   */
+  static int [] count (List<Player> players) {
+    int [] n = new int [3];
+    for (Player p : players) {
+      int s = p.getTagState ().get ();
+      if ((s & TagState.GIVING) != 0) {
+	n[1] += 1;
+	if (!p.moved) {
+	  n[0] += 1;
+	}
+      }
+      else if ((s & TagState.IT) != 0) {
+	n[0] += 1;
+      }
+      if ((s & TagState.RECEIVING) != 0) {
+	n[2] += 1;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Returns a proxy of a Bailiff that loses tagAnyAgent requests and
+   * replies with the current chance of loss. A request that gets through
+   * is carried out holding the read lock, and marks the giver if it
+   * tagged somebody.
+   */
+  static BailiffInterface lossy (final BailiffInterface bf) {
+    return (BailiffInterface) Proxy.newProxyInstance
+      (BailiffInterface.class.getClassLoader (),
+       new Class<?> [] {BailiffInterface.class},
+       new InvocationHandler () {
+	 public Object invoke (Object proxy, Method m, Object [] args)
+	   throws Throwable
+	 {
+	   boolean tag = m.getName ().equals ("tagAnyAgent");
+	   ThreadLocalRandom rnd = ThreadLocalRandom.current ();
+	   if (tag && rnd.nextDouble () < loss) {
+	     lostRequests.incrementAndGet ();
+	     throw new RemoteException ("request lost");
+	   }
+	   Object result;
+	   if (tag) {
+	     gate.readLock ().lock ();
+	   }
+	   try {
+	     result = m.invoke (bf, args);
+	     if (tag && result != null) {
+	       Player giver = Player.byName.get (args[0]);
+	       if (giver != null) {
+		 giver.moved = true;
+	       }
+	     }
+	   }
+	   catch (InvocationTargetException e) {
+	     throw e.getCause ();
+	   }
+	   finally {
+	     if (tag) {
+	       gate.readLock ().unlock ();
+	     }
+	   }
+	   if (tag && rnd.nextDouble () < loss) {
+	     lostReplies.incrementAndGet ();
+	     throw new RemoteException ("reply lost");
+	   }
+	   return result;
+	 }
+       });
+  }
+
+  public static void main (String [] argv) throws Exception {
+    CmdlnOption helpOption = new CmdlnOption ("-help");
+    CmdlnOption timeOption = new CmdlnOption ("-time",
+					      CmdlnOption.OPTIONAL |
+					      CmdlnOption.PAR_REQ);
+    CmdlnOption lossOption = new CmdlnOption ("-loss",
+					      CmdlnOption.OPTIONAL |
+					      CmdlnOption.PAR_REQ);
+
+    CmdlnOption [] opts =
+      new CmdlnOption [] {helpOption, timeOption, lossOption};
+
+    String [] restArgs = Commandline.parseArgs (System.out, argv, opts);
+    if (restArgs == null) {
+      System.exit (1);
+    }
+
+    if (helpOption.getIsSet ()) {
+      System.out.println ("Usage: [-help]|[-time ms][-loss p]");
+      System.out.println ("where -time is how long the agents play");
+      System.out.println ("        (default 5000 ms), and -loss the chance");
+      System.out.println ("        that a request or reply is lost (0.2).");
+      System.exit (0);
+    }
+
+    long time = timeOption.getIsSet ()
+      ? Long.parseLong (timeOption.getValue ()) : 5000;
+    if (lossOption.getIsSet ()) {
+      loss = Double.parseDouble (lossOption.getValue ());
+    }
+    final double chance = loss;
+
+    final int nofBailiffs = 8;
+    final int perBailiff = 32;
+    final int its = 32;
+
+    StaticDirectory directory = new StaticDirectory ();
+    Bailiff [] bfs = new Bailiff [nofBailiffs];
+    BailiffInterface [] proxies = new BailiffInterface [nofBailiffs];
+    for (int i = 0; i < nofBailiffs; i++) {
+      bfs[i] = new Bailiff ("stress" + i, null,
+			    AgentEngine.create ("pool:" + perBailiff),
+			    directory);
+      proxies[i] = lossy (bfs[i]);
+    }
+    Player.bailiffs = proxies;
+    Player.done = new CountDownLatch (nofBailiffs * perBailiff);
+
+    final List<Player> players = new ArrayList<Player> ();
+    for (int i = 0; i < nofBailiffs * perBailiff; i++) {
+      Player p = new Player ();
+      if (i < its) {
+	p.getTagState ().set (true);
+      }
+      players.add (p);
+      Player.byName.put (p.getName (), p);
+      bfs[i % nofBailiffs].migrate (p, "play", new Object [] {Boolean.FALSE});
+    }
+
+    final AtomicLong samples = new AtomicLong ();
+    final AtomicLong bad = new AtomicLong ();
+    final AtomicLong givers = new AtomicLong ();
+    final long end = System.currentTimeMillis () + time;
+    Thread sampler = new Thread (new Runnable () {
+	public void run () {
+	  while (System.currentTimeMillis () < end) {
+	    int [] n;
+	    gate.writeLock ().lock ();
+	    try {
+	      n = count (players);
+	    }
+	    finally {
+	      gate.writeLock ().unlock ();
+	    }
+	    samples.incrementAndGet ();
+	    givers.addAndGet (n[1]);
+	    if (n[0] != its || n[2] != 0) {
+	      if (bad.incrementAndGet () <= 10) {
+		System.out.println ("Sample " + samples.get () + ": tags "
+				    + n[0] + ", giving " + n[1]
+				    + ", receiving " + n[2]);
+	      }
+	    }
+	    try {
+	      Thread.sleep (SAMPLE_MS);
+	    }
+	    catch (InterruptedException e) {
+	      return;
+	    }
+	  }
+	}
+      }, "sampler");
+    sampler.start ();
+    sampler.join ();
+
+    loss = 0.0;
+    Player.playing = false;
+    boolean finished = Player.done.await (30, TimeUnit.SECONDS);
+
+    int [] n = count (players);
+    int holders = 0;
+    for (Player p : players) {
+      if (p.isIt ()) {
+	holders += 1;
+      }
+    }
+    int giving = n[1] + n[2];
+    long retries = 0;
+    long transfers = 0;
+    for (Bailiff bf : bfs) {
+      retries += bf.getTransferRetryCount ();
+      transfers += bf.getTransferCount ();
+      bf.shutdown ();
+    }
+
+    System.out.println ("Tags given: " + Player.gives.get ()
+			+ ", transfers: " + transfers
+			+ ", answered from the log: " + retries
+			+ ", lost requests: " + lostRequests.get ()
+			+ ", lost replies: " + lostReplies.get ());
+    System.out.println ("Agents 'it': " + holders + " of " + its
+			+ ", still giving or receiving: " + giving
+			+ ", samples: " + samples.get ()
+			+ " (" + givers.get () + " givers seen)"
+			+ ", bad samples: " + bad.get ());
+
+    boolean ok = true;
+    if (!finished) {
+      System.out.println ("FAILED: the agents did not finish");
+      ok = false;
+    }
+    if (holders != its || giving != 0 || 0 < bad.get ()) {
+      System.out.println ("FAILED: the number of tags was not kept");
+      ok = false;
+    }
+    if (samples.get () == 0) {
+      System.out.println ("FAILED: the sampler never counted");
+      ok = false;
+    }
+    if (0.0 < chance && (lostReplies.get () == 0 || retries == 0)) {
+      System.out.println ("FAILED: no lost reply was answered from the log");
+      ok = false;
+    }
+    System.out.println (ok ? "OK" : "FAILED");
+    System.exit (ok ? 0 : 1);
+  }
+}
@@ -23,7 +23,7 @@ set PCY=%LIB%/policy.all
 
 set JRN=%LIB%/JarRunner.jar
 
-set CBS=%HTTP%/Dexter.jar
+set CBS=%HTTP%/Dexter.jar %HTTP%/Dexter-gui.jar
 
 set JAR=%HTTP%/Dexter.jar
 
@@ -22,7 +22,7 @@ if [ -a $CFG ]; then
     HTTP=$CODEBASE
 fi
 
-CBS=${HTTP}/Dexter.jar
+CBS="${HTTP}/Dexter.jar ${HTTP}/Dexter-gui.jar"
 
 JAR=${HTTP}/Dexter.jar
 
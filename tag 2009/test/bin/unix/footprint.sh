@@ -0,0 +1,37 @@
+#!
+# -- ----------------------------------------------------------------
+# -- This file is for Unix/Linux systems.
+# -- This file starts a Bailiff from the installed jar-files, with and
+# -- without its window, and reports the time until it was ready and
+# -- its resident memory a few seconds later. Arguments are passed to
+# -- both Bailiffs.
+# -- ----------------------------------------------------------------
+
+SCRIPT_HOME=$(dirname $0)
+
+LABROOT=${SCRIPT_HOME}/../..
+
+PCY=${LABROOT}/lib/policy.all
+
+CBS=${LABROOT}/cbs
+
+SETTLE=${SETTLE:-5}
+
+unset CLASSPATH
+
+for MODE in gui -noframe; do
+    LOG=$(mktemp)
+    if [ $MODE = gui ]; then OPT=; else OPT=$MODE; fi
+    java -Djava.security.policy=$PCY -jar ${CBS}/Bailiff.jar \
+	 $OPT -log $LOG $* > /dev/null 2>&1 &
+    PID=$!
+    sleep $SETTLE
+    READY=$(sed -n 's/.*<ready ms="\([0-9]*\)".*/\1/p' $LOG)
+    RSS=$(sed -n 's/^VmRSS:[ \t]*//p' /proc/$PID/status)
+    CLASSES=$(jcmd $PID PerfCounter.print 2>/dev/null \
+	      | sed -n 's/^java.cls.loadedClasses=//p')
+    echo "$MODE: ready after ${READY:-?} ms, RSS $RSS, ${CLASSES:-?} classes"
+    kill $PID
+    wait $PID 2>/dev/null
+    rm -f $LOG
+done
@@ -0,0 +1,20 @@
+#!
+# -- ----------------------------------------------------------------
+# -- This file is for Unix/Linux systems.
+# -- This file runs Bailiffs and Dexters in one JVM, without Jini or
+# -- RMI, from the installed jar-files. Try -help for the workload.
+# -- ----------------------------------------------------------------
+
+SCRIPT_HOME=$(dirname $0)
+
+LABROOT=${SCRIPT_HOME}/../..
+
+CBS=${LABROOT}/cbs
+
+LIB=${LABROOT}/lib
+
+CP=${CBS}/Bailiff.jar:${CBS}/Dexter.jar:${CBS}/util.jar:${LIB}/jini-core.jar:${LIB}/jini-ext.jar
+
+unset CLASSPATH
+
+java -cp $CP dsv.pis.gotag.bailiff.BailiffSimulation $*